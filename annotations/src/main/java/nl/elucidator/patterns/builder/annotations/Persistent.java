@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations;
+
+import java.lang.annotation.*;
+
+/**
+ * Keeps a <code>List</code>, <code>Set</code> or <code>Map</code> property in a persistent collection that shares
+ * its structure between versions. The implementation gets <code>withXxxAdded</code> and
+ * <code>withXxxRemoved</code> methods which copy it with one element or entry more or less in O(log n), instead
+ * of copying the whole collection. Sets and maps iterate in hash order. Needs the
+ * <code>builder-annotations-runtime</code> module.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(java.lang.annotation.ElementType.METHOD)
+@Documented
+@Inherited
+public @interface Persistent {
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations;
+
+import java.lang.annotation.*;
+
+/**
+ * Stores only the optional properties set in the implementation of an @Immutable interface with many of them:
+ * the references in a packed <code>Object[]</code>, the primitives in a packed <code>long[]</code> and a
+ * presence bit per property telling which slots are taken, booleans are just their bit. A getter counts the bits
+ * before its own to find its slot. A property at its default value, <code>null</code> or zero, takes no slot.
+ * Required properties and collections keep their fields, collections always hold a value.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(java.lang.annotation.ElementType.TYPE)
+@Documented
+public @interface Sparse {
+}
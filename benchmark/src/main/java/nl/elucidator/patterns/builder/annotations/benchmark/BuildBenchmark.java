@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.benchmark;
+
+import nl.elucidator.patterns.builder.annotations.processor.MakeBuilderProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the generated code of a wide type: <code>build()</code> and <code>builder()</code> of a type with 500
+ * properties, with the methods split into helper methods the JIT can inline and with the methods left whole.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BuildBenchmark {
+
+    @Param({"500"})
+    public int properties;
+
+    /**
+     * The default budget against one large enough to never split.
+     */
+    @Param({"325", "65535"})
+    public int maxMethodBytes;
+
+    @Param({"0", "0.2"})
+    public double required;
+
+    private File directory;
+
+    private Object builder;
+
+    private Object instance;
+
+    private Method build;
+
+    private Method toBuilder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"), "builder-annotations-build-" + maxMethodBytes);
+        ProcessorHarness.delete(directory);
+        // No collections, the generated constructor copies them and a builder without values would fail
+        final SyntheticCodebase codebase = new SyntheticCodebase(1, properties, required, 0, 0);
+        final File classes = ProcessorHarness.compile(codebase, directory,
+                Collections.singletonList(MakeBuilderProcessor.MAX_METHOD_BYTES_OPTION + "=" + maxMethodBytes));
+
+        final URLClassLoader classLoader = new URLClassLoader(new URL[]{classes.toURI().toURL()},
+                BuildBenchmark.class.getClassLoader());
+        final List<String> names = codebase.getQualifiedNames();
+        final Class<?> builderClass = classLoader.loadClass(names.get(names.size() - 1) + "Impl$Builder");
+        builder = newBuilder(builderClass);
+        build = builderClass.getMethod("build");
+        instance = build.invoke(builder);
+        toBuilder = instance.getClass().getMethod("builder");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ProcessorHarness.delete(directory);
+    }
+
+    @Benchmark
+    public Object build() throws Exception {
+        return build.invoke(builder);
+    }
+
+    @Benchmark
+    public Object builder() throws Exception {
+        return toBuilder.invoke(instance);
+    }
+
+    /**
+     * Create a builder, passing default values for the required properties.
+     */
+    private static Object newBuilder(Class<?> builderClass) throws Exception {
+        final Constructor<?> constructor = builderClass.getConstructors()[0];
+        final Class<?>[] parameterTypes = constructor.getParameterTypes();
+        final Object[] arguments = new Object[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            arguments[i] = defaultValue(parameterTypes[i]);
+        }
+        return constructor.newInstance(arguments);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0d;
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        }
+        return null;
+    }
+}
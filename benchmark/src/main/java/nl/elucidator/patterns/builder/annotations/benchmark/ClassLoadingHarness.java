@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.benchmark;
+
+import nl.elucidator.patterns.builder.annotations.processor.MakeBuilderProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures the startup cost of the generated classes: the bytecode size, the time to load and initialize all
+ * implementations and their Builders, and the metaspace they take. Compares the classes generated with and
+ * without {@link MakeBuilderProcessor#RUNTIME_OPTION}.
+ * <p/>
+ * Every iteration loads the classes in a new class loader, alternating between the two variants, so both see
+ * the same JIT and class data state. The metaspace is the used size of the <code>Metaspace</code> pool, or of
+ * <code>Perm Gen</code> before Java 8.
+ */
+public final class ClassLoadingHarness {
+
+    private static final String[] VARIANTS = {"false", "true"};
+
+    private ClassLoadingHarness() {
+    }
+
+    /**
+     * Run the harness from the command line. Arguments are <code>key=value</code> pairs: <code>types</code>,
+     * <code>properties</code>, <code>collections</code> and <code>iterations</code>, defaults 10000, 10, 0.3 and 5,
+     * and <code>dir</code>, the directory the harness creates its work directory
+     * <code>builder-annotations-class-loading</code> in, defaults to <code>java.io.tmpdir</code>.
+     *
+     * @param args The arguments.
+     * @throws Exception When the codebase cannot be compiled or loaded.
+     */
+    public static void main(String[] args) throws Exception {
+        int types = 10000;
+        int properties = 10;
+        double collections = 0.3;
+        int iterations = 5;
+        File directory = ProcessorHarness.workDirectory(System.getProperty("java.io.tmpdir"),
+                "builder-annotations-class-loading");
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value: " + arg);
+            }
+            final String key = arg.substring(0, separator);
+            final String value = arg.substring(separator + 1);
+            if ("types".equals(key)) {
+                types = Integer.parseInt(value);
+            } else if ("properties".equals(key)) {
+                properties = Integer.parseInt(value);
+            } else if ("collections".equals(key)) {
+                collections = Double.parseDouble(value);
+            } else if ("iterations".equals(key)) {
+                iterations = Integer.parseInt(value);
+            } else if ("dir".equals(key)) {
+                directory = ProcessorHarness.workDirectory(value, "builder-annotations-class-loading");
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        final SyntheticCodebase codebase = new SyntheticCodebase(types, properties, 0.2, collections, 1);
+        final List<String> classNames = new ArrayList<String>();
+        for (String type : codebase.getQualifiedNames()) {
+            classNames.add(type + "Impl");
+            classNames.add(type + "Impl$Builder");
+        }
+        System.out.println("Codebase: " + codebase);
+
+        ProcessorHarness.delete(directory);
+        final File[] classes = new File[VARIANTS.length];
+        for (int i = 0; i < VARIANTS.length; i++) {
+            classes[i] = ProcessorHarness.compile(codebase, new File(directory, "runtime-" + VARIANTS[i]),
+                    Collections.singletonList(MakeBuilderProcessor.RUNTIME_OPTION + "=" + VARIANTS[i]));
+            System.out.printf("%s=%s: %d classes, %.1f KB bytecode%n", MakeBuilderProcessor.RUNTIME_OPTION,
+                    VARIANTS[i], classNames.size(), bytecodeSize(classes[i], classNames) / 1024.0);
+        }
+
+        for (int iteration = 1; iteration <= iterations; iteration++) {
+            for (int i = 0; i < VARIANTS.length; i++) {
+                System.out.printf("Iteration %d, %s=%s: %s%n", iteration, MakeBuilderProcessor.RUNTIME_OPTION,
+                        VARIANTS[i], load(classes[i], classNames));
+            }
+        }
+        ProcessorHarness.delete(directory);
+    }
+
+    private static long bytecodeSize(File classes, List<String> classNames) {
+        long size = 0;
+        for (String className : classNames) {
+            size += new File(classes, className.replace('.', File.separatorChar) + ".class").length();
+        }
+        return size;
+    }
+
+    /**
+     * Load and initialize the classes in a new class loader.
+     *
+     * @return The time and metaspace taken.
+     */
+    private static String load(File classes, List<String> classNames) throws IOException, ClassNotFoundException {
+        System.gc();
+        final long metaspace = metaspaceUsed();
+        final long start = System.nanoTime();
+        final URLClassLoader classLoader = new URLClassLoader(new URL[]{classes.toURI().toURL()},
+                ClassLoadingHarness.class.getClassLoader());
+        for (String className : classNames) {
+            Class.forName(className, true, classLoader);
+        }
+        final long nanos = System.nanoTime() - start;
+        final long used = metaspaceUsed() - metaspace;
+        // Keep the loader reachable until the metaspace has been measured
+        classLoader.close();
+        return String.format("loaded in %.1f ms, metaspace %.1f KB", nanos / 1e6, used / 1024.0);
+    }
+
+    private static long metaspaceUsed() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ("Metaspace".equals(pool.getName()) || pool.getName().endsWith("Perm Gen")) {
+                return pool.getUsage().getUsed();
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.benchmark;
+
+import nl.elucidator.patterns.builder.annotations.processor.MakeBuilderProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the getters of the collection properties of a generated implementation. The collections are frozen
+ * when the implementation is built, so a getter is a field read. Run with <code>-prof gc</code>: the
+ * <code>gc.alloc.rate.norm</code> of every benchmark should be zero bytes per operation.
+ * <p/>
+ * The getters are called through method handles adapted to <code>(Object)Object</code>, which do not allocate
+ * themselves, unlike reflection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GetterBenchmark {
+
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * Whether the collections are set, or left <code>null</code> so the getters return empty collections.
+     */
+    @Param({"true", "false"})
+    public boolean populated;
+
+    @Param({"false", "true"})
+    public boolean runtime;
+
+    private File directory;
+
+    private Object instance;
+
+    private MethodHandle list;
+
+    private MethodHandle set;
+
+    private MethodHandle map;
+
+    private MethodHandle sortedSet;
+
+    private MethodHandle sortedMap;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"), "builder-annotations-getter-" + runtime);
+        ProcessorHarness.delete(directory);
+        // One property of every collection type, none required
+        final SyntheticCodebase codebase = new SyntheticCodebase(1, 5, 0, 1, 0);
+        final File classes = ProcessorHarness.compile(codebase, directory,
+                Collections.singletonList(MakeBuilderProcessor.RUNTIME_OPTION + "=" + runtime));
+
+        final URLClassLoader classLoader = new URLClassLoader(new URL[]{classes.toURI().toURL()},
+                GetterBenchmark.class.getClassLoader());
+        final List<String> names = codebase.getQualifiedNames();
+        final Class<?> builderClass = classLoader.loadClass(names.get(names.size() - 1) + "Impl$Builder");
+        final Object builder = builderClass.getConstructor().newInstance();
+        for (Method setter : builderClass.getMethods()) {
+            if (populated && setter.getParameterTypes().length == 1 && setter.getReturnType() == builderClass) {
+                setter.invoke(builder, value(setter.getParameterTypes()[0]));
+            }
+        }
+        instance = builderClass.getMethod("build").invoke(builder);
+
+        final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        for (Method getter : instance.getClass().getMethods()) {
+            if (getter.getDeclaringClass() != instance.getClass() || getter.getParameterTypes().length != 0) {
+                continue;
+            }
+            final MethodHandle handle = lookup.unreflect(getter).asType(GETTER);
+            final Class<?> type = getter.getReturnType();
+            if (type == List.class) {
+                list = handle;
+            } else if (type == Set.class) {
+                set = handle;
+            } else if (type == Map.class) {
+                map = handle;
+            } else if (type == SortedSet.class) {
+                sortedSet = handle;
+            } else if (type == SortedMap.class) {
+                sortedMap = handle;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ProcessorHarness.delete(directory);
+    }
+
+    @Benchmark
+    public Object list() throws Throwable {
+        return (Object) list.invokeExact(instance);
+    }
+
+    @Benchmark
+    public Object set() throws Throwable {
+        return (Object) set.invokeExact(instance);
+    }
+
+    @Benchmark
+    public Object map() throws Throwable {
+        return (Object) map.invokeExact(instance);
+    }
+
+    @Benchmark
+    public Object sortedSet() throws Throwable {
+        return (Object) sortedSet.invokeExact(instance);
+    }
+
+    @Benchmark
+    public Object sortedMap() throws Throwable {
+        return (Object) sortedMap.invokeExact(instance);
+    }
+
+    /**
+     * @return A collection with a few elements of the types the synthetic codebase declares.
+     */
+    private static Object value(Class<?> type) {
+        if (type == List.class) {
+            return new ArrayList<String>(Arrays.asList("a", "b", "c"));
+        } else if (type == Set.class) {
+            return new HashSet<Long>(Arrays.asList(1L, 2L, 3L));
+        } else if (type == Map.class) {
+            final Map<String, Integer> value = new HashMap<String, Integer>();
+            value.put("a", 1);
+            return value;
+        } else if (type == SortedSet.class) {
+            return new TreeSet<String>(Arrays.asList("a", "b", "c"));
+        } else if (type == SortedMap.class) {
+            final SortedMap<String, Long> value = new TreeMap<String, Long>();
+            value.put("a", 1L);
+            return value;
+        }
+        throw new IllegalArgumentException("Not a collection: " + type);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.benchmark;
+
+import com.sun.source.util.JavacTask;
+
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parses and attributes a {@link SyntheticCodebase} with javac, without annotation processing, so the element
+ * model of the types can be used outside of a compilation. The elements stay valid until the fixture is closed.
+ */
+final class JavacFixture {
+
+    private final File workDirectory;
+    private final StandardJavaFileManager fileManager;
+    private final JavacTask task;
+    private final List<TypeElement> types;
+
+    private JavacFixture(File workDirectory, StandardJavaFileManager fileManager, JavacTask task, List<TypeElement> types) {
+        this.workDirectory = workDirectory;
+        this.fileManager = fileManager;
+        this.task = task;
+        this.types = types;
+    }
+
+    /**
+     * Write and analyse the sources of a codebase.
+     *
+     * @param codebase      The codebase.
+     * @param workDirectory The directory for the sources.
+     * @return The fixture.
+     * @throws IOException When the sources cannot be written or analysed.
+     */
+    static JavacFixture analyze(SyntheticCodebase codebase, File workDirectory) throws IOException {
+        ProcessorHarness.delete(workDirectory);
+        final List<File> sources = codebase.writeSources(new File(workDirectory, "src"));
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+        final JavacTask task = (JavacTask) compiler.getTask(null, fileManager, null,
+                Arrays.asList("-proc:none", "-classpath", System.getProperty("java.class.path")), null,
+                fileManager.getJavaFileObjectsFromFiles(sources));
+        task.analyze();
+
+        final List<TypeElement> types = new ArrayList<TypeElement>();
+        for (String name : codebase.getQualifiedNames()) {
+            final TypeElement type = task.getElements().getTypeElement(name);
+            if (type == null) {
+                throw new IOException("Unable to analyse " + name);
+            }
+            types.add(type);
+        }
+        return new JavacFixture(workDirectory, fileManager, task, Collections.unmodifiableList(types));
+    }
+
+    /**
+     * @return All types of the codebase, the super-interfaces first.
+     */
+    List<TypeElement> getTypes() {
+        return types;
+    }
+
+    /**
+     * @return An environment for parsers, offering the element and type utilities of the analysed codebase.
+     *         There is no compilation to report messages to or to write files in.
+     */
+    ProcessingEnvironment getProcessingEnvironment() {
+        return new ProcessingEnvironment() {
+            public Map<String, String> getOptions() {
+                return Collections.emptyMap();
+            }
+
+            public Messager getMessager() {
+                throw new UnsupportedOperationException("Not available outside a compilation");
+            }
+
+            public Filer getFiler() {
+                throw new UnsupportedOperationException("Not available outside a compilation");
+            }
+
+            public Elements getElementUtils() {
+                return task.getElements();
+            }
+
+            public Types getTypeUtils() {
+                return task.getTypes();
+            }
+
+            public SourceVersion getSourceVersion() {
+                return SourceVersion.latest();
+            }
+
+            public Locale getLocale() {
+                return Locale.getDefault();
+            }
+        };
+    }
+
+    /**
+     * Release the compiler and delete the sources.
+     *
+     * @throws IOException When the compiler cannot be closed.
+     */
+    void close() throws IOException {
+        fileManager.close();
+        ProcessorHarness.delete(workDirectory);
+    }
+}
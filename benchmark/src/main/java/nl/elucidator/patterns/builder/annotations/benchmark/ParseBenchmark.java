@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.benchmark;
+
+import nl.elucidator.patterns.builder.annotations.processor.ClassParser;
+import nl.elucidator.patterns.builder.annotations.processor.DefaultClassParserImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.lang.model.element.TypeElement;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parse phase in isolation: reading the metadata of all types of a {@link SyntheticCodebase}
+ * in a single round, including the resolution of the type hierarchies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"1000"})
+    public int types;
+
+    @Param({"10", "50"})
+    public int properties;
+
+    @Param({"0", "3"})
+    public int depth;
+
+    private JavacFixture fixture;
+
+    private ClassParser parser;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = JavacFixture.analyze(new SyntheticCodebase(types, properties, 0.2, 0.1, depth),
+                new File(System.getProperty("java.io.tmpdir"), "builder-annotations-parse"));
+        parser = new DefaultClassParserImpl();
+        parser.init(fixture.getProcessingEnvironment());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        parser.startRound();
+        for (TypeElement type : fixture.getTypes()) {
+            blackhole.consume(parser.readMetaData(type, parser.readTypeHierarchy(type)));
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.benchmark;
+
+import nl.elucidator.patterns.builder.annotations.processor.MakeBuilderProcessor;
+
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs javac in-process with the {@link MakeBuilderProcessor} on a {@link SyntheticCodebase}, the same way
+ * <code>AbstractAnnotationProcessorTest</code> does, and measures the wall time, the cost per type and the
+ * peak heap of the compilation.
+ * <p/>
+ * The compilation runs with <code>-proc:only</code>, so the generated sources are not compiled. The processor
+ * writes its report (see {@link MakeBuilderProcessor#REPORT_OPTION}) to the work directory for the phase breakdown.
+ * The bytes the processor allocated to render and write the sources are taken from that report. Unlike the peak
+ * heap, which includes the syntax trees of javac, they show the memory cost of the generation itself.
+ */
+public final class ProcessorHarness {
+
+    private static final JavaCompiler COMPILER = ToolProvider.getSystemJavaCompiler();
+
+    private static final Pattern GENERATION_BYTES = Pattern.compile("\"(?:render|write)Bytes\": (-?\\d+)");
+
+    private final SyntheticCodebase codebase;
+    private final File workDirectory;
+    private final List<String> processorOptions;
+
+    /**
+     * @param codebase         The codebase to compile.
+     * @param workDirectory    The directory for the sources and the generated files, deleted with all its contents
+     *                         before every compilation.
+     * @param processorOptions Additional options for the processor, in the form <code>key=value</code>.
+     */
+    public ProcessorHarness(SyntheticCodebase codebase, File workDirectory, List<String> processorOptions) {
+        this.codebase = codebase;
+        this.workDirectory = workDirectory;
+        this.processorOptions = new ArrayList<String>(processorOptions);
+    }
+
+    /**
+     * Write the sources and run a single compilation.
+     *
+     * @return The measurements.
+     * @throws IOException When the sources cannot be written.
+     */
+    public Result run() throws IOException {
+        delete(workDirectory);
+        final File generated = new File(workDirectory, "generated");
+        if (!generated.mkdirs()) {
+            throw new IOException("Unable to create " + generated);
+        }
+        final List<File> sources = codebase.writeSources(new File(workDirectory, "src"));
+        final File report = new File(workDirectory, "report.json");
+
+        final List<String> options = new ArrayList<String>();
+        options.addAll(Arrays.asList("-proc:only", "-s", generated.getPath(),
+                "-classpath", System.getProperty("java.class.path"),
+                "-A" + MakeBuilderProcessor.REPORT_OPTION + "=" + report.getPath()));
+        for (String option : processorOptions) {
+            options.add("-A" + option);
+        }
+
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        final StandardJavaFileManager fileManager = COMPILER.getStandardFileManager(diagnostics, null, null);
+        try {
+            final JavaCompiler.CompilationTask task = COMPILER.getTask(null, fileManager, diagnostics, options, null,
+                    fileManager.getJavaFileObjectsFromFiles(sources));
+            task.setProcessors(Collections.<Processor>singletonList(new MakeBuilderProcessor()));
+
+            System.gc();
+            resetPeakHeap();
+            final long start = System.nanoTime();
+            task.call();
+            final long wallNanos = System.nanoTime() - start;
+            return new Result(codebase.getQualifiedNames().size(), wallNanos, peakHeap(), generationBytes(report),
+                    errors(diagnostics), report);
+        } finally {
+            fileManager.close();
+        }
+    }
+
+    /**
+     * Compile the codebase together with the generated sources, with the classpath of this JVM.
+     *
+     * @param processorOptions Additional options for the processor, in the form <code>key=value</code>.
+     * @return The directory with the classes.
+     * @throws IOException When the sources cannot be written.
+     */
+    static File compile(SyntheticCodebase codebase, File directory, List<String> processorOptions) throws IOException {
+        final File generated = new File(directory, "generated");
+        final File classes = new File(directory, "classes");
+        if (!generated.mkdirs() || !classes.mkdirs()) {
+            throw new IOException("Can not create " + directory);
+        }
+        final List<String> options = new ArrayList<String>(Arrays.asList("-classpath",
+                System.getProperty("java.class.path"), "-d", classes.getPath(), "-s", generated.getPath()));
+        for (String option : processorOptions) {
+            options.add("-A" + option);
+        }
+        final StandardJavaFileManager fileManager = COMPILER.getStandardFileManager(null, null, null);
+        try {
+            final JavaCompiler.CompilationTask task = COMPILER.getTask(null, fileManager, null, options, null,
+                    fileManager.getJavaFileObjectsFromFiles(codebase.writeSources(new File(directory, "src"))));
+            task.setProcessors(Collections.<Processor>singletonList(new MakeBuilderProcessor()));
+            if (!task.call()) {
+                throw new IllegalStateException("Compilation of " + codebase + " failed");
+            }
+        } finally {
+            fileManager.close();
+        }
+        return classes;
+    }
+
+    /**
+     * Read the bytes allocated rendering and writing all sources from the rounds in the report.
+     *
+     * @return The bytes, or -1 when unknown.
+     */
+    private static long generationBytes(File report) throws IOException {
+        final String content = new String(Files.readAllBytes(report.toPath()), "UTF-8");
+        final int types = content.indexOf("\"types\": [");
+        final Matcher matcher = GENERATION_BYTES.matcher(types < 0 ? content : content.substring(0, types));
+        long bytes = 0;
+        while (matcher.find()) {
+            final long value = Long.parseLong(matcher.group(1));
+            if (value < 0) {
+                return -1;
+            }
+            bytes += value;
+        }
+        return bytes;
+    }
+
+    private static List<String> errors(DiagnosticCollector<JavaFileObject> diagnostics) {
+        final List<String> errors = new ArrayList<String>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic.toString());
+            }
+        }
+        return errors;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * @return The sum of the peak usage of all heap pools since the last reset.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Get the work directory of a harness in a directory given by the user. The harness deletes its work directory,
+     * a dedicated directory keeps the other contents of the given one, like a home directory, safe.
+     *
+     * @param parent The directory given by the user.
+     * @param name   The name of the work directory.
+     * @return The work directory.
+     */
+    static File workDirectory(String parent, String name) {
+        return new File(parent, name);
+    }
+
+    /**
+     * Delete a file or a directory with all its contents.
+     *
+     * @param file The file to delete.
+     */
+    static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * The measurements of a single compilation.
+     */
+    public static final class Result {
+        private final int types;
+        private final long wallNanos;
+        private final long peakHeapBytes;
+        private final long generationBytes;
+        private final List<String> errors;
+        private final File report;
+
+        Result(int types, long wallNanos, long peakHeapBytes, long generationBytes, List<String> errors, File report) {
+            this.types = types;
+            this.wallNanos = wallNanos;
+            this.peakHeapBytes = peakHeapBytes;
+            this.generationBytes = generationBytes;
+            this.errors = Collections.unmodifiableList(errors);
+            this.report = report;
+        }
+
+        public int getTypes() {
+            return types;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public long getNanosPerType() {
+            return wallNanos / types;
+        }
+
+        public long getPeakHeapBytes() {
+            return peakHeapBytes;
+        }
+
+        /**
+         * @return The bytes allocated by the processor rendering and writing the sources, -1 when unknown.
+         */
+        public long getGenerationBytes() {
+            return generationBytes;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public File getReport() {
+            return report;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d types in %.1f ms, %.1f us per type, peak heap %.1f MB, generation %.1f KB per type%s",
+                    types, wallNanos / 1e6, getNanosPerType() / 1e3, peakHeapBytes / (1024.0 * 1024.0),
+                    generationBytes / 1024.0 / types,
+                    errors.isEmpty() ? "" : ", " + errors.size() + " errors");
+        }
+    }
+
+    /**
+     * Run the harness from the command line. Arguments are <code>key=value</code> pairs:
+     * <ul>
+     * <li><code>types</code>, <code>properties</code>, <code>required</code>, <code>collections</code> and
+     * <code>depth</code> describe the {@link SyntheticCodebase}, defaults 1000, 10, 0.2, 0.1 and 1. A comma
+     * separated list of <code>properties</code>, like <code>properties=250,1000,4000</code>, runs the harness for
+     * every count, to show how the cost grows with the width of the types.</li>
+     * <li><code>warmup</code> and <code>iterations</code> set the number of compilations, defaults 3 and 5.</li>
+     * <li><code>dir</code> sets the directory the harness creates its work directory
+     * <code>builder-annotations-benchmark</code> in, defaults to <code>java.io.tmpdir</code>. Only the work
+     * directory is deleted between the compilations.</li>
+     * <li>Any other pair starting with <code>builder.</code> is passed to the processor.</li>
+     * </ul>
+     *
+     * @param args The arguments.
+     * @throws IOException When the sources cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        int types = 1000;
+        String properties = "10";
+        double required = 0.2;
+        double collections = 0.1;
+        int depth = 1;
+        int warmup = 3;
+        int iterations = 5;
+        File directory = workDirectory(System.getProperty("java.io.tmpdir"), "builder-annotations-benchmark");
+        final List<String> processorOptions = new ArrayList<String>();
+
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value: " + arg);
+            }
+            final String key = arg.substring(0, separator);
+            final String value = arg.substring(separator + 1);
+            if ("types".equals(key)) {
+                types = Integer.parseInt(value);
+            } else if ("properties".equals(key)) {
+                properties = value;
+            } else if ("required".equals(key)) {
+                required = Double.parseDouble(value);
+            } else if ("collections".equals(key)) {
+                collections = Double.parseDouble(value);
+            } else if ("depth".equals(key)) {
+                depth = Integer.parseInt(value);
+            } else if ("warmup".equals(key)) {
+                warmup = Integer.parseInt(value);
+            } else if ("iterations".equals(key)) {
+                iterations = Integer.parseInt(value);
+            } else if ("dir".equals(key)) {
+                directory = workDirectory(value, "builder-annotations-benchmark");
+            } else if (key.startsWith("builder.")) {
+                processorOptions.add(arg);
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        for (String count : properties.split(",")) {
+            final SyntheticCodebase codebase = new SyntheticCodebase(types, Integer.parseInt(count.trim()),
+                    required, collections, depth);
+            run(new ProcessorHarness(codebase, directory, processorOptions), warmup, iterations);
+        }
+    }
+
+    private static void run(ProcessorHarness harness, int warmup, int iterations) throws IOException {
+        System.out.println("Codebase: " + harness.codebase + ", processor options: " + harness.processorOptions);
+        for (int i = 0; i < warmup; i++) {
+            System.out.println("Warmup " + (i + 1) + ": " + harness.run());
+        }
+        Result last = null;
+        for (int i = 0; i < iterations; i++) {
+            last = harness.run();
+            System.out.println("Iteration " + (i + 1) + ": " + last);
+            for (String error : last.getErrors()) {
+                System.out.println("  " + error);
+            }
+        }
+        if (last != null) {
+            System.out.println("Phase report of the last iteration: " + last.getReport());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a set of @Immutable interfaces to run the processor on.
+ * <p/>
+ * Every type declares the same number of properties. With a depth larger than 0 every type extends a chain of
+ * @Immutable super-interfaces of that depth, one chain is shared by ten types. The super-interfaces declare
+ * properties of their own and are processed as well. The properties are chosen by a random generator seeded with
+ * the name of the type, so a codebase is the same on every run.
+ */
+public final class SyntheticCodebase {
+
+    /**
+     * The package of the generated types.
+     */
+    public static final String PACKAGE = "synthetic";
+
+    private static final String[] SIMPLE_TYPES = {
+            "String", "int", "long", "boolean", "Integer", "java.math.BigDecimal", "java.util.Date"};
+
+    private static final String[] COLLECTION_TYPES = {
+            "java.util.List<String>", "java.util.Set<Long>", "java.util.Map<String, Integer>",
+            "java.util.SortedSet<String>", "java.util.SortedMap<String, Long>"};
+
+    private final int types;
+    private final int propertiesPerType;
+    private final double requiredRatio;
+    private final double collectionRatio;
+    private final int depth;
+
+    /**
+     * @param types             The number of types, not counting the super-interfaces.
+     * @param propertiesPerType The number of properties declared by every type.
+     * @param requiredRatio     The fraction of the properties that is @Required.
+     * @param collectionRatio   The fraction of the properties that is a collection.
+     * @param depth             The number of super-interfaces above every type.
+     */
+    public SyntheticCodebase(int types, int propertiesPerType, double requiredRatio, double collectionRatio, int depth) {
+        if (types < 1 || propertiesPerType < 0 || depth < 0) {
+            throw new IllegalArgumentException("Invalid codebase: " + types + " types, "
+                    + propertiesPerType + " properties per type, depth " + depth);
+        }
+        this.types = types;
+        this.propertiesPerType = propertiesPerType;
+        this.requiredRatio = requiredRatio;
+        this.collectionRatio = collectionRatio;
+        this.depth = depth;
+    }
+
+    /**
+     * @return The number of super-interface chains.
+     */
+    private int getChains() {
+        return depth == 0 ? 0 : Math.max(1, types / 10);
+    }
+
+    /**
+     * @return The qualified names of all generated types, the super-interfaces first.
+     */
+    public List<String> getQualifiedNames() {
+        final List<String> names = new ArrayList<String>();
+        for (int level = 0; level < depth; level++) {
+            for (int chain = 0; chain < getChains(); chain++) {
+                names.add(PACKAGE + "." + baseName(level, chain));
+            }
+        }
+        for (int type = 0; type < types; type++) {
+            names.add(PACKAGE + "." + typeName(type));
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Write the sources of the codebase.
+     *
+     * @param sourceDirectory The root of the sources.
+     * @return The written files.
+     * @throws IOException When a file cannot be written.
+     */
+    public List<File> writeSources(File sourceDirectory) throws IOException {
+        final File packageDirectory = new File(sourceDirectory, PACKAGE);
+        if (!packageDirectory.isDirectory() && !packageDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + packageDirectory);
+        }
+
+        final List<File> files = new ArrayList<File>();
+        for (int level = 0; level < depth; level++) {
+            for (int chain = 0; chain < getChains(); chain++) {
+                files.add(write(packageDirectory, baseName(level, chain), level == 0 ? null : baseName(level - 1, chain)));
+            }
+        }
+        for (int type = 0; type < types; type++) {
+            files.add(write(packageDirectory, typeName(type), depth == 0 ? null : baseName(depth - 1, type % getChains())));
+        }
+        return files;
+    }
+
+    private File write(File packageDirectory, String name, String superInterface) throws IOException {
+        final File file = new File(packageDirectory, name + ".java");
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(source(name, superInterface));
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * Create the source of a single type.
+     *
+     * @param name           The simple name of the type.
+     * @param superInterface The simple name of the super-interface, <code>null</code> for none.
+     * @return The source.
+     */
+    String source(String name, String superInterface) {
+        final Random random = new Random(name.hashCode());
+        final StringBuilder source = new StringBuilder(128 + 96 * propertiesPerType);
+        source.append("package ").append(PACKAGE).append(";\n\n");
+        source.append("import net.jcip.annotations.Immutable;\n");
+        source.append("import nl.elucidator.patterns.builder.annotations.Required;\n\n");
+        source.append("@Immutable\npublic interface ").append(name);
+        if (superInterface != null) {
+            source.append(" extends ").append(superInterface);
+        }
+        source.append(" {\n");
+
+        for (int property = 0; property < propertiesPerType; property++) {
+            final String type = random.nextDouble() < collectionRatio
+                    ? COLLECTION_TYPES[property % COLLECTION_TYPES.length]
+                    : SIMPLE_TYPES[property % SIMPLE_TYPES.length];
+            if (random.nextDouble() < requiredRatio) {
+                source.append("    @Required\n");
+            }
+            source.append("    ").append(type).append(' ')
+                    .append("boolean".equals(type) ? "is" : "get").append(name).append("Property").append(property)
+                    .append("();\n\n");
+        }
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private static String typeName(int type) {
+        return "Type" + type;
+    }
+
+    private static String baseName(int level, int chain) {
+        return "Base" + level + "x" + chain;
+    }
+
+    @Override
+    public String toString() {
+        return types + " types, " + propertiesPerType + " properties per type, " + requiredRatio + " required, "
+                + collectionRatio + " collections, depth " + depth;
+    }
+}
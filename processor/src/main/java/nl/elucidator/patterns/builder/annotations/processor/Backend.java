@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.processor;
+
+/**
+ * A replaceable part of the processor, a {@link ClassParser} or a {@link ClassWriter}.
+ * <p/>
+ * Backends are discovered with the {@link java.util.ServiceLoader}, they must have a public no-argument
+ * constructor and be listed in <code>META-INF/services</code> under the name of their interface. They are
+ * selected by name with the <code>builder.parser</code> and <code>builder.writer</code> options.
+ */
+public interface Backend {
+
+    /**
+     * @return The name used to select the backend, unique among the backends of the same kind.
+     */
+    String getName();
+}
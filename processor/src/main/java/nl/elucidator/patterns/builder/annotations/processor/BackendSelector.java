@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Selects the backend for a type from the backends found by the {@link ServiceLoader}.
+ * <p/>
+ * The selection is a comma separated list of entries. An entry without a package, like <code>streaming</code>,
+ * selects the backend for all types. An entry <code>com.acme=freemarker</code> selects the backend for the types
+ * in the package <code>com.acme</code> and its sub-packages. The most specific package wins.
+ * Unknown backends are reported as warnings and ignored.
+ *
+ * @param <T> The kind of backend.
+ */
+final class BackendSelector<T extends Backend> {
+
+    private final Map<String, T> backends;
+
+    private final T defaultBackend;
+
+    /**
+     * The selected backends by package, the most specific package first.
+     */
+    private final List<Map.Entry<String, T>> packages = new ArrayList<Map.Entry<String, T>>();
+
+    private final List<String> warnings = new ArrayList<String>();
+
+    /**
+     * @param option      The name of the option, used in the warnings.
+     * @param selection   The value of the option, may be <code>null</code>.
+     * @param backends    The available backends.
+     * @param defaultName The name of the backend to use when no other backend is selected.
+     */
+    BackendSelector(String option, String selection, Iterable<T> backends, String defaultName) {
+        this.backends = new LinkedHashMap<String, T>();
+        for (T backend : backends) {
+            if (!this.backends.containsKey(backend.getName())) {
+                this.backends.put(backend.getName(), backend);
+            }
+        }
+        if (!this.backends.containsKey(defaultName)) {
+            throw new IllegalStateException("Backend " + defaultName + " not found, available: " + this.backends.keySet());
+        }
+
+        T selected = this.backends.get(defaultName);
+        if (selection != null) {
+            for (String entry : selection.split(",")) {
+                final int separator = entry.indexOf('=');
+                final String name = entry.substring(separator + 1).trim();
+                final T backend = this.backends.get(name);
+                if (backend == null) {
+                    if (name.length() > 0) {
+                        warnings.add("Unknown " + option + " '" + name + "', available: " + this.backends.keySet());
+                    }
+                } else if (separator < 0) {
+                    selected = backend;
+                } else {
+                    addPackage(entry.substring(0, separator).trim(), backend);
+                }
+            }
+        }
+        defaultBackend = selected;
+    }
+
+    /**
+     * Create a selector for the backends found by the {@link ServiceLoader}.
+     */
+    static <T extends Backend> BackendSelector<T> load(Class<T> type, String option, String selection, String defaultName) {
+        return new BackendSelector<T>(option, selection,
+                ServiceLoader.load(type, BackendSelector.class.getClassLoader()), defaultName);
+    }
+
+    private void addPackage(String packageName, T backend) {
+        int i = 0;
+        while (i < packages.size() && packages.get(i).getKey().length() >= packageName.length()) {
+            i++;
+        }
+        packages.add(i, new AbstractMap.SimpleImmutableEntry<String, T>(packageName, backend));
+    }
+
+    /**
+     * Select the backend for a type.
+     *
+     * @param packageName The package of the type.
+     * @return The backend.
+     */
+    T select(String packageName) {
+        for (Map.Entry<String, T> entry : packages) {
+            final String selected = entry.getKey();
+            if (packageName.startsWith(selected)
+                    && (packageName.length() == selected.length() || packageName.charAt(selected.length()) == '.')) {
+                return entry.getValue();
+            }
+        }
+        return defaultBackend;
+    }
+
+    /**
+     * @param name The name of a backend.
+     * @return The backend, or <code>null</code> when not available.
+     */
+    T get(String name) {
+        return backends.get(name);
+    }
+
+    /**
+     * @return All available backends.
+     */
+    Collection<T> getAll() {
+        return Collections.unmodifiableCollection(backends.values());
+    }
+
+    /**
+     * @return The problems found in the selection.
+     */
+    List<String> getWarnings() {
+        return Collections.unmodifiableList(warnings);
+    }
+}
@@ -19,6 +19,8 @@ package nl.elucidator.patterns.builder.annotations.processor;
 
 /**
  * Utility for JavaBean operations.
+ * <p/>
+ * The methods work on plain method names, without regular expressions or intermediate strings.
  */
 class BeanUtils {
 
@@ -27,6 +29,22 @@ class BeanUtils {
      */
     private static final String[] GETTER_PREFIXES = new String[]{"get", "is", "has"};
 
+    /**
+     * Determine the length of the getter prefix of the given method name.
+     *
+     * @param methodName The name of the method.
+     * @return The length of the prefix, or -1 if the method is not a getter.
+     */
+    static int getterPrefixLength(final String methodName) {
+        for (final String prefix : GETTER_PREFIXES) {
+            if (methodName.startsWith(prefix)) {
+                // A method called "get" is no getter
+                return methodName.length() > prefix.length() ? prefix.length() : -1;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Determine if the given methodName corresponds to a property and if it does,
      * return that property name.
@@ -35,14 +53,14 @@ class BeanUtils {
      * @return The property name, or null if this method is not an accessor.
      */
     static String determinePropertyName(final String methodName) {
-        for (final String prefix : GETTER_PREFIXES) {
-            if (methodName.startsWith(prefix)) {
-                String propertyName = methodName.replaceFirst(prefix, "");
-                propertyName = Character.toString(Character.toLowerCase(propertyName.charAt(0))) + propertyName.substring(1);
-                return propertyName;
-            }
+        final int prefixLength = getterPrefixLength(methodName);
+        if (prefixLength < 0) {
+            return null;
         }
-        return null;
+        final char[] propertyName = new char[methodName.length() - prefixLength];
+        methodName.getChars(prefixLength, methodName.length(), propertyName, 0);
+        propertyName[0] = Character.toLowerCase(propertyName[0]);
+        return new String(propertyName);
     }
 
     /**
@@ -55,26 +73,6 @@ class BeanUtils {
         return "set" + Character.toString(Character.toUpperCase(propertyName.charAt(0))) + propertyName.substring(1);
     }
 
-    /**
-     * Check to see if the given methodSignature is really a method we can process.
-     *
-     * @param methodSignature The method signature.
-     * @return true if methodSignature could be a valid method, false otherwise.
-     */
-    static boolean couldBeAGetterMethod(final String methodSignature) {
-        return methodSignature.contains("()");
-    }
-
-    /**
-     * Determine the method name for the given method signature.
-     *
-     * @param methodSignature The method signature.
-     * @return The method name, without complete signature (e.g. parameters).
-     */
-    static String determineMethodName(final String methodSignature) {
-        return methodSignature.substring(0, methodSignature.indexOf('('));
-    }
-
     /**
      * Determine if the given method name is a valid getter method.
      *
@@ -82,16 +80,6 @@ class BeanUtils {
      * @return true if the method is a getter, false otherwise.
      */
     static boolean isGetter(final String methodName) {
-        for (final String getterPrefix : GETTER_PREFIXES) {
-            if (methodName.startsWith(getterPrefix)) {
-                // A method called "get" is no getter
-                int prefixLength = getterPrefix.length();
-                if (methodName.length() > prefixLength) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
+        return getterPrefixLength(methodName) >= 0;
     }
 }
@@ -17,23 +17,198 @@
 
 package nl.elucidator.patterns.builder.annotations.processor;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * Data holder for all necessary meta data in a given class.
+ * <p/>
+ * The metadata is a snapshot taken on the compiler thread and is not modified afterwards, so it
+ * can be rendered on other threads. Only the originating element in the {@link SuperClassInfo}
+ * refers back to the <code>javax.lang.model</code> API and must not be used while rendering.
  *
  * $Author$
  * $Revision$
  */
 public class ClassMetaData {
+
+    /**
+     * The class of the runtime module the constructors call to copy the collection properties.
+     */
+    public static final String RUNTIME_COLLECTIONS =
+            "nl.elucidator.patterns.builder.annotations.runtime.ImmutableCollections";
+
+    /**
+     * The class of the runtime module the constructors call to copy collection properties with boxed primitives.
+     */
+    public static final String RUNTIME_PRIMITIVE_COLLECTIONS =
+            "nl.elucidator.patterns.builder.annotations.runtime.PrimitiveCollections";
+
+    /**
+     * The class of the runtime module holding the canonical instances of @Interned types.
+     */
+    public static final String RUNTIME_INTERN_POOL = "nl.elucidator.patterns.builder.annotations.runtime.InternPool";
+
+    /**
+     * The class of the runtime module the constructors call to copy @Persistent collection properties.
+     */
+    public static final String RUNTIME_PERSISTENT_COLLECTIONS =
+            "nl.elucidator.patterns.builder.annotations.runtime.PersistentCollections";
+
+    /* The bits of the packedFlags of a compact layout, further booleans keep their own fields */
+    private static final int MAX_PACKED_BITS = Long.SIZE;
+
+    /* The parameter slots the JVM allows a method, this included */
+    private static final int MAX_PARAMETER_SLOTS = 255;
+
     private final SuperClassInfo superClassInfo;
     private final ClassProperty[] properties;
     private final boolean isInterface;
+    private final int maxMethodBytes;
+    private final boolean runtime;
+    private final boolean interned;
+    private final boolean reusable;
+    private final boolean compact;
+    private final boolean sparse;
+    private final String generated;
 
     public ClassMetaData(SuperClassInfo superClassInfo, ClassProperty[] properties, boolean isInterface) {
+        this(superClassInfo, properties, isInterface, MethodSplitter.DEFAULT_MAX_METHOD_BYTES, false, false, false,
+                false, false, MakeBuilderProcessor.GENERATED);
+    }
+
+    private ClassMetaData(SuperClassInfo superClassInfo, ClassProperty[] properties, boolean isInterface,
+                          int maxMethodBytes, boolean runtime, boolean interned, boolean reusable, boolean compact,
+                          boolean sparse, String generated) {
         this.superClassInfo = superClassInfo;
         this.properties = properties;
         this.isInterface = isInterface;
+        this.maxMethodBytes = maxMethodBytes;
+        this.runtime = runtime;
+        this.interned = interned;
+        this.reusable = reusable;
+        this.compact = compact;
+        this.sparse = sparse;
+        this.generated = generated;
+    }
+
+    /**
+     * @param maxMethodBytes The bytecode budget of the generated methods.
+     * @return A copy of this metadata with the given budget.
+     */
+    public ClassMetaData withMaxMethodBytes(int maxMethodBytes) {
+        return new ClassMetaData(superClassInfo, properties, isInterface, maxMethodBytes, runtime, interned, reusable,
+                compact, sparse, generated);
+    }
+
+    /**
+     * @param runtime Whether the generated code may call into the runtime module.
+     * @return A copy of this metadata using the runtime module or not.
+     */
+    public ClassMetaData withRuntime(boolean runtime) {
+        return new ClassMetaData(superClassInfo, properties, isInterface, maxMethodBytes, runtime, interned, reusable,
+                compact, sparse, generated);
+    }
+
+    /**
+     * @param generated The qualified name of the Generated annotation of the source version, <code>null</code> when
+     *                  none is available.
+     * @return A copy of this metadata marking the implementation with the given annotation.
+     */
+    public ClassMetaData withGenerated(String generated) {
+        return new ClassMetaData(superClassInfo, properties, isInterface, maxMethodBytes, runtime, interned, reusable,
+                compact, sparse, generated);
+    }
+
+    /**
+     * @param interned Whether the Builder returns canonical instances.
+     * @return A copy of this metadata interning its instances or not.
+     */
+    public ClassMetaData withInterned(boolean interned) {
+        return new ClassMetaData(superClassInfo, properties, isInterface, maxMethodBytes, runtime, interned, reusable,
+                compact, sparse, generated);
+    }
+
+    /**
+     * @param reusable Whether the Builder can be reset and reused.
+     * @return A copy of this metadata with a reusable Builder or not.
+     */
+    public ClassMetaData withReusable(boolean reusable) {
+        return new ClassMetaData(superClassInfo, properties, isInterface, maxMethodBytes, runtime, interned, reusable,
+                compact, sparse, generated);
+    }
+
+    /**
+     * @param compact Whether the implementation packs its booleans and orders its fields.
+     * @return A copy of this metadata with a compact layout or not.
+     */
+    public ClassMetaData withCompact(boolean compact) {
+        if (compact == this.compact) {
+            return this;
+        }
+        final ClassProperty[] layout = new ClassProperty[properties.length];
+        int bits = 0;
+        for (int i = 0; i < properties.length; i++) {
+            layout[i] = properties[i].copy();
+            layout[i].flag = -1;
+            layout[i].presenceFlag = -1;
+            if (compact && "boolean".equals(layout[i].type) && !layout[i].isSparse() && bits < MAX_PACKED_BITS) {
+                layout[i].flag = bits++;
+            }
+        }
+        for (ClassProperty property : layout) {
+            if (compact && !property.required && property.isPrimitive() && !property.isSparse() && bits < MAX_PACKED_BITS) {
+                property.presenceFlag = bits++;
+            }
+        }
+        for (ClassProperty property : layout) {
+            property.wideFlags = bits > Integer.SIZE;
+        }
+        return new ClassMetaData(superClassInfo, layout, isInterface, maxMethodBytes, runtime, interned, reusable,
+                compact, sparse, generated);
+    }
+
+    /**
+     * Assigns the optional properties but the collections a bit each: the references first, then the primitives
+     * with a slot in <code>primitives</code>, then the booleans kept in their bit alone.
+     *
+     * @param sparse Whether the implementation stores only the optional properties set.
+     * @return A copy of this metadata with sparse storage or not.
+     */
+    public ClassMetaData withSparse(boolean sparse) {
+        if (sparse == this.sparse) {
+            return this;
+        }
+        final ClassProperty[] layout = new ClassProperty[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            layout[i] = properties[i].copy();
+            layout[i].sparseBit = -1;
+            layout[i].sparseSlot = null;
+        }
+        if (sparse) {
+            int bits = 0;
+            for (int group = 0; group < 3; group++) {
+                for (ClassProperty property : layout) {
+                    if (!property.required && property.getCollectionType() == CollectionType.NONE
+                            && sparseGroup(property) == group) {
+                        property.sparseBit = bits++;
+                        property.flag = -1;
+                        property.presenceFlag = -1;
+                    }
+                }
+            }
+            final int primitivesFrom = countSparse(layout, 0);
+            for (ClassProperty property : layout) {
+                if (property.isSparse() && sparseGroup(property) < 2) {
+                    property.sparseSlot = bitCount(sparseGroup(property) == 0 ? 0 : primitivesFrom, property.sparseBit);
+                }
+            }
+        }
+        return new ClassMetaData(superClassInfo, layout, isInterface, maxMethodBytes, runtime, interned, reusable,
+                compact, sparse, generated);
     }
 
     public SuperClassInfo getSuperClassInfo() {
@@ -47,4 +222,416 @@ public class ClassMetaData {
     public boolean isInterface() {
         return isInterface;
     }
+
+    /**
+     * @return The bytecode budget of the generated methods, larger methods are split into helper methods.
+     */
+    public int getMaxMethodBytes() {
+        return maxMethodBytes;
+    }
+
+    /**
+     * @return <code>true</code> when the generated code calls into the runtime module instead of inlining the
+     *         code it shares with all other generated classes.
+     */
+    public boolean isRuntime() {
+        return runtime;
+    }
+
+    /**
+     * @return The qualified name of the annotation marking the implementation as generated, <code>null</code> when
+     *         the implementation is not marked.
+     */
+    public String getGenerated() {
+        return generated;
+    }
+
+    /**
+     * @return <code>true</code> when the Builder returns the canonical instance from the pool of the runtime module.
+     */
+    public boolean isInterned() {
+        return interned;
+    }
+
+    /**
+     * @return <code>true</code> when the Builder has a constructor without arguments and can be reset, and the
+     *         implementation hands out a Builder per thread.
+     */
+    public boolean isReusable() {
+        return reusable;
+    }
+
+    /**
+     * @return <code>true</code> when the implementation packs its booleans and presence bits in
+     *         <code>packedFlags</code> and declares its fields hot first, then by decreasing size.
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * @return <code>true</code> when the implementation stores its optional properties in presence words and
+     *         slots instead of fields.
+     */
+    public boolean isSparse() {
+        return sparse;
+    }
+
+    /**
+     * Get the fields of the implementation, the properties not packed in <code>packedFlags</code> nor sparse. The required
+     * properties first, or for a compact layout the @Hot ones, then by decreasing size as HotSpot lays them
+     * out: references after the primitives.
+     *
+     * @return The properties with a field of their own, in the order of declaration.
+     */
+    public ClassProperty[] getFields() {
+        final List<ClassProperty> fields = new ArrayList<ClassProperty>(properties.length);
+        for (int pass = 0; pass < 2; pass++) {
+            for (ClassProperty property : properties) {
+                if (property.required == (pass == 0) && !property.isPacked() && !property.isSparse()) {
+                    fields.add(property);
+                }
+            }
+        }
+        if (compact) {
+            // A stable sort, declaration order within a group
+            Collections.sort(fields, new Comparator<ClassProperty>() {
+                @Override
+                public int compare(ClassProperty a, ClassProperty b) {
+                    if (a.hot != b.hot) {
+                        return a.hot ? -1 : 1;
+                    }
+                    return sizeGroup(a) - sizeGroup(b);
+                }
+            });
+        }
+        return fields.toArray(new ClassProperty[fields.size()]);
+    }
+
+    /**
+     * @return The type of <code>packedFlags</code>, <code>int</code> or <code>long</code>, <code>null</code> when
+     *         the implementation has no packed bits.
+     */
+    public String getPackedFlagsType() {
+        int bits = 0;
+        for (ClassProperty property : properties) {
+            if (property.isPacked()) {
+                bits++;
+            }
+            if (property.presenceFlag >= 0) {
+                bits++;
+            }
+        }
+        if (bits == 0) {
+            return null;
+        }
+        return bits > Integer.SIZE ? "long" : "int";
+    }
+
+    /**
+     * @return The mask of all presence bits, the bits the Builder keeps in <code>presentFlags</code>,
+     *         <code>null</code> when there are none.
+     */
+    public String getPresenceMask() {
+        long mask = 0;
+        for (ClassProperty property : properties) {
+            if (property.presenceFlag >= 0) {
+                mask |= 1L << property.presenceFlag;
+            }
+        }
+        return flagsMask(mask);
+    }
+
+    /**
+     * @return The mask of the bits of the packed booleans, the bits of <code>packedFlags</code> holding values,
+     *         <code>null</code> when there are none.
+     */
+    public String getValueMask() {
+        long mask = 0;
+        for (ClassProperty property : properties) {
+            if (property.isPacked()) {
+                mask |= 1L << property.flag;
+            }
+        }
+        return flagsMask(mask);
+    }
+
+    private String flagsMask(long mask) {
+        if (mask == 0) {
+            return null;
+        }
+        return "long".equals(getPackedFlagsType()) ? "0x" + Long.toHexString(mask) + "L" : "0x" + Integer.toHexString((int) mask);
+    }
+
+    /**
+     * @return The expression the constructor taking the Builder assigns to <code>packedFlags</code>, the presence
+     *         bits of the Builder and a bit per packed boolean.
+     */
+    public String getPackedFlagsAssignment() {
+        final StringBuilder flags = new StringBuilder();
+        if (getPresenceMask() != null) {
+            flags.append("builder.presentFlags");
+        }
+        for (ClassProperty property : properties) {
+            if (property.isPacked()) {
+                if (flags.length() > 0) {
+                    flags.append(" | ");
+                }
+                flags.append("(builder.").append(property.name).append(" ? ").append(property.getFlagMask())
+                        .append(" : ").append(property.wideFlags ? "0L" : "0").append(')');
+            }
+        }
+        return flags.toString();
+    }
+
+    /**
+     * @return The properties in the order <code>equals</code> compares them: the cheap comparisons of the
+     *         primitive properties first, then the other properties, both in the order of the fields. Packed
+     *         booleans are left out, <code>equals</code> compares all of them at once through
+     *         <code>packedFlags</code>, and sparse properties through their presence words and slots.
+     */
+    public ClassProperty[] getEqualsOrder() {
+        final List<ClassProperty> order = new ArrayList<ClassProperty>(properties.length);
+        for (int pass = 0; pass < 4; pass++) {
+            for (ClassProperty property : properties) {
+                if (property.isPrimitive() == (pass < 2) && property.isRequired() == (pass % 2 == 0)
+                        && !property.isPacked() && !property.isSparse()) {
+                    order.add(property);
+                }
+            }
+        }
+        return order.toArray(new ClassProperty[order.size()]);
+    }
+
+    /**
+     * @return The comparisons <code>equals</code> makes: the packed booleans and presence words, the primitives of
+     *         a sparse implementation, the properties in their {@link #getEqualsOrder() order} and the values of a
+     *         sparse implementation last. Equal presence words put the same properties in the same slots. The
+     *         presence bits of <code>packedFlags</code> are left out like in <code>hashCode</code>, an optional
+     *         primitive set to its default value equals one not set.
+     */
+    public String[] getEqualsComparisons() {
+        final List<String> comparisons = new ArrayList<String>();
+        final String valueMask = getValueMask();
+        if (getPresenceMask() == null && valueMask != null) {
+            comparisons.add("this.packedFlags == that.packedFlags");
+        } else if (valueMask != null) {
+            comparisons.add("(this.packedFlags & " + valueMask + ") == (that.packedFlags & " + valueMask + ")");
+        }
+        for (String word : getSparseWords()) {
+            comparisons.add("this." + word + " == that." + word);
+        }
+        if (getSparsePrimitives().length > 0) {
+            comparisons.add("java.util.Arrays.equals(this.primitives, that.primitives)");
+        }
+        for (ClassProperty property : getEqualsOrder()) {
+            comparisons.add(property.getEqualsExpression());
+        }
+        if (getSparseValues().length > 0) {
+            comparisons.add("java.util.Arrays.deepEquals(this.values, that.values)");
+        }
+        return comparisons.toArray(new String[comparisons.size()]);
+    }
+
+    /**
+     * @return The presence words of a sparse implementation, <code>present0</code> for the first 64 bits and so on.
+     */
+    public String[] getSparseWords() {
+        final String[] words = new String[(countSparse(properties, 2) + Long.SIZE - 1) / Long.SIZE];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = "present" + i;
+        }
+        return words;
+    }
+
+    /**
+     * @return The expressions the constructor taking the Builder assigns to the presence words, a bit per sparse
+     *         property set in the Builder.
+     */
+    public String[] getSparseWordAssignments() {
+        final StringBuilder[] words = new StringBuilder[getSparseWords().length];
+        for (ClassProperty property : properties) {
+            if (property.isSparse()) {
+                final int word = property.sparseBit / Long.SIZE;
+                if (words[word] == null) {
+                    words[word] = new StringBuilder();
+                } else {
+                    words[word].append(" | ");
+                }
+                words[word].append('(').append(property.getSparsePresence()).append(" ? ")
+                        .append(property.getSparseMask()).append(" : 0L)");
+            }
+        }
+        final String[] assignments = new String[words.length];
+        for (int i = 0; i < words.length; i++) {
+            assignments[i] = words[i].toString();
+        }
+        return assignments;
+    }
+
+    /**
+     * @return The sparse references, kept in <code>values</code>, in the order of their bits.
+     */
+    public ClassProperty[] getSparseValues() {
+        return sparseProperties(0);
+    }
+
+    /**
+     * @return The sparse primitives but the booleans, kept in <code>primitives</code>, in the order of their bits.
+     */
+    public ClassProperty[] getSparsePrimitives() {
+        return sparseProperties(1);
+    }
+
+    /**
+     * @return The expression counting the slots of <code>values</code>, the sparse references set.
+     */
+    public String getSparseValueCount() {
+        final int primitivesFrom = countSparse(properties, 0);
+        return bitCount(0, primitivesFrom);
+    }
+
+    /**
+     * @return The expression counting the slots of <code>primitives</code>, the sparse primitives set.
+     */
+    public String getSparsePrimitiveCount() {
+        return bitCount(countSparse(properties, 0), countSparse(properties, 1));
+    }
+
+    /**
+     * @return The required properties in chunks assigned by one helper method of the Builder constructor each,
+     *         a single chunk when the constructor assigns them itself.
+     */
+    public ClassProperty[][] getRequiredChunks() {
+        return MethodSplitter.split(properties, true, MethodSplitter.ASSIGNMENT_BYTES, maxMethodBytes);
+    }
+
+    /**
+     * @return The optional properties in chunks copied by one helper method of <code>builder()</code> each,
+     *         a single chunk when <code>builder()</code> copies them itself.
+     */
+    public ClassProperty[][] getOptionalChunks() {
+        return MethodSplitter.split(properties, false, MethodSplitter.COPY_BYTES, maxMethodBytes);
+    }
+
+    /**
+     * @return <code>true</code> when the implementation has a constructor taking every property, used by the
+     *         withers. The JVM limits a method to 255 parameter slots, <code>this</code> included, wider types copy
+     *         through their Builder instead, like sparse implementations.
+     */
+    public boolean hasAllPropertiesConstructor() {
+        if (getSparseWords().length > 0) {
+            return false;
+        }
+        int slots = "long".equals(getPackedFlagsType()) ? 3 : getPackedFlagsType() != null ? 2 : 1;
+        for (ClassProperty property : getFields()) {
+            slots += property.getParameterSlots();
+        }
+        return properties.length > 0 && slots <= MAX_PARAMETER_SLOTS;
+    }
+
+    /**
+     * @return The sparse properties of a group, in the order of declaration, the order of their bits.
+     */
+    private ClassProperty[] sparseProperties(int group) {
+        final List<ClassProperty> sparseProperties = new ArrayList<ClassProperty>();
+        for (ClassProperty property : properties) {
+            if (property.isSparse() && sparseGroup(property) == group) {
+                sparseProperties.add(property);
+            }
+        }
+        return sparseProperties.toArray(new ClassProperty[sparseProperties.size()]);
+    }
+
+    /**
+     * @return The number of sparse properties up to and including the given group, the first bit of the next
+     *         group.
+     */
+    private static int countSparse(ClassProperty[] properties, int group) {
+        int count = 0;
+        for (ClassProperty property : properties) {
+            if (property.isSparse() && sparseGroup(property) <= group) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The group of a sparse property: references, primitives with a slot, booleans.
+     */
+    private static int sparseGroup(ClassProperty property) {
+        if ("boolean".equals(property.type)) {
+            return 2;
+        }
+        return property.isPrimitive() ? 1 : 0;
+    }
+
+    /**
+     * @return The expression counting the bits set in the presence words from bit <code>from</code> up to bit
+     *         <code>to</code>, <code>0</code> for an empty range.
+     */
+    private static String bitCount(int from, int to) {
+        final StringBuilder count = new StringBuilder();
+        for (int word = from / Long.SIZE; from < to; word++) {
+            final int end = Math.min(to, (word + 1) * Long.SIZE);
+            final int low = from - word * Long.SIZE;
+            final int high = end - word * Long.SIZE;
+            final long mask = (high == Long.SIZE ? -1L : (1L << high) - 1) & -(1L << low);
+            if (count.length() > 0) {
+                count.append(" + ");
+            }
+            count.append("java.lang.Long.bitCount(present").append(word);
+            if (mask != -1L) {
+                count.append(" & 0x").append(Long.toHexString(mask)).append('L');
+            }
+            count.append(')');
+            from = end;
+        }
+        return count.length() == 0 ? "0" : count.toString();
+    }
+
+    /**
+     * @return The group of the field of a property in the layout of HotSpot: 8 byte, 4 byte, 2 byte and 1 byte
+     *         primitives, then references.
+     */
+    private static int sizeGroup(ClassProperty property) {
+        final String type = property.type;
+        if ("long".equals(type) || "double".equals(type)) {
+            return 0;
+        }
+        if ("int".equals(type) || "float".equals(type)) {
+            return 1;
+        }
+        if ("short".equals(type) || "char".equals(type)) {
+            return 2;
+        }
+        if ("byte".equals(type) || "boolean".equals(type)) {
+            return 3;
+        }
+        return 4;
+    }
+
+    /**
+     * @return The package the implementation is generated in, the package of the immutable type.
+     */
+    public String getTargetPackage() {
+        String superClassQName = superClassInfo.qualifiedName;
+        return superClassQName.substring(0, superClassQName.lastIndexOf('.'));
+    }
+
+    /**
+     * @return The simple name of the generated implementation.
+     */
+    public String getImplClassSimpleName() {
+        String superClassQName = superClassInfo.qualifiedName;
+        return superClassQName.substring(superClassQName.lastIndexOf('.') + 1) + "Impl";
+    }
+
+    /**
+     * @return The fully qualified name of the generated implementation.
+     */
+    public String getImplClassQName() {
+        return superClassInfo.qualifiedName + "Impl";
+    }
 }
@@ -17,18 +17,44 @@
 
 package nl.elucidator.patterns.builder.annotations.processor;
 
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.TypeElement;
+import java.util.List;
 
 /**
  * This class is responsible for reading all necessary information from a given Java class.
+ * <p/>
+ * Implementations are discovered as a {@link Backend}.
  */
-public interface ClassParser {
+public interface ClassParser extends Backend {
+
+    /**
+     * Called by the processor once, before the first round.
+     *
+     * @param processingEnv The environment of the processor.
+     */
+    void init(ProcessingEnvironment processingEnv);
+
+    /**
+     * Called by the processor at the start of every round. Implementations drop any state they
+     * cached for the previous round, elements must not be kept across rounds.
+     */
+    void startRound();
+
+    /**
+     * Resolve the types whose properties are part of the given type.
+     *
+     * @param typeElement The type to inspect.
+     * @return The type hierarchy, the type itself last.
+     */
+    List<TypeElement> readTypeHierarchy(TypeElement typeElement);
 
     /**
      * Read the necessary meta data from the given type.
      *
      * @param typeElement The type to inspect.
+     * @param hierarchy   The type hierarchy, as returned by {@link #readTypeHierarchy(TypeElement)}.
      * @return The meta data for this type.
      */
-    ClassMetaData readMetaData(TypeElement typeElement);
+    ClassMetaData readMetaData(TypeElement typeElement, List<TypeElement> hierarchy);
 }
@@ -17,10 +17,19 @@
 
 package nl.elucidator.patterns.builder.annotations.processor;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Holder for property metadata.
  */
 public final class ClassProperty {
+    /**
+     * The boxed types kept in primitive collections, with the name of the primitive type in their class names.
+     */
+    private static final String[][] BOXED = {
+            {"java.lang.Integer", "Int"}, {"java.lang.Long", "Long"}, {"java.lang.Double", "Double"}};
+
     /**
      * The property name.
      */
@@ -49,6 +58,53 @@ public final class ClassProperty {
      */
     boolean required;
 
+    /**
+     * The qualified name of the generated implementation of the property type, when that type is an @Immutable
+     * interface itself. <code>null</code> for all other types.
+     */
+    String immutableImpl;
+
+    /**
+     * Indication for collection properties kept in a persistent collection, identified by the
+     * {@link nl.elucidator.patterns.builder.annotations.Persistent} @Persistent annotation.
+     */
+    boolean persistent;
+
+    /**
+     * Indication for properties read together, declared first by a compact layout. These properties are
+     * identified by the {@link nl.elucidator.patterns.builder.annotations.Hot} @Hot annotation.
+     */
+    boolean hot;
+
+    /**
+     * The bit of a boolean property in the <code>packedFlags</code> of a compact layout, -1 when it has a field of
+     * its own.
+     */
+    int flag = -1;
+
+    /**
+     * The bit in the <code>packedFlags</code> of a compact layout telling whether this optional primitive property
+     * is set, -1 for all other properties.
+     */
+    int presenceFlag = -1;
+
+    /**
+     * Indication for <code>packedFlags</code> of type <code>long</code>, with over 32 bits.
+     */
+    boolean wideFlags;
+
+    /**
+     * The bit of an optional property stored by a sparse implementation, over its <code>present0</code>,
+     * <code>present1</code>, ... words, -1 when it has a field of its own.
+     */
+    int sparseBit = -1;
+
+    /**
+     * The expression counting the slot of a sparse property in <code>values</code> or <code>primitives</code>,
+     * <code>null</code> for booleans and properties with a field of their own.
+     */
+    String sparseSlot;
+
 
     // ++++++++++++++++++ Used by FreeMarker BEGIN ++++++++++++++++++
 
@@ -111,9 +167,466 @@ public final class ClassProperty {
 
         return CollectionType.NONE;
     }
+
+    /**
+     * Get the type arguments of the copy the implementation makes of a collection property, like
+     * <code>&lt;java.lang.String&gt;</code>. Wildcards are replaced by their bound, so the copy can be created.
+     * Empty for raw types, and for sorted collections with wildcards: only the raw copy constructors keep
+     * the comparator of those.
+     *
+     * @return The type arguments, including the angle brackets.
+     */
+    public String getCopyTypeArguments() {
+        final int start = type.indexOf('<');
+        if (start < 0) {
+            return "";
+        }
+        final CollectionType collectionType = getCollectionType();
+        final boolean sorted = collectionType == CollectionType.SORTED_SET || collectionType == CollectionType.SORTED_MAP;
+        final StringBuilder arguments = new StringBuilder("<");
+        int depth = 0;
+        int argumentStart = start + 1;
+        for (int i = argumentStart; i < type.length(); i++) {
+            final char c = type.charAt(i);
+            if (c == '<') {
+                depth++;
+            } else if (depth > 0 && c == '>') {
+                depth--;
+            } else if (depth == 0 && (c == ',' || c == '>')) {
+                String argument = type.substring(argumentStart, i).trim();
+                if (argument.startsWith("?")) {
+                    if (sorted) {
+                        return "";
+                    }
+                    argument = argument.startsWith("? extends ")
+                            ? argument.substring("? extends ".length()).trim() : "java.lang.Object";
+                }
+                if (arguments.length() > 1) {
+                    arguments.append(',');
+                }
+                arguments.append(argument);
+                argumentStart = i + 1;
+                if (c == '>') {
+                    break;
+                }
+            }
+        }
+        return arguments.append('>').toString();
+    }
+    /**
+     * Get the primitive collection of the runtime module a list or set of Integer, Long or Double elements, or a
+     * map with such values, is copied into, like <code>IntList</code> or <code>DoubleMap</code>.
+     *
+     * @return The suffix of the copy method of <code>PrimitiveCollections</code>, <code>null</code> for all other
+     *         properties.
+     */
+    public String getPrimitiveCollection() {
+        final String arguments = getCopyTypeArguments();
+        final CollectionType collectionType = getCollectionType();
+        for (String[] boxed : BOXED) {
+            final boolean element = arguments.equals('<' + boxed[0] + '>');
+            if (collectionType == CollectionType.LIST && element) {
+                return boxed[1] + "List";
+            }
+            // Sets of doubles are left to the JDK, equality of doubles is rarely what a set needs
+            if (collectionType == CollectionType.SET && element && !"Double".equals(boxed[1])) {
+                return boxed[1] + "Set";
+            }
+            if (collectionType == CollectionType.MAP && arguments.endsWith(',' + boxed[0] + '>')) {
+                return boxed[1] + "Map";
+            }
+        }
+        return null;
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    public boolean isHot() {
+        return hot;
+    }
+
+    /**
+     * Get the persistent collection of the runtime module a @Persistent property is kept in.
+     *
+     * @return The simple class name, <code>null</code> for properties that are not @Persistent and for types
+     *         other than <code>List</code>, <code>Set</code> and <code>Map</code>.
+     */
+    public String getPersistentCollection() {
+        if (!persistent) {
+            return null;
+        }
+        switch (getCollectionType()) {
+            case LIST:
+                return "PersistentVector";
+            case SET:
+                return "PersistentHashSet";
+            case MAP:
+                return "PersistentHashMap";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return The type of the field of the implementation: the persistent collection of a @Persistent property,
+     *         the type of the property for all others.
+     */
+    public String getFieldType() {
+        final String persistentCollection = getPersistentCollection();
+        if (persistentCollection == null) {
+            return type;
+        }
+        final String runtime = ClassMetaData.RUNTIME_PERSISTENT_COLLECTIONS;
+        return runtime.substring(0, runtime.lastIndexOf('.') + 1) + persistentCollection + getCopyTypeArguments();
+    }
+
+    /**
+     * Get the types of the elements of a collection property, the key and value types of a map, as the
+     * <code>withXxxAdded</code> methods of a @Persistent property take them.
+     *
+     * @return The types, <code>java.lang.Object</code> for raw types.
+     */
+    public String[] getElementTypes() {
+        final String arguments = getCopyTypeArguments();
+        if (arguments.length() == 0) {
+            return getCollectionType() == CollectionType.MAP
+                    ? new String[]{"java.lang.Object", "java.lang.Object"} : new String[]{"java.lang.Object"};
+        }
+        final List<String> types = new ArrayList<String>(2);
+        int depth = 0;
+        int start = 1;
+        for (int i = 1; i < arguments.length(); i++) {
+            final char c = arguments.charAt(i);
+            if (c == '<') {
+                depth++;
+            } else if (depth > 0 && c == '>') {
+                depth--;
+            } else if (depth == 0 && (c == ',' || c == '>')) {
+                types.add(arguments.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Get the implementation generated for the property type.
+     *
+     * @return The qualified name of the implementation, <code>null</code> when the type is not @Immutable.
+     */
+    public String getImmutableImpl() {
+        return immutableImpl;
+    }
+
+    /**
+     * Get the expression <code>appendTo</code> appends for this property: the array itself for an array appended
+     * element by element, other arrays by content, all other values as they are, so <code>StringBuilder</code>
+     * formats primitives without creating strings.
+     *
+     * @return The expression.
+     */
+    public String getAppendExpression() {
+        if (type.endsWith("[]") && !isAppendedByElement()) {
+            return "java.util.Arrays.deepToString(" + field("this") + ")";
+        }
+        return field("this");
+    }
+
+    /**
+     * @return <code>true</code> for an array <code>appendTo</code> appends element by element, in the format of
+     *         <code>Arrays.toString</code>: arrays whose elements cannot be arrays themselves.
+     */
+    public boolean isAppendedByElement() {
+        if (!type.endsWith("[]")) {
+            return false;
+        }
+        final String component = type.substring(0, type.length() - 2);
+        return !component.endsWith("[]") && !"java.lang.Object".equals(component)
+                && !"java.lang.Cloneable".equals(component) && !"java.io.Serializable".equals(component);
+    }
+
+    /**
+     * @return The value <code>reset()</code> of a reusable Builder assigns to this property, the default value of
+     *         a field of its type.
+     */
+    public String getDefaultValue() {
+        if ("boolean".equals(type)) {
+            return "false";
+        }
+        return isPrimitive() ? "0" : "null";
+    }
+
+    /**
+     * @return <code>true</code> for properties of a primitive type, which are compared first by <code>equals</code>.
+     */
+    public boolean isPrimitive() {
+        return isPrimitive(type);
+    }
+
+    /**
+     * Get the expression <code>equals</code> uses to compare this property of <code>this</code> and
+     * <code>that</code>: primitives by value, floating point numbers by their bits, arrays by content.
+     *
+     * @return The expression.
+     */
+    public String getEqualsExpression() {
+        final String field = field("this");
+        final String other = field("that");
+        if ("float".equals(type)) {
+            return "java.lang.Float.floatToIntBits(" + field + ") == java.lang.Float.floatToIntBits(" + other + ")";
+        }
+        if ("double".equals(type)) {
+            return "java.lang.Double.doubleToLongBits(" + field + ") == java.lang.Double.doubleToLongBits(" + other + ")";
+        }
+        if (isPrimitive()) {
+            return field + " == " + other;
+        }
+        if (type.endsWith("[]")) {
+            return "java.util.Arrays." + (isPrimitive(type.substring(0, type.length() - 2)) ? "equals(" : "deepEquals(")
+                    + field + ", " + other + ")";
+        }
+        return "(" + field + " == null ? " + other + " == null : " + field + ".equals(" + other + "))";
+    }
+
+    /**
+     * Get the expression <code>hashCode</code> uses for this property, the hash codes of the wrapper types for
+     * primitives and the content hash code for arrays.
+     *
+     * @return The expression.
+     */
+    public String getHashCodeExpression() {
+        final String field = field("this");
+        if ("boolean".equals(type)) {
+            return "(" + field + " ? 1231 : 1237)";
+        }
+        if ("long".equals(type)) {
+            return "(int) (" + field + " ^ (" + field + " >>> 32))";
+        }
+        if ("float".equals(type)) {
+            return "java.lang.Float.floatToIntBits(" + field + ")";
+        }
+        if ("double".equals(type)) {
+            return "(int) (java.lang.Double.doubleToLongBits(" + field + ") ^ (java.lang.Double.doubleToLongBits("
+                    + field + ") >>> 32))";
+        }
+        if (isPrimitive()) {
+            return field;
+        }
+        if (type.endsWith("[]")) {
+            return "java.util.Arrays." + (isPrimitive(type.substring(0, type.length() - 2)) ? "hashCode(" : "deepHashCode(")
+                    + field + ")";
+        }
+        return "(" + field + " == null ? 0 : " + field + ".hashCode())";
+    }
+
+    /**
+     * @return The name of the method of the implementation copying it with another value of this property.
+     */
+    public String getWither() {
+        return "with" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * Get the expression a wither uses to find the new value, its parameter, is the value of the field already:
+     * the same reference or primitive value, floating point numbers by their bits like <code>equals</code>.
+     *
+     * @return The expression.
+     */
+    public String getSameValueExpression() {
+        final String field = field("this");
+        final String same;
+        if ("float".equals(type)) {
+            same = "java.lang.Float.floatToIntBits(" + field + ") == java.lang.Float.floatToIntBits(" + name + ")";
+        } else if ("double".equals(type)) {
+            same = "java.lang.Double.doubleToLongBits(" + field + ") == java.lang.Double.doubleToLongBits(" + name + ")";
+        } else {
+            same = field + " == " + name;
+        }
+        // A wither marks an optional primitive set, even when its value is the default
+        return presenceFlag >= 0 ? same + " && (this.packedFlags & " + mask(presenceFlag) + ") != 0" : same;
+    }
+
+    /**
+     * @return <code>true</code> for a boolean property kept in a bit of the <code>packedFlags</code>.
+     */
+    public boolean isPacked() {
+        return flag >= 0;
+    }
+
+    /**
+     * @return The expression reading the value of the property inside the implementation: the field, the bit of
+     *         a packed boolean, or the slot of a sparse property when its bit is set.
+     */
+    public String getFieldRead() {
+        if (isSparse()) {
+            final String present = "(" + getSparseWord() + " & " + getSparseMask() + ") != 0";
+            if ("boolean".equals(type)) {
+                return present;
+            }
+            if (isPrimitive()) {
+                final String slot = "primitives[" + sparseSlot + "]";
+                final String value;
+                if ("double".equals(type)) {
+                    value = "java.lang.Double.longBitsToDouble(" + slot + ")";
+                } else if ("float".equals(type)) {
+                    value = "java.lang.Float.intBitsToFloat((int) " + slot + ")";
+                } else if ("long".equals(type)) {
+                    value = slot;
+                } else {
+                    value = "(" + type + ") " + slot;
+                }
+                return present + " ? " + value + " : 0";
+            }
+            return present + " ? (" + type + ") values[" + sparseSlot + "] : null";
+        }
+        return isPacked() ? "(packedFlags & " + mask(flag) + ") != 0" : name;
+    }
+
+    /**
+     * @return <code>true</code> for an optional property stored in the presence words and slots of a sparse
+     *         implementation.
+     */
+    public boolean isSparse() {
+        return sparseBit >= 0;
+    }
+
+    /**
+     * @return The presence word of the implementation holding the bit of this sparse property.
+     */
+    public String getSparseWord() {
+        return "present" + sparseBit / Long.SIZE;
+    }
+
+    /**
+     * @return The mask of the bit of this sparse property in its presence word.
+     */
+    public String getSparseMask() {
+        return "0x" + Long.toHexString(1L << sparseBit % Long.SIZE) + "L";
+    }
+
+    /**
+     * @return The condition on the Builder setting the bit of this sparse property: its value differs from the
+     *         default, floating point numbers by their bits so <code>-0.0</code> is kept.
+     */
+    public String getSparsePresence() {
+        final String value = "builder." + name;
+        if ("boolean".equals(type)) {
+            return value;
+        }
+        if ("double".equals(type) || "float".equals(type)) {
+            return getSparseValue() + " != 0";
+        }
+        return value + (isPrimitive() ? " != 0" : " != null");
+    }
+
+    /**
+     * @return The value of the Builder the slot of this sparse property is set to, the bits of floating point
+     *         numbers as <code>equals</code> compares them.
+     */
+    public String getSparseValue() {
+        final String value = "builder." + name;
+        if ("double".equals(type)) {
+            return "java.lang.Double.doubleToLongBits(" + value + ")";
+        }
+        if ("float".equals(type)) {
+            return "java.lang.Float.floatToIntBits(" + value + ")";
+        }
+        return value;
+    }
+
+    /**
+     * @return The mask of the bit telling whether this optional primitive property is set, <code>null</code> for
+     *         properties without one.
+     */
+    public String getPresenceMask() {
+        return presenceFlag >= 0 ? mask(presenceFlag) : null;
+    }
+
+    /**
+     * @return The name of the method telling whether this optional primitive property is set.
+     */
+    public String getPresenceMethod() {
+        return "has" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * Get the <code>packedFlags</code> a wither of this property passes to the copy: the bit of a packed boolean
+     * set to its parameter, the presence bit set.
+     *
+     * @return The expression.
+     */
+    public String getWitherFlags() {
+        String flags = "this.packedFlags";
+        if (isPacked()) {
+            final String mask = mask(flag);
+            flags = "(" + flags + " & ~" + mask + ") | (" + name + " ? " + mask + " : " + (wideFlags ? "0L" : "0") + ")";
+        }
+        if (presenceFlag >= 0) {
+            flags += " | " + mask(presenceFlag);
+        }
+        return flags;
+    }
     // ------------------ Used by FreeMarker END ------------------
 
 
+    /**
+     * @return The mask of the bit of a packed boolean.
+     */
+    String getFlagMask() {
+        return mask(flag);
+    }
+
+    /**
+     * @return The expression reading the property of the given instance, in parentheses when it is packed, through
+     *         the getter when it is sparse.
+     */
+    private String field(String instance) {
+        if (isSparse()) {
+            return instance + "." + getter + "()";
+        }
+        return isPacked() ? "((" + instance + ".packedFlags & " + mask(flag) + ") != 0)" : instance + "." + name;
+    }
+
+    private String mask(int bit) {
+        return wideFlags ? "0x" + Long.toHexString(1L << bit) + "L" : "0x" + Integer.toHexString(1 << bit);
+    }
+
+    /**
+     * @return A copy of this property, for a layout assigning its bits without changing the shared original.
+     */
+    ClassProperty copy() {
+        final ClassProperty copy = new ClassProperty();
+        copy.name = name;
+        copy.type = type;
+        copy.getter = getter;
+        copy.setter = setter;
+        copy.required = required;
+        copy.immutableImpl = immutableImpl;
+        copy.persistent = persistent;
+        copy.hot = hot;
+        copy.flag = flag;
+        copy.presenceFlag = presenceFlag;
+        copy.wideFlags = wideFlags;
+        copy.sparseBit = sparseBit;
+        copy.sparseSlot = sparseSlot;
+        return copy;
+    }
+
+    private static boolean isPrimitive(String type) {
+        return "int".equals(type) || "long".equals(type) || "boolean".equals(type) || "double".equals(type)
+                || "float".equals(type) || "char".equals(type) || "short".equals(type) || "byte".equals(type);
+    }
+
+    /**
+     * @return The number of parameter slots a parameter of this property takes, 2 for <code>long</code> and
+     *         <code>double</code>.
+     */
+    int getParameterSlots() {
+        return "long".equals(type) || "double".equals(type) ? 2 : 1;
+    }
+
     @Override
     public String toString() {
         return "ClassProperty{" +
@@ -122,6 +635,7 @@ public final class ClassProperty {
                 ", getter='" + getter + '\'' +
                 ", setter='" + setter + '\'' +
                 ", required=" + required +
+                ", persistent=" + persistent +
                 '}';
     }
 }
@@ -17,19 +17,24 @@
 
 package nl.elucidator.patterns.builder.annotations.processor;
 
-import javax.annotation.processing.ProcessingEnvironment;
+import java.io.IOException;
+import java.io.Writer;
 
 /**
  * Interface for class generation.
+ * <p/>
+ * Implementations must be thread-safe, the processor may render several types concurrently.
+ * Implementations are discovered as a {@link Backend}.
  */
-public interface ClassWriter {
+public interface ClassWriter extends Backend {
 
     /**
-     * Generate a valid implementation Java source file for the given immutable type.
+     * Render a valid implementation Java source for the given immutable type.
      *
-     * @param metaData      The Cass metadata.
-     * @param processingEnv The current processing environment.
+     * @param metaData The Class metadata.
+     * @param writer   The writer receiving the source, typically the writer of the generated source file.
+     * @throws IOException When writing the source fails.
      */
-    void generateBuilder(ClassMetaData metaData, ProcessingEnvironment processingEnv);
+    void render(ClassMetaData metaData, Writer writer) throws IOException;
 
 }
@@ -18,23 +18,47 @@
 package nl.elucidator.patterns.builder.annotations.processor;
 
 import net.jcip.annotations.Immutable;
+import nl.elucidator.patterns.builder.annotations.CompactLayout;
+import nl.elucidator.patterns.builder.annotations.Hot;
+import nl.elucidator.patterns.builder.annotations.Interned;
+import nl.elucidator.patterns.builder.annotations.Persistent;
 import nl.elucidator.patterns.builder.annotations.Required;
+import nl.elucidator.patterns.builder.annotations.ReusableBuilder;
+import nl.elucidator.patterns.builder.annotations.Sparse;
 
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.*;
 import javax.lang.model.type.DeclaredType;
-import javax.lang.model.type.ExecutableType;
 import javax.lang.model.type.TypeMirror;
-import javax.lang.model.type.TypeVisitor;
+import javax.lang.model.util.ElementFilter;
 import javax.lang.model.util.SimpleTypeVisitor6;
+import javax.lang.model.util.Types;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * Default implementation of {ClassParser}.
+ * <p/>
+ * Type hierarchies and declared properties are cached for the duration of a round, so an @Immutable
+ * super-interface shared by many subtypes is analysed only once.
+ * <p/>
+ * A getter inherited through several paths, or declared by several super-interfaces, is a single property. It
+ * gets the most specific of the declared return types and is required, @Persistent or @Hot when any of the
+ * declarations is.
  */
 public class DefaultClassParserImpl implements ClassParser {
+    /**
+     * The name of this parser.
+     */
+    public static final String NAME = "default";
+
     /**
      * This Visitor determines the superclass of the current element.
      */
@@ -54,6 +78,7 @@ public class DefaultClassParserImpl implements ClassParser {
         public Object visitType(TypeElement e, SuperClassInfo info) {
             // Get the qualified name of the type.
             info.qualifiedName = e.getQualifiedName().toString();
+            info.element = e;
             return null;
         }
 
@@ -86,24 +111,52 @@ public class DefaultClassParserImpl implements ClassParser {
     };
 
     /**
-     * Visitor to determine the return type of the method.
+     * The type hierarchies resolved in the current round.
      */
-    private static final TypeVisitor<String, Object> GET_RETURNTYPE_VISITOR
-            = new SimpleTypeVisitor6<String, Object>() {
-        /** {@inheritDoc} */
-        @Override
-        public String visitExecutable(ExecutableType t, Object o) {
-            return t.getReturnType().toString();
-        }
-    };
+    private final Map<TypeElement, List<TypeElement>> hierarchies = new HashMap<TypeElement, List<TypeElement>>();
+
+    /**
+     * The properties declared by the types analysed in the current round.
+     */
+    private final Map<TypeElement, List<DeclaredProperty>> declaredProperties = new HashMap<TypeElement, List<DeclaredProperty>>();
+
+    /**
+     * Compares the return types of getters declared more than once.
+     */
+    private Types types;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
 
     @Override
-    public ClassMetaData readMetaData(TypeElement element) {
+    public void init(ProcessingEnvironment processingEnv) {
+        types = processingEnv.getTypeUtils();
+    }
+
+    @Override
+    public void startRound() {
+        hierarchies.clear();
+        declaredProperties.clear();
+    }
+
+    @Override
+    public List<TypeElement> readTypeHierarchy(TypeElement element) {
+        return createTypeHierarchy(element);
+    }
+
+    @Override
+    public ClassMetaData readMetaData(TypeElement element, List<TypeElement> hierarchy) {
         final SuperClassInfo superClassInfo = determineSuperClass(element);
-        final ClassProperty[] properties = listOptionalProperties(element);
+        final ClassProperty[] properties = listOptionalProperties(hierarchy);
         final boolean isInterface = isInterface(element);
 
-        return new ClassMetaData(superClassInfo, properties, isInterface);
+        return new ClassMetaData(superClassInfo, properties, isInterface)
+                .withInterned(element.getAnnotation(Interned.class) != null)
+                .withReusable(element.getAnnotation(ReusableBuilder.class) != null)
+                .withSparse(element.getAnnotation(Sparse.class) != null)
+                .withCompact(element.getAnnotation(CompactLayout.class) != null);
     }
 
     private boolean isInterface(TypeElement element) {
@@ -136,23 +189,31 @@ public class DefaultClassParserImpl implements ClassParser {
     /**
      * Go through all properties in the type hierarchy.
      *
-     * @param element The element for which the properties must be listed.
+     * @param hierarchy The type hierarchy of the element for which the properties must be listed.
      * @return An array of {ClassProperty}s.
      */
-    ClassProperty[] listOptionalProperties(final TypeElement element) {
-        List<TypeElement> hierarchy = createTypeHierarchy(element);
-        Set<ClassProperty> ret = processTypeHierarchy(hierarchy);
+    ClassProperty[] listOptionalProperties(final List<TypeElement> hierarchy) {
+        Collection<ClassProperty> ret = processTypeHierarchy(hierarchy);
         return ret.toArray(new ClassProperty[ret.size()]);
     }
 
     /**
      * Determine all superclasses/interfaces for which properties must be listed.
+     * <p/>
+     * The hierarchy of every type is resolved once per round, shared super-interfaces are reused by all their
+     * subtypes. Every type occurs once, super-interfaces before their subtypes, also when it is reached through
+     * several paths.
      *
      * @param element The element for which a type hierarchy must be created.
-     * @return A List of all {TypeElement}s that have properties that must be processed.
+     * @return An unmodifiable List of all {TypeElement}s that have properties that must be processed.
      */
     List<TypeElement> createTypeHierarchy(final TypeElement element) {
-        final List<TypeElement> hierarchy = new ArrayList<TypeElement>();
+        List<TypeElement> hierarchy = hierarchies.get(element);
+        if (hierarchy != null) {
+            return hierarchy;
+        }
+
+        final Set<TypeElement> visited = new LinkedHashSet<TypeElement>();
 
         final List<? extends TypeMirror> interfaces = element.getInterfaces();
         for (final TypeMirror interfaze : interfaces) {
@@ -160,49 +221,150 @@ public class DefaultClassParserImpl implements ClassParser {
 
             if (includeSuperInterface != null && includeSuperInterface) {
                 final List<TypeElement> superHierarchy = createTypeHierarchy((TypeElement) ((DeclaredType) interfaze).asElement());
-                hierarchy.addAll(superHierarchy);
+                visited.addAll(superHierarchy);
             }
         }
 
-        hierarchy.add(element);
+        visited.add(element);
 
+        hierarchy = Collections.unmodifiableList(new ArrayList<TypeElement>(visited));
+        hierarchies.put(element, hierarchy);
         return hierarchy;
     }
 
     /**
-     * Work through the given types and returning a Set with properties.
+     * Work through the given types and return the properties, indexed by the name of their getter.
+     * <p/>
+     * A property keeps the position of its first declaration. The shared properties of the declaring types are
+     * never modified, a merged property is a copy.
      *
      * @param hierarchy The type hierarchy, listed.
-     * @return An ordered Set with properties.
+     * @return The properties, in the order of their first declaration.
      */
-    Set<ClassProperty> processTypeHierarchy(final List<TypeElement> hierarchy) {
-        final Set<ClassProperty> properties = new LinkedHashSet<ClassProperty>();
+    Collection<ClassProperty> processTypeHierarchy(final List<TypeElement> hierarchy) {
+        final Map<String, DeclaredProperty> properties = new LinkedHashMap<String, DeclaredProperty>();
 
         for (final TypeElement typeElement : hierarchy) {
-            final List<Element> methods = new ArrayList<Element>(typeElement.getEnclosedElements());
-            for (final Element method : methods) {
-                final String signature = method.toString();
-                if (BeanUtils.couldBeAGetterMethod(signature)) {
-                    final String methodName = BeanUtils.determineMethodName(signature);
-                    if (BeanUtils.isGetter(methodName)) {
-                        final String propertyName = BeanUtils.determinePropertyName(methodName);
-                        final String setter = BeanUtils.determineSetter(propertyName);
-
-                        final ClassProperty classProperty = new ClassProperty();
-                        classProperty.name = propertyName;
-                        classProperty.type = method.asType().accept(GET_RETURNTYPE_VISITOR, null);
-                        classProperty.getter = methodName;
-                        classProperty.setter = setter;
-                        classProperty.required = (method.getAnnotation(Required.class) != null);
-                        properties.add(classProperty);
-                    }
-                }
+            for (final DeclaredProperty declared : listDeclaredProperties(typeElement)) {
+                final DeclaredProperty existing = properties.get(declared.property.getter);
+                properties.put(declared.property.getter, existing == null ? declared : merge(existing, declared));
+            }
+        }
+
+        final List<ClassProperty> result = new ArrayList<ClassProperty>(properties.size());
+        for (final DeclaredProperty declared : properties.values()) {
+            result.add(declared.property);
+        }
+        return result;
+    }
+
+    /**
+     * Merge two declarations of the same getter.
+     *
+     * @param first  The first declaration.
+     * @param second The declaration found later in the hierarchy.
+     * @return The merged declaration, with the most specific return type, required, @Persistent and @Hot when
+     *         either one is.
+     */
+    private DeclaredProperty merge(final DeclaredProperty first, final DeclaredProperty second) {
+        // Unrelated return types are rejected by the compiler, the first declaration is kept.
+        final DeclaredProperty specific = types.isSubtype(second.returnType, first.returnType)
+                && !types.isSameType(second.returnType, first.returnType) ? second : first;
+        final boolean required = first.property.required || second.property.required;
+        final boolean persistent = first.property.persistent || second.property.persistent;
+        final boolean hot = first.property.hot || second.property.hot;
+        if (specific.property.required == required && specific.property.persistent == persistent
+                && specific.property.hot == hot) {
+            return specific;
+        }
+
+        final ClassProperty property = new ClassProperty();
+        property.name = specific.property.name;
+        property.type = specific.property.type;
+        property.getter = specific.property.getter;
+        property.setter = specific.property.setter;
+        property.required = required;
+        property.immutableImpl = specific.property.immutableImpl;
+        property.persistent = persistent;
+        property.hot = hot;
+        return new DeclaredProperty(property, specific.returnType);
+    }
+
+    /**
+     * List the properties declared by the given type itself. Every type is analysed once per round, the
+     * returned properties are shared by all subtypes and must not be modified.
+     * <p/>
+     * Works on the element model only: the methods are taken from the enclosed elements, the name is read
+     * once per method and the type comes from the return type of the method.
+     *
+     * @param typeElement The type.
+     * @return The properties declared by the type, in declaration order.
+     */
+    List<DeclaredProperty> listDeclaredProperties(final TypeElement typeElement) {
+        List<DeclaredProperty> properties = declaredProperties.get(typeElement);
+        if (properties != null) {
+            return properties;
+        }
+
+        properties = new ArrayList<DeclaredProperty>();
+        for (final ExecutableElement method : ElementFilter.methodsIn(typeElement.getEnclosedElements())) {
+            if (!method.getParameters().isEmpty()) {
+                continue;
+            }
+            final String methodName = method.getSimpleName().toString();
+            final String propertyName = BeanUtils.determinePropertyName(methodName);
+            if (propertyName != null) {
+                final ClassProperty classProperty = new ClassProperty();
+                classProperty.name = propertyName;
+                classProperty.type = method.getReturnType().toString();
+                classProperty.getter = methodName;
+                classProperty.setter = BeanUtils.determineSetter(propertyName);
+                classProperty.required = (method.getAnnotation(Required.class) != null);
+                classProperty.immutableImpl = determineImmutableImpl(method.getReturnType());
+                classProperty.persistent = (method.getAnnotation(Persistent.class) != null);
+                classProperty.hot = (method.getAnnotation(Hot.class) != null);
+                properties.add(new DeclaredProperty(classProperty, method.getReturnType()));
             }
         }
 
+        properties = Collections.unmodifiableList(properties);
+        declaredProperties.put(typeElement, properties);
         return properties;
     }
 
+    /**
+     * Determine the implementation generated for a property type. The processor generates an implementation for
+     * every @Immutable interface, named after the interface.
+     *
+     * @param type The return type of the getter.
+     * @return The qualified name of the implementation, <code>null</code> if the type is not an @Immutable
+     *         interface.
+     */
+    private String determineImmutableImpl(final TypeMirror type) {
+        final Boolean immutable = type.accept(IMMUTABLE_VISITOR, null);
+        if (immutable == null || !immutable) {
+            return null;
+        }
+        final TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        if (element.getKind() != ElementKind.INTERFACE) {
+            return null;
+        }
+        return element.getQualifiedName() + "Impl";
+    }
+
+    /**
+     * A property with the return type of its getter, as declared by a single type.
+     */
+    static final class DeclaredProperty {
+        final ClassProperty property;
+        final TypeMirror returnType;
+
+        DeclaredProperty(ClassProperty property, TypeMirror returnType) {
+            this.property = property;
+            this.returnType = returnType;
+        }
+    }
+
     private class ObjectWrapper<T> {
         private T wrapped;
 
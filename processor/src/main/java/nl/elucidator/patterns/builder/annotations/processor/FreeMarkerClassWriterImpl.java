@@ -20,11 +20,7 @@ package nl.elucidator.patterns.builder.annotations.processor;
 import freemarker.ext.beans.BeansWrapper;
 import freemarker.template.*;
 
-import javax.annotation.processing.ProcessingEnvironment;
-import javax.tools.JavaFileObject;
-import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -36,9 +32,16 @@ import java.util.Map;
  */
 public class FreeMarkerClassWriterImpl implements ClassWriter {
 
+    /**
+     * The name of this writer.
+     */
+    public static final String NAME = "freemarker";
+
     private Configuration freeMarkerConfiguration;
 
-    private Map<String, Object> createRootMap(SuperClassInfo superClassInfo, ClassProperty[] properties, ProcessingEnvironment processingEnv) {
+    private Map<String, Object> createRootMap(ClassMetaData metaData) {
+        SuperClassInfo superClassInfo = metaData.getSuperClassInfo();
+        ClassProperty[] properties = metaData.getProperties();
         Map<String, Object> root = new HashMap<String, Object>();
         String superClassQName = superClassInfo.qualifiedName;
 
@@ -70,7 +73,29 @@ public class FreeMarkerClassWriterImpl implements ClassWriter {
         }
         root.put("required", required.toArray(new ClassProperty[]{}));
         root.put("optional", optional.toArray(new ClassProperty[]{}));
+        root.put("fields", metaData.getFields());
+        root.put("packedFlagsType", metaData.getPackedFlagsType());
+        root.put("presenceMask", metaData.getPresenceMask());
+        root.put("packedFlagsAssignment", metaData.getPackedFlagsAssignment());
+        root.put("allPropertiesConstructor", metaData.hasAllPropertiesConstructor());
+        root.put("requiredChunks", metaData.getRequiredChunks());
+        root.put("optionalChunks", metaData.getOptionalChunks());
+        root.put("equalsComparisons", metaData.getEqualsComparisons());
+        root.put("sparseWords", metaData.getSparseWords());
+        root.put("sparseWordAssignments", metaData.getSparseWordAssignments());
+        root.put("sparseValues", metaData.getSparseValues());
+        root.put("sparsePrimitives", metaData.getSparsePrimitives());
+        root.put("sparseValueCount", metaData.getSparseValueCount());
+        root.put("sparsePrimitiveCount", metaData.getSparsePrimitiveCount());
         root.put("generatorClass", MakeBuilderProcessor.class);
+        root.put("generated", metaData.getGenerated());
+        root.put("runtime", metaData.isRuntime());
+        root.put("runtimeCollections", ClassMetaData.RUNTIME_COLLECTIONS);
+        root.put("primitiveCollections", ClassMetaData.RUNTIME_PRIMITIVE_COLLECTIONS);
+        root.put("interned", metaData.isInterned());
+        root.put("reusable", metaData.isReusable());
+        root.put("internPool", ClassMetaData.RUNTIME_INTERN_POOL);
+        root.put("persistentCollections", ClassMetaData.RUNTIME_PERSISTENT_COLLECTIONS);
 
         BeansWrapper wrapper = BeansWrapper.getDefaultInstance();
         TemplateHashModel enumModels = wrapper.getEnumModels();
@@ -86,59 +111,35 @@ public class FreeMarkerClassWriterImpl implements ClassWriter {
     }
 
     @Override
-    public void generateBuilder(ClassMetaData metaData, ProcessingEnvironment processingEnv) {
-        Map<String, Object> rootMap = createRootMap(metaData.getSuperClassInfo(), metaData.getProperties(), processingEnv);
-
-        Writer writer = null;
-        try {
-            initializeFreeMarker();
-
-            String classQName = (String) rootMap.get("implClassQName");
-            Template template = freeMarkerConfiguration.getTemplate("JoshuaBuilder.ftl");
-            StringWriter strWtr = new StringWriter();
-            template.process(rootMap, strWtr);
-
-            JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(classQName);
+    public String getName() {
+        return NAME;
+    }
 
-            createDirectories(sourceFile);
+    @Override
+    public void render(ClassMetaData metaData, Writer writer) throws IOException {
+        Map<String, Object> rootMap = createRootMap(metaData);
 
-            writer = sourceFile.openWriter();
-            writer.write(strWtr.toString());
-            writer.close();
-        } catch (IOException e) {
-            throw new RuntimeException("Error loading template", e);
+        try {
+            Template template = initializeFreeMarker().getTemplate("JoshuaBuilder.ftl");
+            template.process(rootMap, writer);
         } catch (TemplateException e) {
             throw new RuntimeException("Error processing template", e);
-        } finally {
-            if (writer != null) {
-                try {
-                    writer.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-    }
-
-    private void createDirectories(final JavaFileObject sourceFile) {
-        File sourceFileDir = new File(sourceFile.toUri());
-        String sourceDir = sourceFileDir.getParent();
-        File directory = new File(sourceDir);
-        if (!directory.exists()) {
-            directory.mkdirs();
         }
     }
 
     /**
-     * Create a FreeMarker configuration.
+     * Create a FreeMarker configuration. Once created the configuration and its templates are
+     * safe to use from multiple threads.
+     *
+     * @return The configuration.
      */
-    private void initializeFreeMarker() {
+    private synchronized Configuration initializeFreeMarker() {
         if (freeMarkerConfiguration == null) {
             freeMarkerConfiguration = new Configuration();
             freeMarkerConfiguration.setClassForTemplateLoading(MakeBuilderProcessor.class, "");
             freeMarkerConfiguration.setObjectWrapper(new DefaultObjectWrapper());
         }
+        return freeMarkerConfiguration;
     }
 
 }
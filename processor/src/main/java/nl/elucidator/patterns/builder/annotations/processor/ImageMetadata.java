@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import javax.annotation.processing.Filer;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Collects the classes generated in all rounds and writes the metadata ahead-of-time compilers need for them
+ * to the class output:
+ * <ul>
+ * <li>for GraalVM native-image, <code>reflect-config.json</code> and <code>reachability-metadata.json</code> in
+ * <code>META-INF/native-image/&lt;group&gt;/&lt;artifact&gt;</code>, registering the implementations and their
+ * Builders for reflection, so frameworks can find them in a native image;</li>
+ * <li>for AppCDS, a class list of the implementations, their Builders, the immutable types and the classes of
+ * the runtime module they use, to pass to <code>-XX:SharedClassListFile</code> when dumping the archive.</li>
+ * </ul>
+ * The entries are sorted, so the files do not change when the types are processed in another order.
+ */
+final class ImageMetadata {
+
+    private static final String RUNTIME_PACKAGE = ClassMetaData.RUNTIME_COLLECTIONS.substring(0,
+            ClassMetaData.RUNTIME_COLLECTIONS.lastIndexOf('.') + 1);
+
+    private final String nativeImageDirectory;
+    private final String classListResource;
+
+    private final Set<String> implementations = new TreeSet<String>();
+    private final Set<String> classList = new TreeSet<String>();
+
+    /**
+     * @param nativeImageCoordinates The <code>group/artifact</code> the native-image metadata is written for,
+     *                               <code>null</code> to write none.
+     * @param classListResource      The resource name of the class list in the class output,
+     *                               <code>null</code> to write none.
+     */
+    ImageMetadata(String nativeImageCoordinates, String classListResource) {
+        this.nativeImageDirectory = nativeImageCoordinates == null ? null
+                : "META-INF/native-image/" + nativeImageCoordinates + "/";
+        this.classListResource = classListResource;
+    }
+
+    /**
+     * @param coordinates The value of the native-image option.
+     * @return <code>true</code> when the coordinates have the form <code>group/artifact</code>.
+     */
+    static boolean isValidCoordinates(String coordinates) {
+        return coordinates.matches("[^/\\s]+/[^/\\s]+");
+    }
+
+    boolean isEnabled() {
+        return nativeImageDirectory != null || classListResource != null;
+    }
+
+    /**
+     * Add a generated implementation.
+     *
+     * @param metaData The metadata of the type.
+     */
+    void add(ClassMetaData metaData) {
+        if (!isEnabled()) {
+            return;
+        }
+        implementations.add(metaData.getImplClassQName());
+        classList.add(internalName(metaData.getSuperClassInfo().qualifiedName));
+        classList.add(internalName(metaData.getImplClassQName()));
+        classList.add(internalName(metaData.getImplClassQName() + "$Builder"));
+        if (metaData.isRuntime()) {
+            classList.add(internalName(ClassMetaData.RUNTIME_COLLECTIONS));
+        }
+        if (metaData.isInterned()) {
+            addRuntimeClasses("InternPool", "InternPool$Segment");
+        }
+        for (ClassProperty property : metaData.getProperties()) {
+            final String persistentCollection = property.getPersistentCollection();
+            final String primitiveCollection = property.getPrimitiveCollection();
+            if (persistentCollection != null) {
+                addPersistentCollection(persistentCollection);
+            } else if (metaData.isRuntime() && primitiveCollection != null) {
+                addPrimitiveCollection(primitiveCollection);
+            }
+        }
+    }
+
+    /**
+     * Add the classes of <code>PersistentCollections</code> a @Persistent property uses: the collection, with the
+     * map and its trie nodes for the hash sets and maps.
+     *
+     * @param persistentCollection The simple class name of the collection.
+     */
+    private void addPersistentCollection(String persistentCollection) {
+        addRuntimeClasses("PersistentCollections", persistentCollection);
+        if (!"PersistentVector".equals(persistentCollection)) {
+            addRuntimeClasses("PersistentHashMap", "PersistentHashMap$Node", "PersistentHashMap$BitmapNode",
+                    "PersistentHashMap$CollisionNode", "PersistentHashMap$EntryIterator");
+        }
+    }
+
+    /**
+     * Add the classes of <code>PrimitiveCollections</code> a property copied into a primitive collection uses:
+     * the collection, with the hashing of the sets and maps and the common superclass of the maps.
+     *
+     * @param primitiveCollection The suffix of the copy method, like <code>IntList</code> or <code>DoubleMap</code>.
+     */
+    private void addPrimitiveCollection(String primitiveCollection) {
+        addRuntimeClasses("PrimitiveCollections");
+        if (primitiveCollection.endsWith("List")) {
+            addRuntimeClasses(primitiveCollection);
+        } else if (primitiveCollection.endsWith("Set")) {
+            addRuntimeClasses(primitiveCollection, "OpenAddressing");
+        } else {
+            addRuntimeClasses("Object" + primitiveCollection, "PrimitiveValueMap", "OpenAddressing");
+        }
+    }
+
+    /**
+     * Add classes of the runtime module an implementation uses to the class list.
+     *
+     * @param names The binary names of the classes, without the runtime package.
+     */
+    private void addRuntimeClasses(String... names) {
+        for (String name : names) {
+            classList.add(internalName(RUNTIME_PACKAGE + name));
+        }
+    }
+
+    /**
+     * Write the enabled metadata files.
+     *
+     * @param filer The Filer to create the files with.
+     * @throws IOException When a file cannot be written.
+     */
+    void write(Filer filer) throws IOException {
+        if (nativeImageDirectory != null) {
+            Writer writer = open(filer, nativeImageDirectory + "reflect-config.json");
+            try {
+                writer.write("[");
+                writeReflection("name", "", writer);
+                writer.write("\n]\n");
+            } finally {
+                writer.close();
+            }
+            writer = open(filer, nativeImageDirectory + "reachability-metadata.json");
+            try {
+                writer.write("{\n  \"reflection\": [");
+                writeReflection("type", "  ", writer);
+                writer.write("\n  ]\n}\n");
+            } finally {
+                writer.close();
+            }
+        }
+        if (classListResource != null) {
+            final Writer writer = open(filer, classListResource);
+            try {
+                for (String name : classList) {
+                    writer.write(name);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Write the reflection entries of all implementations and Builders. Both files use the same entries, they
+     * only differ in the key of the type name.
+     */
+    private void writeReflection(String nameKey, String indent, Writer writer) throws IOException {
+        boolean first = true;
+        for (String implementation : implementations) {
+            for (String className : new String[]{implementation, implementation + "$Builder"}) {
+                writer.write(first ? "\n" : ",\n");
+                first = false;
+                writer.write(indent);
+                writer.write("  {\n");
+                writer.write(indent);
+                writer.write("    \"" + nameKey + "\": \"" + className + "\",\n");
+                writer.write(indent);
+                writer.write("    \"allDeclaredConstructors\": true,\n");
+                writer.write(indent);
+                writer.write("    \"allDeclaredFields\": true,\n");
+                writer.write(indent);
+                writer.write("    \"allPublicMethods\": true\n");
+                writer.write(indent);
+                writer.write("  }");
+            }
+        }
+    }
+
+    private static Writer open(Filer filer, String resource) throws IOException {
+        final FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", resource);
+        return new OutputStreamWriter(file.openOutputStream(), "UTF-8");
+    }
+
+    /**
+     * @return The name in the form of the class list, with slashes separating the packages.
+     */
+    private static String internalName(String binaryName) {
+        return binaryName.replace('.', '/');
+    }
+}
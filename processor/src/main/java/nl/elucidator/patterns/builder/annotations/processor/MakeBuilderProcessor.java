@@ -19,11 +19,24 @@ package nl.elucidator.patterns.builder.annotations.processor;
 
 import javax.annotation.processing.*;
 import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
 import javax.tools.Diagnostic;
-import java.lang.annotation.Annotation;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Annotation processor for {Immutable} classes. For classes annotated with
@@ -31,20 +44,128 @@ import java.util.Set;
  * <p/>
  * This class is used to bootstrap the generation process.
  * <p/>
+ * Every generated source depends only on the annotated type and its @Immutable super-interfaces, which
+ * makes this an isolating processor for incremental builds (see
+ * <code>META-INF/gradle/incremental.annotation.processors</code>).
+ * <p/>
+ * Supported options:
+ * <ul>
+ * <li><code>-Abuilder.writer=streaming|freemarker</code>: the {@link ClassWriter} generating the sources,
+ * defaults to the {@link StreamingClassWriterImpl}. Other writers are found with the {@link java.util.ServiceLoader}.
+ * Writers can be selected per package, see {@link BackendSelector}:
+ * <code>-Abuilder.writer=streaming,com.acme.legacy=freemarker</code>.</li>
+ * <li><code>-Abuilder.parser=default</code>: the {@link ClassParser} reading the types, selected like the writer,
+ * defaults to the {@link DefaultClassParserImpl}.</li>
+ * <li><code>-Abuilder.skipUnchanged=true|false</code>: leave generated sources that did not change untouched,
+ * defaults to <code>true</code>.</li>
+ * <li><code>-Abuilder.parallelism=N</code>: render the sources of a round on a pool of N threads,
+ * defaults to 1 which renders on the compiler thread.</li>
+ * <li><code>-Abuilder.report=&lt;file&gt;</code>: write a JSON report with the time, and where supported the
+ * allocated bytes, spent per type and phase and per round to the file. Disabled by default.</li>
+ * <li><code>-Abuilder.verbose=true|false</code>: report the progress of every type as a note,
+ * defaults to <code>false</code> which only reports a summary.</li>
+ * <li><code>-Abuilder.cacheDir=&lt;dir&gt;</code>: cache generated sources in the directory, shared by all builds
+ * on the machine, so unchanged types are not rendered again. Disabled by default.</li>
+ * <li><code>-Abuilder.cacheMaxSize=MB</code>: the size of the cache, defaults to 256.</li>
+ * <li><code>-Abuilder.cacheMaxAge=days</code>: remove cached sources not used for this many days, defaults to 30.</li>
+ * <li><code>-Abuilder.wideTypeThreshold=N</code>: types with at least N properties are streamed to their source
+ * file by the {@link StreamingClassWriterImpl} with a buffer of constant size, bypassing the cache and the render
+ * pool, defaults to 1000. A note tells when this overrides the writer selected by <code>builder.writer</code>.</li>
+ * <li><code>-Abuilder.maxMethodBytes=N</code>: split the generated methods that copy all properties into helper
+ * methods of at most about N bytes of bytecode, so they stay small enough for the JIT to inline and compile,
+ * defaults to 325, HotSpot's <code>FreqInlineSize</code>.</li>
+ * <li><code>-Abuilder.runtime=true|false</code>: let the generated code call the shared helpers of the
+ * <code>builder-annotations-runtime</code> module instead of inlining them in every class, defaults to
+ * <code>false</code>. Ignored with a warning when the module is not on the compiler classpath.</li>
+ * <li><code>-Abuilder.nativeImage=&lt;group&gt;/&lt;artifact&gt;</code>: write the GraalVM native-image
+ * <code>reflect-config.json</code> and <code>reachability-metadata.json</code> of all generated classes to
+ * <code>META-INF/native-image/&lt;group&gt;/&lt;artifact&gt;</code> in the class output. Disabled by default.</li>
+ * <li><code>-Abuilder.cdsClassList=&lt;resource&gt;</code>: write an AppCDS class list of all generated classes
+ * and their immutable types to the resource in the class output, like <code>META-INF/classlist</code>.
+ * Disabled by default.</li>
+ * </ul>
+ * The processor is registered as a dynamic incremental processor for Gradle: it is isolating, unless it writes
+ * the native-image or class list metadata, which aggregates all generated classes.
  */
 @SupportedAnnotationTypes({MakeBuilderProcessor.JCIP_IMMUTABLE})
 @SupportedSourceVersion(SourceVersion.RELEASE_6)
+@SupportedOptions({MakeBuilderProcessor.WRITER_OPTION, MakeBuilderProcessor.PARSER_OPTION, MakeBuilderProcessor.SKIP_UNCHANGED_OPTION,
+        MakeBuilderProcessor.PARALLELISM_OPTION, MakeBuilderProcessor.REPORT_OPTION, MakeBuilderProcessor.VERBOSE_OPTION,
+        MakeBuilderProcessor.CACHE_DIR_OPTION, MakeBuilderProcessor.CACHE_MAX_SIZE_OPTION,
+        MakeBuilderProcessor.CACHE_MAX_AGE_OPTION, MakeBuilderProcessor.WIDE_TYPE_THRESHOLD_OPTION,
+        MakeBuilderProcessor.MAX_METHOD_BYTES_OPTION, MakeBuilderProcessor.RUNTIME_OPTION,
+        MakeBuilderProcessor.NATIVE_IMAGE_OPTION, MakeBuilderProcessor.CDS_CLASS_LIST_OPTION})
 public class MakeBuilderProcessor extends AbstractProcessor {
 
     /**
-     * The parser used to gather metadata from the type.
+     * The parsers used to gather metadata from the types.
+     */
+    private BackendSelector<ClassParser> parsers;
+
+    /**
+     * The writer implementations to use when generating the sources.
+     */
+    private BackendSelector<ClassWriter> writers;
+
+    /**
+     * Writes the rendered sources through the Filer.
+     */
+    private SourceFileWriter sourceFileWriter;
+
+    /**
+     * Renders the sources of a round in parallel, <code>null</code> when rendering on the compiler thread.
+     */
+    private ForkJoinPool renderPool;
+
+    /**
+     * Collects the cost of the generation, disabled unless a report file is configured.
+     */
+    private ProcessingReport report;
+
+    /**
+     * Report the progress of every type, not only the summary.
+     */
+    private boolean verbose;
+
+    /**
+     * Cache of generated sources, <code>null</code> when disabled.
+     */
+    private SourceCache sourceCache;
+
+    /**
+     * Renders the sources of types with at least {@link #wideTypeThreshold} properties.
+     */
+    private ClassWriter wideTypeWriter;
+
+    /**
+     * The number of properties from which on a type is written with bounded memory.
+     */
+    private long wideTypeThreshold;
+
+    /**
+     * The bytecode budget of the generated methods.
+     */
+    private int maxMethodBytes;
+
+    /**
+     * Whether the generated code calls into the runtime module.
+     */
+    private boolean runtime;
+
+    /**
+     * The native-image and class list metadata of the generated classes.
+     */
+    private ImageMetadata imageMetadata;
+
+    /**
+     * The Generated annotation marking the generated sources, <code>null</code> when none is available.
      */
-    private final ClassParser classParser;
+    private String generatedAnnotation;
 
     /**
-     * The writer implementation to use when generating the sources.
+     * The implementations generated in earlier rounds, which must not be processed again.
      */
-    private final ClassWriter classWriter;
+    private final Set<String> generatedTypes = new HashSet<String>();
 
     /**
      * The name of the Java Concurrency in Practice Immutable annotation.
@@ -56,6 +177,106 @@ public class MakeBuilderProcessor extends AbstractProcessor {
      */
     public static final String GENERATED = "javax.annotation.Generated";
 
+    /**
+     * The name of the annotation that marks a generated source from Java 9 on, which no longer has
+     * {@link #GENERATED} in the platform.
+     */
+    public static final String PROCESSING_GENERATED = "javax.annotation.processing.Generated";
+
+    /**
+     * Option selecting the class writer: <code>streaming</code> (default) or <code>freemarker</code>.
+     */
+    public static final String WRITER_OPTION = "builder.writer";
+
+    /**
+     * Option selecting the class parser: <code>default</code>.
+     */
+    public static final String PARSER_OPTION = "builder.parser";
+
+    /**
+     * Option to disable skipping generated sources whose content did not change.
+     */
+    public static final String SKIP_UNCHANGED_OPTION = "builder.skipUnchanged";
+
+    /**
+     * Option setting the number of threads rendering sources.
+     */
+    public static final String PARALLELISM_OPTION = "builder.parallelism";
+
+    /**
+     * Option setting the file the processing report is written to.
+     */
+    public static final String REPORT_OPTION = "builder.report";
+
+    /**
+     * Option enabling a note for every processed type.
+     */
+    public static final String VERBOSE_OPTION = "builder.verbose";
+
+    /**
+     * Option setting the directory of the cache of generated sources.
+     */
+    public static final String CACHE_DIR_OPTION = "builder.cacheDir";
+
+    /**
+     * Option setting the maximum size of the cache in megabytes.
+     */
+    public static final String CACHE_MAX_SIZE_OPTION = "builder.cacheMaxSize";
+
+    /**
+     * Option setting the number of days an unused source is kept in the cache.
+     */
+    public static final String CACHE_MAX_AGE_OPTION = "builder.cacheMaxAge";
+
+    /**
+     * Option setting the number of properties from which on a type is written with bounded memory.
+     */
+    public static final String WIDE_TYPE_THRESHOLD_OPTION = "builder.wideTypeThreshold";
+
+    /**
+     * Option setting the bytecode budget of the generated methods.
+     */
+    public static final String MAX_METHOD_BYTES_OPTION = "builder.maxMethodBytes";
+
+    /**
+     * Option to generate code calling into the runtime module.
+     */
+    public static final String RUNTIME_OPTION = "builder.runtime";
+
+    /**
+     * Option setting the <code>group/artifact</code> to write native-image metadata for.
+     */
+    public static final String NATIVE_IMAGE_OPTION = "builder.nativeImage";
+
+    /**
+     * Option setting the resource to write the AppCDS class list to.
+     */
+    public static final String CDS_CLASS_LIST_OPTION = "builder.cdsClassList";
+
+    /**
+     * Option Gradle reads to classify a dynamic incremental processor as isolating.
+     */
+    static final String GRADLE_ISOLATING = "org.gradle.annotation.processing.isolating";
+
+    /**
+     * Option Gradle reads to classify a dynamic incremental processor as aggregating.
+     */
+    static final String GRADLE_AGGREGATING = "org.gradle.annotation.processing.aggregating";
+
+    /**
+     * The options that do not change the generated code. All other options are part of the cache key.
+     */
+    private static final List<String> NON_OUTPUT_OPTIONS = Arrays.asList(SKIP_UNCHANGED_OPTION, PARALLELISM_OPTION,
+            REPORT_OPTION, VERBOSE_OPTION, CACHE_DIR_OPTION, CACHE_MAX_SIZE_OPTION, CACHE_MAX_AGE_OPTION,
+            WIDE_TYPE_THRESHOLD_OPTION, NATIVE_IMAGE_OPTION, CDS_CLASS_LIST_OPTION);
+
+    /**
+     * The template and the classes turning the metadata into source, hashed into the fingerprint of the cache.
+     */
+    private static final List<String> GENERATOR_RESOURCES = Arrays.asList("JoshuaBuilder.ftl",
+            "StreamingClassWriterImpl.class", "FreeMarkerClassWriterImpl.class", "ClassMetaData.class",
+            "ClassProperty.class", "MethodSplitter.class");
+
 //    private FancyFeaturesHelper fancyFeaturesHelper;
 
     /**
@@ -64,13 +285,142 @@ public class MakeBuilderProcessor extends AbstractProcessor {
     // Suppress, because it's used by APT.
     @SuppressWarnings({"UnusedDeclaration"})
     public MakeBuilderProcessor() {
-        classParser = new DefaultClassParserImpl();
-        classWriter = new FreeMarkerClassWriterImpl();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Adds the incremental processing type for Gradle, which reads it after {@link #init(ProcessingEnvironment)}.
+     */
+    @Override
+    public Set<String> getSupportedOptions() {
+        final Set<String> options = new HashSet<String>(super.getSupportedOptions());
+        options.add(imageMetadata != null && imageMetadata.isEnabled() ? GRADLE_AGGREGATING : GRADLE_ISOLATING);
+        return options;
     }
 
     @Override
     public void init(ProcessingEnvironment processingEnv) {
         super.init(processingEnv);
+        writers = BackendSelector.load(ClassWriter.class, WRITER_OPTION,
+                processingEnv.getOptions().get(WRITER_OPTION), StreamingClassWriterImpl.NAME);
+        parsers = BackendSelector.load(ClassParser.class, PARSER_OPTION,
+                processingEnv.getOptions().get(PARSER_OPTION), DefaultClassParserImpl.NAME);
+        for (String warning : writers.getWarnings()) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, warning);
+        }
+        for (String warning : parsers.getWarnings()) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, warning);
+        }
+        for (ClassParser classParser : parsers.getAll()) {
+            classParser.init(processingEnv);
+        }
+        sourceFileWriter = new SourceFileWriter(processingEnv,
+                !"false".equals(processingEnv.getOptions().get(SKIP_UNCHANGED_OPTION)));
+        int parallelism = (int) readPositive(PARALLELISM_OPTION, 1);
+        if (parallelism > 1) {
+            renderPool = new ForkJoinPool(parallelism);
+        }
+        generatedAnnotation = selectGeneratedAnnotation();
+        sourceCache = createSourceCache(processingEnv.getOptions().get(CACHE_DIR_OPTION));
+        // The streaming writer renders property by property, without building a model of the type.
+        wideTypeWriter = writers.get(StreamingClassWriterImpl.NAME);
+        wideTypeThreshold = readPositive(WIDE_TYPE_THRESHOLD_OPTION, 1000);
+        maxMethodBytes = (int) Math.min(65535, readPositive(MAX_METHOD_BYTES_OPTION, MethodSplitter.DEFAULT_MAX_METHOD_BYTES));
+        runtime = "true".equals(processingEnv.getOptions().get(RUNTIME_OPTION));
+        if (runtime && processingEnv.getElementUtils().getTypeElement(ClassMetaData.RUNTIME_COLLECTIONS) == null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, RUNTIME_OPTION + " ignored, "
+                    + ClassMetaData.RUNTIME_COLLECTIONS + " is not on the classpath");
+            runtime = false;
+        }
+        String nativeImage = processingEnv.getOptions().get(NATIVE_IMAGE_OPTION);
+        if (nativeImage != null && !ImageMetadata.isValidCoordinates(nativeImage.trim())) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    NATIVE_IMAGE_OPTION + " ignored, expected <group>/<artifact>: " + nativeImage);
+            nativeImage = null;
+        }
+        String classList = processingEnv.getOptions().get(CDS_CLASS_LIST_OPTION);
+        imageMetadata = new ImageMetadata(nativeImage == null ? null : nativeImage.trim(),
+                classList == null || classList.trim().length() == 0 ? null : classList.trim());
+        String reportFile = processingEnv.getOptions().get(REPORT_OPTION);
+        report = new ProcessingReport(reportFile == null || reportFile.trim().length() == 0 ? null : new File(reportFile.trim()));
+        verbose = "true".equals(processingEnv.getOptions().get(VERBOSE_OPTION));
+    }
+
+    /**
+     * Read a numeric option.
+     *
+     * @param option       The name of the option.
+     * @param defaultValue The value when the option is not set or invalid.
+     * @return The value of the option, at least 1.
+     */
+    private long readPositive(String option, long defaultValue) {
+        String value = processingEnv.getOptions().get(option);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(1, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            processingEnv.getMessager().printMessage(
+                    Diagnostic.Kind.WARNING,
+                    "Invalid " + option + " '" + value + "', using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Select the Generated annotation for the source version: the one of <code>javax.annotation.processing</code>
+     * from Java 9 on, the one of <code>javax.annotation</code> before, whichever of them is on the classpath.
+     *
+     * @return The qualified name of the annotation, or <code>null</code> when neither is available.
+     */
+    private String selectGeneratedAnnotation() {
+        final String[] candidates = processingEnv.getSourceVersion().compareTo(SourceVersion.RELEASE_8) > 0
+                ? new String[]{PROCESSING_GENERATED, GENERATED}
+                : new String[]{GENERATED};
+        for (String candidate : candidates) {
+            if (processingEnv.getElementUtils().getTypeElement(candidate) != null) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Create the source cache configured by the {@link #CACHE_DIR_OPTION} option.
+     *
+     * @param directory The value of the option, may be <code>null</code>.
+     * @return The cache, or <code>null</code> when disabled.
+     */
+    private SourceCache createSourceCache(String directory) {
+        if (directory == null || directory.trim().length() == 0) {
+            return null;
+        }
+
+        // The cached sources are only valid for this version of the processor and template, with the same options.
+        // A snapshot or IDE build keeps its version, the code of the writers tells changed builds apart.
+        final StringBuilder fingerprint = new StringBuilder();
+        final String version = MakeBuilderProcessor.class.getPackage().getImplementationVersion();
+        fingerprint.append(version == null ? "development" : version).append('\n');
+        try {
+            for (String resource : GENERATOR_RESOURCES) {
+                fingerprint.append(SourceCache.hashResource(resource)).append('\n');
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Source cache disabled, unable to read the generator: " + e.getMessage());
+            return null;
+        }
+        for (Map.Entry<String, String> option : new TreeMap<String, String>(processingEnv.getOptions()).entrySet()) {
+            if (option.getKey().startsWith("builder.") && !NON_OUTPUT_OPTIONS.contains(option.getKey())) {
+                fingerprint.append(option.getKey()).append('=').append(option.getValue()).append('\n');
+            }
+        }
+
+        return new SourceCache(new File(directory.trim()), fingerprint.toString(),
+                readPositive(CACHE_MAX_SIZE_OPTION, 256) * 1024 * 1024,
+                readPositive(CACHE_MAX_AGE_OPTION, 30) * 24 * 60 * 60 * 1000);
     }
 
     /**
@@ -78,86 +428,355 @@ public class MakeBuilderProcessor extends AbstractProcessor {
      */
     @Override
     public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment env) {
-        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Starting process");
+        final long start = System.nanoTime();
+        note("Starting process");
+        for (ClassParser classParser : parsers.getAll()) {
+            classParser.startRound();
+        }
+        // Resolved once per round, the Generated annotation is not available on every platform.
+        final TypeElement generated = generatedAnnotation == null
+                ? null : processingEnv.getElementUtils().getTypeElement(generatedAnnotation);
+        final TypeElement immutable = processingEnv.getElementUtils().getTypeElement(JCIP_IMMUTABLE);
+
+        final List<ClassMetaData> types = new ArrayList<ClassMetaData>();
         for (final TypeElement type : annotations) {
             for (final Element element : env.getElementsAnnotatedWith(type)) {
-                if (shouldProcessType(element)) {
-                    processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Generating for: " + element);
-                    generate((TypeElement) element, processingEnv);
-                    processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Generating done");
+                if (shouldProcessType(element, generated, immutable)) {
+                    note("Generating for: " + element);
+                    ClassMetaData classMetaData = readMetaData((TypeElement) element);
+                    if (classMetaData != null) {
+                        types.add(classMetaData);
+                        generatedTypes.add(classMetaData.getImplClassQName());
+                        imageMetadata.add(classMetaData);
+                    }
                 }
             }
         }
+        generate(types);
+        report.endRound(start);
+        if (env.processingOver()) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                    "Builders written: " + sourceFileWriter.getWritten()
+                            + ", unchanged and skipped: " + sourceFileWriter.getSkipped()
+                            + (sourceCache == null ? "" : ", cache hits: " + sourceCache.getHits()
+                            + ", cache misses: " + sourceCache.getMisses()));
+            if (renderPool != null) {
+                renderPool.shutdown();
+            }
+            writeReport();
+            writeImageMetadata();
+            if (sourceCache != null) {
+                sourceCache.evict();
+            }
+        }
         return true;
     }
 
+    /**
+     * Print a note when running verbose.
+     *
+     * @param message The message.
+     */
+    private void note(final String message) {
+        if (verbose) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message);
+        }
+    }
+
+    /**
+     * Write the processing report, when enabled. Failing to write the report does not fail the compilation.
+     */
+    private void writeReport() {
+        if (!report.isEnabled()) {
+            return;
+        }
+        try {
+            report.write();
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Processing report written to " + report.getFile());
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Unable to write processing report " + report.getFile() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the native-image and class list metadata, when enabled.
+     */
+    private void writeImageMetadata() {
+        if (!imageMetadata.isEnabled()) {
+            return;
+        }
+        try {
+            imageMetadata.write(processingEnv.getFiler());
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to write native-image or class list metadata: " + e.getMessage());
+        }
+    }
+
     /**
      * Determine if the current element should be processed by the processor.
      *
-     * @param element The current element.
+     * @param element   The current element.
+     * @param generated The generated annotation type, <code>null</code> when not available.
+     * @param immutable The JCiP Immutable annotation type, <code>null</code> when not available.
      * @return <code>true</code> if this element should be processed, <code>false</code> otherwise.
      */
-    private boolean shouldProcessType(Element element) {
-        if (isGeneratedType(element)) {
+    private boolean shouldProcessType(Element element, TypeElement generated, TypeElement immutable) {
+        if (isAnnotatedWith(element, generated)) {
             return false;
         }
-        if (jcipAnnotationsOnType(element)) {
+        // Also when the implementation is not marked, because no Generated annotation is available
+        if (element instanceof TypeElement
+                && generatedTypes.contains(((TypeElement) element).getQualifiedName().toString())) {
+            return false;
+        }
+        if (isAnnotatedWith(element, immutable)) {
             return true;
         }
         return false;
     }
 
-    private boolean isGeneratedType(Element element) {
-        try {
-            @SuppressWarnings({"unchecked"}) Class<? extends Annotation> generatedClass =
-                    (Class<? extends Annotation>) Class.forName(GENERATED);
-
-            return element.getAnnotation(generatedClass) != null;
-        } catch (Exception e) {
-            processingEnv.getMessager().printMessage(
-                    Diagnostic.Kind.ERROR,
-                    "Generated annotations are not processed. Reason: " + e.getMessage());
+    /**
+     * Determine if the current element is annotated with the given annotation type.
+     *
+     * @param element    The current element.
+     * @param annotation The annotation type, <code>null</code> when the annotation is not on the classpath.
+     * @return <code>true</code> if this element is annotated with the annotation, <code>false</code> otherwise.
+     */
+    private boolean isAnnotatedWith(Element element, TypeElement annotation) {
+        if (annotation == null) {
             return false;
         }
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (annotation.equals(mirror.getAnnotationType().asElement())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Determine if the current element is annotated with a JCiP annotation.
+     * Read the metadata of the given element. Must be called on the compiler thread, the
+     * <code>javax.lang.model</code> API is not thread-safe.
      *
-     * @param element The current element.
-     * @return <code>true</code> if this element is annotated with a JCiP Immutable annotation,
-     *         <code>false</code> otherwise.
+     * @param element The element for which the code must be generated.
+     * @return The metadata, or <code>null</code> if no code can be generated for the element.
      */
-    private boolean jcipAnnotationsOnType(Element element) {
-        try {
-            @SuppressWarnings({"unchecked"}) Class<? extends Annotation> jcipImmutableClass =
-                    (Class<? extends Annotation>) Class.forName(JCIP_IMMUTABLE);
+    private ClassMetaData readMetaData(final TypeElement element) {
+        final ProcessingReport.TypeTimings timings = report.startType(element.getQualifiedName().toString());
+        long start = System.nanoTime();
+        long allocated = report.allocatedBytes();
+        final ClassParser classParser = parsers.select(
+                processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().toString());
+        final List<TypeElement> hierarchy = classParser.readTypeHierarchy(element);
+        timings.record(ProcessingReport.Phase.HIERARCHY, start, allocated);
+
+        start = System.nanoTime();
+        allocated = report.allocatedBytes();
+        final ClassMetaData classMetaData = classParser.readMetaData(element, hierarchy)
+                .withMaxMethodBytes(maxMethodBytes).withRuntime(runtime)
+                .withGenerated(generatedAnnotation);
+        timings.record(ProcessingReport.Phase.PROPERTIES, start, allocated);
 
-            return element.getAnnotation(jcipImmutableClass) != null;
-        } catch (Exception e) {
+        if (!classMetaData.isInterface()) {
             processingEnv.getMessager().printMessage(
                     Diagnostic.Kind.ERROR,
-                    "JCiP annotations are not processed. Reason: " + e.getMessage());
-            return false;
+                    "Skipped element: " + classMetaData.getSuperClassInfo().qualifiedName + " is not an interface");
+            return null;
+        }
+        if (classMetaData.isInterned()
+                && processingEnv.getElementUtils().getTypeElement(ClassMetaData.RUNTIME_INTERN_POOL) == null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "@Interned needs " + ClassMetaData.RUNTIME_INTERN_POOL + " on the classpath", element);
+            return null;
+        }
+        boolean persistent = false;
+        for (ClassProperty property : classMetaData.getProperties()) {
+            if (property.isPersistent() && property.getPersistentCollection() == null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "@Persistent needs a List, Set or Map property, " + property.getName() + " is a "
+                                + property.getType(), element);
+                return null;
+            }
+            persistent |= property.isPersistent();
+        }
+        if (persistent && processingEnv.getElementUtils().getTypeElement(
+                ClassMetaData.RUNTIME_PERSISTENT_COLLECTIONS) == null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "@Persistent needs " + ClassMetaData.RUNTIME_PERSISTENT_COLLECTIONS + " on the classpath", element);
+            return null;
         }
+        report.register(classMetaData, timings);
+        return classMetaData;
     }
 
     /**
-     * Generate code for the given element.
+     * Generate code for the given types. Rendering is done on the render pool when configured,
+     * the sources are always written on the compiler thread, one after another.
+     * <p/>
+     * Sources found in the cache are not rendered. When caching, rendering in parallel or reporting, the sources
+     * are rendered before writing them, otherwise they are rendered while writing.
+     * <p/>
+     * Wide types are always rendered while writing, see {@link #writeBounded(ClassMetaData)}.
      *
-     * @param element       The element for which the code must be generated.
-     * @param processingEnv The global processing environment.
+     * @param allTypes The metadata of the types to generate.
      */
-    private void generate(final TypeElement element, final ProcessingEnvironment processingEnv) {
-        ClassMetaData classMetaData = classParser.readMetaData(element);
+    private void generate(final List<ClassMetaData> allTypes) {
+        final List<ClassMetaData> types = new ArrayList<ClassMetaData>(allTypes.size());
+        for (ClassMetaData classMetaData : allTypes) {
+            if (classMetaData.getProperties().length >= wideTypeThreshold) {
+                writeBounded(classMetaData);
+            } else {
+                types.add(classMetaData);
+            }
+        }
 
-        if (classMetaData.isInterface()) {
-            classWriter.generateBuilder(classMetaData, processingEnv);
+        if (sourceCache == null && renderPool == null && !report.isEnabled()) {
+            for (ClassMetaData classMetaData : types) {
+                write(classMetaData, null);
+            }
+            return;
+        }
+
+        final List<String> sources = new ArrayList<String>(types.size());
+        final List<String> keys = new ArrayList<String>(types.size());
+        final List<ClassMetaData> misses = new ArrayList<ClassMetaData>();
+        for (ClassMetaData classMetaData : types) {
+            final String key = sourceCache == null ? null
+                    : sourceCache.key(classMetaData, writers.select(classMetaData.getTargetPackage()));
+            final String cached = key == null ? null : sourceCache.get(key);
+            if (cached == null) {
+                misses.add(classMetaData);
+            } else {
+                report.timings(classMetaData).setCached(true);
+            }
+            keys.add(key);
+            sources.add(cached);
+        }
+
+        final List<String> rendered;
+        if (renderPool != null && misses.size() > 1) {
+            rendered = renderAll(misses);
         } else {
-            processingEnv.getMessager().printMessage(
-                    Diagnostic.Kind.ERROR,
-                    "Skipped element: " + classMetaData.getSuperClassInfo().qualifiedName + " is not an interface");
+            rendered = new ArrayList<String>(misses.size());
+            for (ClassMetaData classMetaData : misses) {
+                rendered.add(render(classMetaData));
+            }
+        }
+        for (int i = 0, next = 0; i < types.size(); i++) {
+            if (sources.get(i) == null) {
+                sources.set(i, rendered.get(next++));
+                if (sourceCache != null) {
+                    sourceCache.put(keys.get(i), sources.get(i));
+                }
+            }
+        }
+
+        for (int i = 0; i < types.size(); i++) {
+            write(types.get(i), sources.get(i));
         }
+    }
 
+    /**
+     * Render all types on the render pool.
+     *
+     * @param types The metadata of the types to render.
+     * @return The sources, in the order of the types.
+     */
+    private List<String> renderAll(final List<ClassMetaData> types) {
+        final List<Callable<String>> tasks = new ArrayList<Callable<String>>(types.size());
+        for (final ClassMetaData classMetaData : types) {
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() {
+                    return render(classMetaData);
+                }
+            });
+        }
+
+        final List<String> sources = new ArrayList<String>(types.size());
+        try {
+            final List<Future<String>> results = renderPool.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    sources.add(results.get(i).get());
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Error rendering " + types.get(i).getImplClassQName(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while rendering", e);
+        }
+        return sources;
+    }
+
+    /**
+     * Render the source for the given type, on the current thread.
+     *
+     * @param classMetaData The metadata of the type.
+     * @return The source.
+     */
+    private String render(final ClassMetaData classMetaData) {
+        final long start = System.nanoTime();
+        final long allocated = report.allocatedBytes();
+        final StringWriter writer = new StringWriter();
+        try {
+            writers.select(classMetaData.getTargetPackage()).render(classMetaData, writer);
+        } catch (IOException e) {
+            throw new RuntimeException("Error rendering " + classMetaData.getImplClassQName(), e);
+        }
+        report.timings(classMetaData).record(ProcessingReport.Phase.RENDER, start, allocated);
+        return writer.toString();
+    }
+
+    /**
+     * Write the source for a wide type with bounded memory: it is streamed to the source file as it is rendered.
+     * Rendering is not measured separately, it is part of the write phase.
+     *
+     * @param classMetaData The metadata of the type.
+     */
+    private void writeBounded(final ClassMetaData classMetaData) {
+        final ClassWriter selected = writers.select(classMetaData.getTargetPackage());
+        if (!selected.getName().equals(wideTypeWriter.getName())) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, classMetaData.getSuperClassInfo().qualifiedName
+                    + " has " + classMetaData.getProperties().length + " properties, at least "
+                    + WIDE_TYPE_THRESHOLD_OPTION + ", written by the " + wideTypeWriter.getName()
+                    + " writer instead of the selected " + selected.getName() + " writer");
+        }
+        final ProcessingReport.TypeTimings timings = report.timings(classMetaData);
+        final long start = System.nanoTime();
+        final long allocated = report.allocatedBytes();
+        try {
+            timings.setWritten(sourceFileWriter.writeBounded(classMetaData, wideTypeWriter));
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing " + classMetaData.getImplClassQName(), e);
+        }
+        timings.record(ProcessingReport.Phase.WRITE, start, allocated);
+        note("Generating done");
+    }
+
+    /**
+     * Write the source for the given type.
+     *
+     * @param classMetaData The metadata of the type.
+     * @param source        The rendered source, or <code>null</code> to render it while writing.
+     */
+    private void write(final ClassMetaData classMetaData, final String source) {
+        final ProcessingReport.TypeTimings timings = report.timings(classMetaData);
+        final long start = System.nanoTime();
+        final long allocated = report.allocatedBytes();
+        try {
+            if (source == null) {
+                timings.setWritten(sourceFileWriter.write(classMetaData, writers.select(classMetaData.getTargetPackage())));
+            } else {
+                timings.setWritten(sourceFileWriter.write(classMetaData, source));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing " + classMetaData.getImplClassQName(), e);
+        }
+        timings.record(ProcessingReport.Phase.WRITE, start, allocated);
+        note("Generating done");
     }
 }
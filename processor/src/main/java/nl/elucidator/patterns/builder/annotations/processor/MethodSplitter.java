@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits the straight-line statements of a generated method into chunks, each rendered as a helper method
+ * that stays within a bytecode budget.
+ * <p/>
+ * HotSpot only inlines frequently called methods up to <code>FreqInlineSize</code> (325 bytes), does not compile
+ * methods over 8000 bytes and the class file format limits methods to 64KB. The size of a statement is estimated
+ * from the bytecode javac emits for it, the estimates err on the large side.
+ */
+final class MethodSplitter {
+
+    /**
+     * The default budget of a generated method, HotSpot's <code>FreqInlineSize</code>.
+     */
+    static final int DEFAULT_MAX_METHOD_BYTES = 325;
+
+    /**
+     * <code>this.x = x;</code>: aload_0, a (wide) load and putfield.
+     */
+    static final int ASSIGNMENT_BYTES = 6;
+
+    /**
+     * <code>b.x(x);</code>: aload_1, aload_0, getfield, invokevirtual and pop.
+     */
+    static final int COPY_BYTES = 9;
+
+    private MethodSplitter() {
+    }
+
+    /**
+     * Split the required or optional properties into chunks.
+     *
+     * @param properties        All properties.
+     * @param required          Split the required properties when <code>true</code>, the optional properties otherwise.
+     * @param bytesPerStatement The estimated size of the statement generated for one property.
+     * @param maxMethodBytes    The budget of a method.
+     * @return The chunks, a single chunk when all statements fit in one method.
+     */
+    static ClassProperty[][] split(ClassProperty[] properties, boolean required, int bytesPerStatement, int maxMethodBytes) {
+        final List<ClassProperty> selected = new ArrayList<ClassProperty>(properties.length);
+        for (ClassProperty property : properties) {
+            if (property.isRequired() == required) {
+                selected.add(property);
+            }
+        }
+
+        // One byte for the return instruction.
+        final int perChunk = Math.max(1, (maxMethodBytes - 1) / bytesPerStatement);
+        final int chunks = Math.max(1, (selected.size() + perChunk - 1) / perChunk);
+        final ClassProperty[][] result = new ClassProperty[chunks][];
+        final ClassProperty[] all = selected.toArray(new ClassProperty[selected.size()]);
+        for (int i = 0; i < chunks; i++) {
+            result[i] = Arrays.copyOfRange(all, i * perChunk, Math.min(all.length, (i + 1) * perChunk));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the cost of the processor per type and per round and writes it as a JSON report.
+ * <p/>
+ * Every type is timed per {@link Phase}. When the JVM supports it, the bytes allocated by the
+ * thread executing a phase are recorded as well, otherwise they are reported as -1.
+ * A disabled report ignores all measurements.
+ */
+final class ProcessingReport {
+
+    /**
+     * The phases of the generation of a single type.
+     */
+    enum Phase {
+        HIERARCHY("hierarchy"),
+        PROPERTIES("properties"),
+        RENDER("render"),
+        WRITE("write");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * The measurements for a single type. Each phase is recorded by a single thread.
+     */
+    static final class TypeTimings {
+        private final String type;
+        private final int round;
+        private final long[] nanos = new long[Phase.values().length];
+        private final long[] allocated = new long[Phase.values().length];
+        private boolean written;
+        private boolean cached;
+
+        private TypeTimings(String type, int round) {
+            this.type = type;
+            this.round = round;
+        }
+
+        /**
+         * Record the end of a phase.
+         *
+         * @param phase          The phase that ended.
+         * @param startNanos     The {@link System#nanoTime()} at the start of the phase.
+         * @param startAllocated The {@link #allocatedBytes()} at the start of the phase.
+         */
+        void record(Phase phase, long startNanos, long startAllocated) {
+            if (this == DISABLED) {
+                return;
+            }
+            nanos[phase.ordinal()] += System.nanoTime() - startNanos;
+            allocated[phase.ordinal()] = startAllocated < 0 ? -1 : allocated[phase.ordinal()] + currentThreadAllocatedBytes() - startAllocated;
+        }
+
+        void setWritten(boolean written) {
+            this.written = written;
+        }
+
+        void setCached(boolean cached) {
+            this.cached = cached;
+        }
+    }
+
+    private static final TypeTimings DISABLED = new TypeTimings(null, 0);
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = findThreadMXBean();
+
+    private final File file;
+
+    private final Map<ClassMetaData, TypeTimings> pending = new IdentityHashMap<ClassMetaData, TypeTimings>();
+
+    private final List<TypeTimings> types = new ArrayList<TypeTimings>();
+
+    private final List<Long> roundNanos = new ArrayList<Long>();
+
+    /**
+     * @param file The report file, <code>null</code> for a disabled report.
+     */
+    ProcessingReport(File file) {
+        this.file = file;
+    }
+
+    boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * Start measuring a type in the current round.
+     *
+     * @param type The qualified name of the type.
+     * @return The measurements of the type.
+     */
+    TypeTimings startType(String type) {
+        if (!isEnabled()) {
+            return DISABLED;
+        }
+        TypeTimings timings = new TypeTimings(type, roundNanos.size() + 1);
+        types.add(timings);
+        return timings;
+    }
+
+    /**
+     * Associate the measurements with the metadata read for the type.
+     */
+    void register(ClassMetaData metaData, TypeTimings timings) {
+        if (isEnabled()) {
+            pending.put(metaData, timings);
+        }
+    }
+
+    /**
+     * @return The measurements registered for the metadata of a type. Safe to call from the render
+     *         threads, the registrations are done before rendering starts.
+     */
+    TypeTimings timings(ClassMetaData metaData) {
+        TypeTimings timings = pending.get(metaData);
+        return timings == null ? DISABLED : timings;
+    }
+
+    /**
+     * Record the end of a round.
+     *
+     * @param startNanos The {@link System#nanoTime()} at the start of the round.
+     */
+    void endRound(long startNanos) {
+        if (isEnabled()) {
+            roundNanos.add(System.nanoTime() - startNanos);
+            pending.clear();
+        }
+    }
+
+    /**
+     * @return The bytes allocated so far by the current thread, or -1 if the JVM cannot tell.
+     */
+    long allocatedBytes() {
+        if (THREAD_MX_BEAN == null || !isEnabled()) {
+            return -1;
+        }
+        return currentThreadAllocatedBytes();
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return The file the report is written to.
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Write the report.
+     *
+     * @throws IOException When the report cannot be written.
+     */
+    void write() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{\n  \"allocationSupported\": ");
+            writer.write(String.valueOf(THREAD_MX_BEAN != null));
+            writer.write(",\n  \"rounds\": [");
+            for (int round = 1; round <= roundNanos.size(); round++) {
+                writer.write(round == 1 ? "\n" : ",\n");
+                writeRound(round, writer);
+            }
+            writer.write("\n  ],\n  \"types\": [");
+            for (int i = 0; i < types.size(); i++) {
+                writer.write(i == 0 ? "\n" : ",\n");
+                writeType(types.get(i), writer);
+            }
+            writer.write("\n  ]\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeRound(int round, Writer writer) throws IOException {
+        int count = 0;
+        long[] nanos = new long[Phase.values().length];
+        long[] allocated = new long[Phase.values().length];
+        for (TypeTimings timings : types) {
+            if (timings.round == round) {
+                count++;
+                for (int i = 0; i < nanos.length; i++) {
+                    nanos[i] += timings.nanos[i];
+                    allocated[i] = allocated[i] < 0 || timings.allocated[i] < 0 ? -1 : allocated[i] + timings.allocated[i];
+                }
+            }
+        }
+
+        writer.write("    {\"round\": " + round + ", \"types\": " + count + ", \"wallNanos\": " + roundNanos.get(round - 1));
+        writePhases(nanos, allocated, writer);
+        writer.write("}");
+    }
+
+    private void writeType(TypeTimings timings, Writer writer) throws IOException {
+        writer.write("    {\"type\": \"" + timings.type + "\", \"round\": " + timings.round + ", \"written\": " + timings.written
+                + ", \"cached\": " + timings.cached);
+        writePhases(timings.nanos, timings.allocated, writer);
+        writer.write("}");
+    }
+
+    private void writePhases(long[] nanos, long[] allocated, Writer writer) throws IOException {
+        for (Phase phase : Phase.values()) {
+            writer.write(", \"" + phase.key + "Nanos\": " + nanos[phase.ordinal()]);
+            writer.write(", \"" + phase.key + "Bytes\": " + allocated[phase.ordinal()]);
+        }
+    }
+
+    /**
+     * Find the HotSpot extension of the thread MXBean, if this JVM provides it and supports allocation counting.
+     */
+    private static com.sun.management.ThreadMXBean findThreadMXBean() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean hotSpotBean = (com.sun.management.ThreadMXBean) bean;
+                if (hotSpotBean.isThreadAllocatedMemorySupported() && hotSpotBean.isThreadAllocatedMemoryEnabled()) {
+                    return hotSpotBean;
+                }
+            }
+        } catch (LinkageError e) {
+            // Not a HotSpot compatible JVM
+        }
+        return null;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * On-disk cache of generated sources, shared by builds on the same machine.
+ * <p/>
+ * Entries are addressed by a SHA-256 hash of the {@link ClassMetaData} of a type, the {@link ClassWriter}
+ * rendering it and a fingerprint of the processor: its version, the template and the options that change the
+ * generated code. Every field that
+ * influences the generated source must be part of the key.
+ * <p/>
+ * An entry starts with a line holding the hash of its content, entries that do not match are treated as a miss
+ * and removed. Entries are written to a temporary file and moved in place, so concurrent builds never read a
+ * partial entry.
+ */
+final class SourceCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String SUFFIX = ".java.cached";
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final byte[] fingerprint;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+
+    private int hits;
+    private int misses;
+
+    /**
+     * @param directory    The cache directory, created when missing.
+     * @param fingerprint  The fingerprint of the processor and its output options.
+     * @param maxBytes     The maximum size of all entries together.
+     * @param maxAgeMillis The maximum time since an entry was last used.
+     */
+    SourceCache(File directory, String fingerprint, long maxBytes, long maxAgeMillis) {
+        this.directory = directory;
+        this.fingerprint = digest().digest(fingerprint.getBytes(UTF_8));
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Compute the key of a type.
+     *
+     * @param metaData    The metadata of the type.
+     * @param classWriter The writer rendering the type.
+     * @return The key, a hex encoded hash.
+     */
+    String key(ClassMetaData metaData, ClassWriter classWriter) {
+        final MessageDigest digest = digest();
+        digest.update(fingerprint);
+        final String writerVersion = classWriter.getClass().getPackage().getImplementationVersion();
+        update(digest, classWriter.getClass().getName() + ' ' + writerVersion);
+        update(digest, metaData.getSuperClassInfo().qualifiedName);
+        update(digest, String.valueOf(metaData.isInterface()));
+        update(digest, String.valueOf(metaData.getMaxMethodBytes()));
+        update(digest, String.valueOf(metaData.isRuntime()));
+        update(digest, String.valueOf(metaData.isInterned()));
+        update(digest, String.valueOf(metaData.isReusable()));
+        update(digest, String.valueOf(metaData.isCompact()));
+        update(digest, String.valueOf(metaData.isSparse()));
+        update(digest, String.valueOf(metaData.getGenerated()));
+        for (ClassProperty property : metaData.getProperties()) {
+            update(digest, property.getName());
+            update(digest, property.getType());
+            update(digest, property.getGetter());
+            update(digest, property.getSetter());
+            update(digest, String.valueOf(property.isRequired()));
+            update(digest, String.valueOf(property.getImmutableImpl()));
+            update(digest, String.valueOf(property.isPersistent()));
+            update(digest, String.valueOf(property.isHot()));
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Look up a source.
+     *
+     * @param key The key of the type.
+     * @return The cached source, or <code>null</code> on a miss.
+     */
+    String get(String key) {
+        final File entry = entry(key);
+        if (entry.isFile()) {
+            try {
+                final String stored = new String(read(entry), UTF_8);
+                final int separator = stored.indexOf('\n');
+                if (separator > 0) {
+                    final String content = stored.substring(separator + 1);
+                    if (stored.substring(0, separator).equals(toHex(digest().digest(content.getBytes(UTF_8))))) {
+                        entry.setLastModified(System.currentTimeMillis());
+                        hits++;
+                        return content;
+                    }
+                }
+                entry.delete();
+            } catch (IOException e) {
+                // Evicted or being replaced by a concurrent build
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Store a source. Failing to store an entry only costs a miss in a later build.
+     *
+     * @param key     The key of the type.
+     * @param content The source.
+     */
+    void put(String key, String content) {
+        final File entry = entry(key);
+        File temporary = null;
+        try {
+            final File parent = entry.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                return;
+            }
+            temporary = File.createTempFile(key, TEMPORARY_SUFFIX, parent);
+            final OutputStream out = new FileOutputStream(temporary);
+            try {
+                final byte[] bytes = content.getBytes(UTF_8);
+                out.write((toHex(digest().digest(bytes)) + '\n').getBytes(UTF_8));
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(temporary.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            if (temporary != null) {
+                temporary.delete();
+            }
+        }
+    }
+
+    /**
+     * Remove the entries that were not used within the maximum age, then the least recently used entries
+     * until the cache fits in the maximum size. Only the files the cache writes are touched, the cache directory
+     * may be shared with other tools.
+     */
+    void evict() {
+        final List<File> entries = new ArrayList<File>();
+        final File[] buckets = directory.listFiles();
+        if (buckets == null) {
+            return;
+        }
+        for (File bucket : buckets) {
+            if (!isBucket(bucket)) {
+                continue;
+            }
+            final File[] files = bucket.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (isCacheFile(bucket, file)) {
+                        entries.add(file);
+                    }
+                }
+            }
+        }
+
+        final long now = System.currentTimeMillis();
+        final List<File> kept = new ArrayList<File>(entries.size());
+        long size = 0;
+        for (File entry : entries) {
+            if (now - entry.lastModified() > maxAgeMillis) {
+                entry.delete();
+            } else if (entry.getName().endsWith(SUFFIX)) {
+                kept.add(entry);
+                size += entry.length();
+            }
+        }
+
+        if (size > maxBytes) {
+            Collections.sort(kept, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    final long x = a.lastModified();
+                    final long y = b.lastModified();
+                    return x < y ? -1 : (x == y ? 0 : 1);
+                }
+            });
+            for (int i = 0; i < kept.size() && size > maxBytes; i++) {
+                size -= kept.get(i).length();
+                kept.get(i).delete();
+            }
+        }
+    }
+
+    int getHits() {
+        return hits;
+    }
+
+    int getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return <code>true</code> for one of the 256 directories the entries are spread over, named after the first
+     *         two characters of their keys.
+     */
+    private static boolean isBucket(File bucket) {
+        final String name = bucket.getName();
+        return name.length() == 2 && isHex(name.charAt(0)) && isHex(name.charAt(1)) && bucket.isDirectory();
+    }
+
+    /**
+     * @return <code>true</code> for an entry or a temporary file of an entry in the bucket.
+     */
+    private static boolean isCacheFile(File bucket, File file) {
+        final String name = file.getName();
+        return name.startsWith(bucket.getName()) && (name.endsWith(SUFFIX) || name.endsWith(TEMPORARY_SUFFIX))
+                && file.isFile();
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+    }
+
+    /**
+     * Entries are spread over 256 directories by the first two characters of the key.
+     */
+    private File entry(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + SUFFIX);
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        final byte[] bytes = value.getBytes(UTF_8);
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    private static byte[] read(File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Compute the fingerprint of a resource, used to invalidate the cache when the template changes.
+     *
+     * @param resource The resource, relative to this class.
+     * @return The hex encoded hash of the resource.
+     * @throws IOException When the resource cannot be read.
+     */
+    static String hashResource(String resource) throws IOException {
+        final InputStream in = SourceCache.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("Resource not found: " + resource);
+        }
+        try {
+            final MessageDigest digest = digest();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+            return toHex(digest.digest());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required on every Java platform", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = digits[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
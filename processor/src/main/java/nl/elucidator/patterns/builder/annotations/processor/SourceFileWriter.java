@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * Writes the generated implementations through the {@link javax.annotation.processing.Filer}.
+ * <p/>
+ * When <code>skipUnchanged</code> is enabled a source is rendered in memory first and compared with the file
+ * already present in the generated sources directory. An identical file is left untouched, so its timestamp
+ * does not change and compilers, IDE indexers and build caches do not see it as a new file. Comparing the
+ * content directly is cheaper than hashing both sides and stops at the first difference.
+ * <p/>
+ * Sources of very wide types can be written with {@link #writeBounded(ClassMetaData, ClassWriter)}, which never
+ * holds a complete source in memory.
+ */
+final class SourceFileWriter {
+
+    /**
+     * The size of the buffers between the class writer and the files, in chars.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ProcessingEnvironment processingEnv;
+
+    private final boolean skipUnchanged;
+
+    private int written;
+
+    private int skipped;
+
+    SourceFileWriter(ProcessingEnvironment processingEnv, boolean skipUnchanged) {
+        this.processingEnv = processingEnv;
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    /**
+     * Create the implementation source for the given type and let the class writer render into it.
+     *
+     * @param metaData    The metadata of the immutable type.
+     * @param classWriter The class writer rendering the source.
+     * @return <code>true</code> if the source was written, <code>false</code> when an identical source already existed.
+     * @throws IOException When the source file could not be created or written.
+     */
+    boolean write(ClassMetaData metaData, ClassWriter classWriter) throws IOException {
+        JavaFileObject sourceFile = createSourceFile(metaData);
+
+        if (!skipUnchanged) {
+            stream(metaData, sourceFile, classWriter);
+            return true;
+        }
+
+        StringWriter source = new StringWriter();
+        classWriter.render(metaData, source);
+        return write(metaData, sourceFile, source.toString());
+    }
+
+    /**
+     * Stream the implementation source for the given type to the Filer through a buffer of constant size,
+     * the source is never held in memory completely. To leave an unchanged source untouched it is rendered
+     * twice: once to compare it with the existing file and, when it changed, once to write it.
+     *
+     * @param metaData    The metadata of the immutable type.
+     * @param classWriter The class writer rendering the source, it must not buffer the source itself.
+     * @return <code>true</code> if the source was written, <code>false</code> when an identical source already existed.
+     * @throws IOException When the source file could not be created or written.
+     */
+    boolean writeBounded(ClassMetaData metaData, ClassWriter classWriter) throws IOException {
+        JavaFileObject sourceFile = createSourceFile(metaData);
+
+        File file = new File(sourceFile.toUri());
+        if (skipUnchanged && file.isFile() && isCompiled(metaData)) {
+            ComparingWriter comparingWriter = new ComparingWriter(file);
+            try {
+                classWriter.render(metaData, comparingWriter);
+                if (comparingWriter.isEqual()) {
+                    skipped++;
+                    return false;
+                }
+            } finally {
+                comparingWriter.close();
+            }
+        }
+
+        stream(metaData, sourceFile, classWriter);
+        return true;
+    }
+
+    private void stream(ClassMetaData metaData, JavaFileObject sourceFile, ClassWriter classWriter) throws IOException {
+        createDirectories(sourceFile);
+        Writer writer = new BufferedWriter(sourceFile.openWriter(), BUFFER_SIZE);
+        try {
+            classWriter.render(metaData, writer);
+        } finally {
+            writer.close();
+        }
+        written++;
+    }
+
+    /**
+     * Write an already rendered implementation source for the given type.
+     *
+     * @param metaData The metadata of the immutable type.
+     * @param content  The rendered source.
+     * @return <code>true</code> if the source was written, <code>false</code> when an identical source already existed.
+     * @throws IOException When the source file could not be created or written.
+     */
+    boolean write(ClassMetaData metaData, String content) throws IOException {
+        return write(metaData, createSourceFile(metaData), content);
+    }
+
+    private boolean write(ClassMetaData metaData, JavaFileObject sourceFile, String content) throws IOException {
+        // The file is only truncated when its writer is opened, so it is still intact here. A file that is
+        // not written is not compiled again, so it is only skipped when its class is still in the output.
+        if (skipUnchanged && isUnchanged(new File(sourceFile.toUri()), content) && isCompiled(metaData)) {
+            skipped++;
+            return false;
+        }
+
+        createDirectories(sourceFile);
+        Writer writer = sourceFile.openWriter();
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        written++;
+        return true;
+    }
+
+    private JavaFileObject createSourceFile(ClassMetaData metaData) throws IOException {
+        // Only the annotated type is passed as originating element. Isolating processors must
+        // supply exactly one, the @Immutable super-interfaces are reachable from its AST and are
+        // tracked by the build tool as dependencies of the annotated type.
+        return processingEnv.getFiler().createSourceFile(metaData.getImplClassQName(),
+                metaData.getSuperClassInfo().element);
+    }
+
+    /**
+     * @return The number of sources written.
+     */
+    int getWritten() {
+        return written;
+    }
+
+    /**
+     * @return The number of sources left untouched because they did not change.
+     */
+    int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Determine if the class output still holds the compiled implementation.
+     */
+    private boolean isCompiled(final ClassMetaData metaData) {
+        try {
+            FileObject classFile = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT,
+                    metaData.getTargetPackage(), metaData.getImplClassSimpleName() + ".class");
+            return new File(classFile.toUri()).isFile();
+        } catch (IOException e) {
+            return false;
+        } catch (IllegalArgumentException e) {
+            // Not a file based class output
+            return false;
+        }
+    }
+
+    /**
+     * Compare the existing file with the rendered content. The file is read with the platform encoding,
+     * a file written with another encoding simply compares as changed and gets rewritten.
+     */
+    private boolean isUnchanged(final File file, final String content) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+
+        ComparingWriter comparingWriter = new ComparingWriter(file);
+        try {
+            comparingWriter.write(content);
+            return comparingWriter.isEqual();
+        } finally {
+            comparingWriter.close();
+        }
+    }
+
+    private void createDirectories(final JavaFileObject sourceFile) {
+        File sourceFileDir = new File(sourceFile.toUri());
+        String sourceDir = sourceFileDir.getParent();
+        File directory = new File(sourceDir);
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+    }
+
+    /**
+     * A writer comparing everything written to it with the content of a file, reading the file as it goes.
+     */
+    private static final class ComparingWriter extends Writer {
+        private final Reader reader;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private int position;
+        private int limit;
+        private boolean equal = true;
+
+        private ComparingWriter(File file) throws IOException {
+            reader = new InputStreamReader(new FileInputStream(file));
+        }
+
+        /**
+         * @return <code>true</code> if everything written equals the complete file.
+         */
+        boolean isEqual() throws IOException {
+            return equal && position == limit && reader.read() == -1;
+        }
+
+        private boolean next(char c) throws IOException {
+            if (position == limit) {
+                limit = reader.read(buffer);
+                position = 0;
+                if (limit < 0) {
+                    limit = 0;
+                    return false;
+                }
+            }
+            return buffer[position++] == c;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            for (int i = offset; equal && i < offset + length; i++) {
+                equal = next(chars[i]);
+            }
+        }
+
+        @Override
+        public void write(String text, int offset, int length) throws IOException {
+            for (int i = offset; equal && i < offset + length; i++) {
+                equal = next(text.charAt(i));
+            }
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (equal) {
+                equal = next((char) c);
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,1079 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Class writer that emits the implementation straight into the target writer.
+ * <p/>
+ * Produces exactly the same source as the <code>JoshuaBuilder.ftl</code> template used by
+ * {@link FreeMarkerClassWriterImpl}, without building a template model or interpreting the template.
+ * The constant parts of the source are kept as precomputed fragments.
+ */
+public class StreamingClassWriterImpl implements ClassWriter {
+
+    /**
+     * The name of this writer.
+     */
+    public static final String NAME = "streaming";
+
+    private static final String HEADER = "/*\n"
+            + "* Copyright (C) 2010 Jan-Kees van Andel.\n"
+            + "* Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)\n"
+            + "*\n"
+            + "* Licensed under the Apache License, Version 2.0 (the \"License\");\n"
+            + "* you may not use this file except in compliance with the License.\n"
+            + "* You may obtain a copy of the License at\n"
+            + "*\n"
+            + "* http://www.apache.org/licenses/LICENSE-2.0\n"
+            + "*\n"
+            + "* Unless required by applicable law or agreed to in writing, software\n"
+            + "* distributed under the License is distributed on an \"AS IS\" BASIS,\n"
+            + "* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.\n"
+            + "* See the License for the specific language governing permissions and\n"
+            + "* limitations under the License.\n"
+            + "*/\n"
+            + "package ";
+
+    private static final String IMPORTS = ";\n"
+            + "\n"
+            + "import net.jcip.annotations.Immutable;\n"
+            + "\n";
+
+    private static final String GENERATED = "(\"" + MakeBuilderProcessor.class + "\")\n";
+
+    private static final String CLASS_DECLARATION = "/**\n"
+            + "* {@inheritDoc}\n"
+            + "**/\n"
+            + "@Immutable\n"
+            + "public final class ";
+
+    private static final String BUILDER_DECLARATION = "\n"
+            + "/**\n"
+            + "* Classic implementation of the Joshua Bloch\n"
+            + "* Builder pattern\n"
+            + "**/\n"
+            + "public static class Builder {\n";
+
+    private static final String SETTER_JAVADOC = "/**\n"
+            + "* See {@link  ";
+
+    private static final String REQUIRED_GETTER_JAVADOC = "/**\n"
+            + "* {@inheritDoc}\n"
+            + "**/\n"
+            + "public ";
+
+    private static final String OPTIONAL_GETTER_JAVADOC = "/**\n"
+            + "* {@inheritDoc}\n"
+            + "*\n"
+            + "**/\n"
+            + "public ";
+
+    private static final String BUILDER_METHOD = "\n"
+            + "/**\n"
+            + "* Utility to get a Builder from the immutable object.\n"
+            + "**/\n"
+            + "public Builder builder() {\n"
+            + "Builder b = new Builder(\n";
+
+    private static final String WITHER_JAVADOC = "\n"
+            + "/**\n"
+            + "* Copy this object with another value of {@link  {superClass}#{getter}()  {getter}}.\n"
+            + "*\n"
+            + "* @param {name} The value of the copy.\n"
+            + "* @return This object when the value is the same, otherwise a copy with the value.\n"
+            + "**/\n"
+            + "public ";
+
+    private static final String PERSISTENT_WITHER_JAVADOC = "\n"
+            + "/**\n"
+            + "* Copy this object with {update} {@link  {superClass}#{getter}()  {getter}}, sharing the rest of the"
+            + " collection.\n"
+            + "*\n"
+            + "{params}"
+            + "* @return This object when the collection is unchanged, otherwise a copy with the updated collection.\n"
+            + "**/\n"
+            + "public ";
+
+    private static final String PRESENCE_JAVADOC = "/**\n"
+            + "* @return <code>true</code> when {@link  ";
+
+    private static final String EQUALS_METHOD = "\n"
+            + "/**\n"
+            + "* {@inheritDoc}\n"
+            + "**/\n"
+            + "@Override\n"
+            + "public boolean equals(java.lang.Object o) {\n"
+            + "if (this == o) {\n"
+            + "return true;\n"
+            + "}\n"
+            + "if (!(o instanceof {impl})) {\n"
+            + "return false;\n"
+            + "}\n"
+            + "{impl} that = ({impl}) o;\n"
+            + "if (this.cachedHashCode != 0 && that.cachedHashCode != 0 && this.cachedHashCode != that.cachedHashCode) {\n"
+            + "return false;\n"
+            + "}\n";
+
+    private static final String HASH_CODE_METHOD = "}\n"
+            + "\n"
+            + "/**\n"
+            + "* {@inheritDoc}\n"
+            + "* <p/>\n"
+            + "* Computed once and cached like {@link String#hashCode()}.\n"
+            + "**/\n"
+            + "@Override\n"
+            + "public int hashCode() {\n"
+            + "int h = cachedHashCode;\n"
+            + "if (h == 0) {\n"
+            + "h = 1;\n";
+
+    private static final String APPEND_TO_METHOD = "\n"
+            + "/**\n"
+            + "* {@inheritDoc}\n"
+            + "**/\n"
+            + "@Override\n"
+            + "public java.lang.String toString() {\n"
+            + "return appendTo(new java.lang.StringBuilder()).toString();\n"
+            + "}\n"
+            + "\n"
+            + "/**\n"
+            + "* Append the properties to the given buffer, nested immutable objects included, without creating\n"
+            + "* intermediate strings.\n"
+            + "*\n"
+            + "* @param sb The buffer to append to.\n"
+            + "* @return The buffer.\n"
+            + "**/\n"
+            + "public java.lang.StringBuilder appendTo(java.lang.StringBuilder sb) {\n"
+            + "sb.append(\"";
+
+    private static final String APPENDABLE_METHOD = "return sb.append('}');\n"
+            + "}\n"
+            + "\n"
+            + "/**\n"
+            + "* Append the properties to the given output, value by value, nested immutable objects included. A\n"
+            + "* <code>StringBuilder</code> is appended to as by <code>appendTo(StringBuilder)</code>.\n"
+            + "*\n"
+            + "* @param out The output to append to.\n"
+            + "* @throws java.io.IOException When the output cannot be written.\n"
+            + "**/\n"
+            + "public void appendTo(java.lang.Appendable out) throws java.io.IOException {\n"
+            + "if (out instanceof java.lang.StringBuilder) {\n"
+            + "appendTo((java.lang.StringBuilder) out);\n"
+            + "return;\n"
+            + "}\n"
+            + "out.append(\"";
+
+    private static final String INTERN_POOL_METHOD = "/**\n"
+            + "* The pool of canonical instances returned by the Builder, for its statistics.\n"
+            + "*\n"
+            + "* @return The pool.\n"
+            + "**/\n"
+            + "public static ";
+
+    private static final String BUILDERS_DECLARATION = "/* The Builders handed out by reusableBuilder(), one per thread */\n"
+            + "private static final java.lang.ThreadLocal<Builder> BUILDERS = new java.lang.ThreadLocal<Builder>() {\n"
+            + "@Override\n"
+            + "protected Builder initialValue() {\n"
+            + "return new Builder();\n"
+            + "}\n"
+            + "};\n";
+
+    private static final String NO_ARGUMENT_CONSTRUCTOR = "\n"
+            + "/**\n"
+            + "* Create a Builder without values, set the required properties before building.\n"
+            + "**/\n"
+            + "public Builder() {\n"
+            + "}\n";
+
+    private static final String RESET_METHOD = "/**\n"
+            + "* Clear all properties, so this Builder can build another instance.\n"
+            + "*\n"
+            + "* @return This Builder.\n"
+            + "**/\n"
+            + "public Builder reset() {\n";
+
+    private static final String CHECK_REQUIRED_METHOD = "\n"
+            + "private void checkRequired() {\n"
+            + "for (int i = 0; i < requiredSet.length; i++) {\n"
+            + "if (!requiredSet[i]) {\n"
+            + "throw new java.lang.IllegalStateException(\"Required property \" + REQUIRED[i] + \" is not set\");\n"
+            + "}\n"
+            + "}\n"
+            + "}\n";
+
+    private static final String REUSABLE_BUILDER_METHOD = "/**\n"
+            + "* Get the Builder of the current thread, reset. Every call on a thread returns the same Builder, build the\n"
+            + "* instance before calling this method again on that thread.\n"
+            + "*\n"
+            + "* @return The Builder.\n"
+            + "**/\n"
+            + "public static Builder reusableBuilder() {\n"
+            + "return BUILDERS.get().reset();\n"
+            + "}\n"
+            + "\n";
+
+    private static final String INDENT = "        ";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void render(ClassMetaData metaData, Writer writer) throws IOException {
+        final String superClassQName = metaData.getSuperClassInfo().qualifiedName;
+        final String implClassSimpleName = metaData.getImplClassSimpleName();
+        final ClassProperty[] properties = metaData.getProperties();
+
+        int lastRequired = -1;
+        for (int i = 0; i < properties.length; i++) {
+            if (properties[i].isRequired()) {
+                lastRequired = i;
+            }
+        }
+
+        writer.write(HEADER);
+        writer.write(metaData.getTargetPackage());
+        writer.write(IMPORTS);
+        if (metaData.getGenerated() != null) {
+            writer.write('@');
+            writer.write(metaData.getGenerated());
+            writer.write(GENERATED);
+        }
+        writer.write(CLASS_DECLARATION);
+        writer.write(implClassSimpleName);
+        writer.write(" implements ");
+        writer.write(superClassQName);
+        writer.write(" {\n\n");
+
+        // Fields, required properties first or the compact layout
+        final ClassProperty[] fields = metaData.getFields();
+        for (ClassProperty property : fields) {
+            writer.write("/* Property ");
+            writer.write(property.name);
+            writer.write(" */\nprivate final ");
+            writer.write(property.getFieldType());
+            writer.write(' ');
+            writer.write(property.name);
+            writer.write(";\n");
+        }
+        final String packedFlagsType = metaData.getPackedFlagsType();
+        if (packedFlagsType != null) {
+            writer.write("/* The boolean properties and whether the optional primitive properties are set, a bit each */\n"
+                    + "private final ");
+            writer.write(packedFlagsType);
+            writer.write(" packedFlags;\n");
+        }
+        final String[] sparseWords = metaData.getSparseWords();
+        final ClassProperty[] sparseValues = metaData.getSparseValues();
+        final ClassProperty[] sparsePrimitives = metaData.getSparsePrimitives();
+        if (sparseWords.length > 0) {
+            writer.write("/* The optional properties set, a bit each */\n");
+            for (String word : sparseWords) {
+                writer.write("private final long ");
+                writer.write(word);
+                writer.write(";\n");
+            }
+        }
+        if (sparseValues.length > 0) {
+            writer.write("/* The optional references set, in the order of their bits */\n"
+                    + "private final java.lang.Object[] values;\n");
+        }
+        if (sparsePrimitives.length > 0) {
+            writer.write("/* The optional primitives set but the booleans, in the order of their bits */\n"
+                    + "private final long[] primitives;\n");
+        }
+        writer.write("/* Hash code cached by hashCode(), 0 until computed */\nprivate int cachedHashCode;\n");
+        if (sparseValues.length > 0) {
+            writer.write("/* The values of the instances without optional references set */\n"
+                    + "private static final java.lang.Object[] NO_VALUES = {};\n");
+        }
+        if (sparsePrimitives.length > 0) {
+            writer.write("/* The primitives of the instances without optional primitives set */\n"
+                    + "private static final long[] NO_PRIMITIVES = {};\n");
+        }
+        final String internPool = ClassMetaData.RUNTIME_INTERN_POOL + '<' + implClassSimpleName + '>';
+        if (metaData.isInterned()) {
+            writer.write("/* Canonical instances returned by Builder.build() */\nprivate static final ");
+            writer.write(internPool);
+            writer.write(" INTERN_POOL = new ");
+            writer.write(internPool);
+            writer.write("();\n");
+        }
+        final boolean reusable = metaData.isReusable();
+        if (reusable) {
+            writer.write(BUILDERS_DECLARATION);
+        }
+
+        // Builder
+        writer.write(BUILDER_DECLARATION);
+        for (int pass = 0; pass < 2; pass++) {
+            for (ClassProperty property : properties) {
+                if (property.isRequired() == (pass == 0)) {
+                    writer.write("private ");
+                    writeDeclaration(property, writer);
+                }
+            }
+        }
+        final String presenceMask = metaData.getPresenceMask();
+        if (presenceMask != null) {
+            writer.write("/* The optional primitive properties set, at their bits in packedFlags */\nprivate ");
+            writer.write(packedFlagsType);
+            writer.write(" presentFlags;\n");
+        }
+        final boolean checkRequired = reusable && lastRequired >= 0;
+        int requiredCount = 0;
+        if (checkRequired) {
+            writer.write("/* The names of the required properties */\nprivate static final java.lang.String[] REQUIRED = {");
+            for (ClassProperty property : properties) {
+                if (property.isRequired()) {
+                    writer.write(requiredCount++ == 0 ? "\"" : ", \"");
+                    writer.write(property.name);
+                    writer.write('"');
+                }
+            }
+            writer.write("};\n/* Whether the required property at the same position in REQUIRED is set */\n"
+                    + "private final boolean[] requiredSet = new boolean[");
+            writer.write(String.valueOf(requiredCount));
+            writer.write("];\n");
+        }
+        writer.write("\n\npublic Builder(\n");
+        for (int i = 0; i < properties.length; i++) {
+            ClassProperty property = properties[i];
+            if (property.isRequired()) {
+                writer.write(property.type);
+                writer.write(' ');
+                writer.write(property.name);
+                writer.write(i < lastRequired ? ",\n" : "\n");
+            }
+        }
+        writer.write(") {\n");
+        final ClassProperty[][] requiredChunks = metaData.getRequiredChunks();
+        if (requiredChunks.length > 1) {
+            for (int i = 0; i < requiredChunks.length; i++) {
+                writer.write("initRequired");
+                writer.write(String.valueOf(i));
+                writer.write('(');
+                writeList(requiredChunks[i], false, writer);
+                writer.write(");\n");
+            }
+        } else {
+            for (ClassProperty property : properties) {
+                if (property.isRequired()) {
+                    writeAssignment(property, "", writer);
+                }
+            }
+        }
+        if (checkRequired) {
+            writer.write("java.util.Arrays.fill(requiredSet, true);\n");
+        }
+        writer.write("}\n");
+        if (requiredChunks.length > 1) {
+            for (int i = 0; i < requiredChunks.length; i++) {
+                writer.write("\nprivate void initRequired");
+                writer.write(String.valueOf(i));
+                writer.write('(');
+                writeList(requiredChunks[i], true, writer);
+                writer.write(") {\n");
+                for (ClassProperty property : requiredChunks[i]) {
+                    writeAssignment(property, "", writer);
+                }
+                writer.write("}\n");
+            }
+        }
+        if (checkRequired) {
+            writer.write(NO_ARGUMENT_CONSTRUCTOR);
+        }
+        writer.write("\n/**\n* The Builder, build the immutable instance\n**/\npublic ");
+        writer.write(superClassQName);
+        writer.write(" build() {\n");
+        if (checkRequired) {
+            writer.write("checkRequired();\n");
+        }
+        writer.write(metaData.isInterned() ? "return INTERN_POOL.intern(new " : "return new ");
+        writer.write(implClassSimpleName);
+        writer.write(metaData.isInterned() ? "(this));\n}\n\n" : "(this);\n}\n\n");
+        final ClassProperty[][] optionalChunks = metaData.getOptionalChunks();
+        if (reusable) {
+            writeReset(requiredChunks, optionalChunks, checkRequired, presenceMask != null, writer);
+        }
+        for (ClassProperty property : properties) {
+            if (!property.isRequired()) {
+                writeSetter(superClassQName, property, -1, writer);
+            }
+        }
+        writer.write('\n');
+        int requiredIndex = 0;
+        for (ClassProperty property : properties) {
+            if (property.isRequired()) {
+                writeSetter(superClassQName, property, reusable ? requiredIndex++ : -1, writer);
+            }
+        }
+        writer.write("}\n\n");
+
+        // Private constructor
+        writer.write("private ");
+        writer.write(implClassSimpleName);
+        writer.write("(Builder builder){\n");
+        for (ClassProperty property : fields) {
+            writeFrozenAssignment(property, metaData.isRuntime(), writer);
+        }
+        if (packedFlagsType != null) {
+            writer.write("this.packedFlags = ");
+            writer.write(metaData.getPackedFlagsAssignment());
+            writer.write(";\n");
+        }
+        writeSparseAssignments(metaData, sparseWords, sparseValues, sparsePrimitives, writer);
+        writer.write("\n}\n");
+        final boolean allPropertiesConstructor = metaData.hasAllPropertiesConstructor();
+        if (allPropertiesConstructor) {
+            writer.write("\nprivate ");
+            writer.write(implClassSimpleName);
+            writer.write("(\n");
+            for (int i = 0; i < fields.length; i++) {
+                writer.write(fields[i].getFieldType());
+                writer.write(' ');
+                writer.write(fields[i].name);
+                writer.write(i < fields.length - 1 || packedFlagsType != null ? ",\n" : "\n");
+            }
+            if (packedFlagsType != null) {
+                writer.write(packedFlagsType);
+                writer.write(" packedFlags\n");
+            }
+            writer.write(") {\n");
+            for (ClassProperty property : fields) {
+                writeAssignment(property, "", writer);
+            }
+            if (packedFlagsType != null) {
+                writer.write("this.packedFlags = packedFlags;\n");
+            }
+            writer.write("}\n");
+        }
+        writer.write("\n\n");
+
+        // Getters
+        for (ClassProperty property : properties) {
+            if (property.isRequired()) {
+                writeGetter(REQUIRED_GETTER_JAVADOC, property, writer);
+            }
+        }
+        writer.write('\n');
+        for (ClassProperty property : properties) {
+            if (!property.isRequired()) {
+                writeGetter(OPTIONAL_GETTER_JAVADOC, property, writer);
+                writer.write('\n');
+            }
+        }
+        for (ClassProperty property : properties) {
+            if (!property.isRequired() && property.getPresenceMask() != null) {
+                writer.write(PRESENCE_JAVADOC);
+                writer.write(superClassQName);
+                writer.write('#');
+                writer.write(property.getter);
+                writer.write("()  ");
+                writer.write(property.getter);
+                writer.write("} is set.\n**/\npublic boolean ");
+                writer.write(property.getPresenceMethod());
+                writer.write("() {\n");
+                writer.write(INDENT);
+                writer.write("return (packedFlags & ");
+                writer.write(property.getPresenceMask());
+                writer.write(") != 0;\n}\n\n");
+            }
+        }
+
+        // Copy to a new Builder
+        writer.write(BUILDER_METHOD);
+        for (int i = 0; i < properties.length; i++) {
+            ClassProperty property = properties[i];
+            if (property.isRequired()) {
+                writer.write(property.getFieldRead());
+                writer.write(i < lastRequired ? ",\n" : "\n");
+            }
+        }
+        writer.write(");\n\n\n");
+        if (optionalChunks.length > 1) {
+            for (int i = 0; i < optionalChunks.length; i++) {
+                writer.write("copyOptional");
+                writer.write(String.valueOf(i));
+                writer.write("(b);\n");
+            }
+        } else {
+            writeCopies(optionalChunks[0], writer);
+        }
+        if (presenceMask != null) {
+            writer.write("b.presentFlags = packedFlags & ");
+            writer.write(presenceMask);
+            writer.write(";\n");
+        }
+        writer.write("\nreturn b;\n}\n");
+        if (optionalChunks.length > 1) {
+            for (int i = 0; i < optionalChunks.length; i++) {
+                writer.write("\nprivate void copyOptional");
+                writer.write(String.valueOf(i));
+                writer.write("(Builder b) {\n");
+                writeCopies(optionalChunks[i], writer);
+                writer.write("}\n");
+            }
+        }
+
+        // Withers, a copy with one other value, required properties first
+        for (int pass = 0; pass < 2; pass++) {
+            for (ClassProperty property : properties) {
+                if (property.isRequired() == (pass == 0)) {
+                    writeWither(metaData, fields, property, allPropertiesConstructor, writer);
+                }
+            }
+        }
+
+        // equals, cheap comparisons first
+        writer.write(EQUALS_METHOD.replace("{impl}", implClassSimpleName));
+        final String[] equalsComparisons = metaData.getEqualsComparisons();
+        if (equalsComparisons.length == 0) {
+            writer.write("return true;\n");
+        } else {
+            writer.write("return ");
+            for (int i = 0; i < equalsComparisons.length; i++) {
+                writer.write(equalsComparisons[i]);
+                writer.write(i < equalsComparisons.length - 1 ? "\n        && " : ";\n");
+            }
+        }
+
+        // hashCode, required properties first
+        writer.write(HASH_CODE_METHOD);
+        for (int pass = 0; pass < 2; pass++) {
+            for (ClassProperty property : properties) {
+                if (property.isRequired() == (pass == 0)) {
+                    writer.write("h = 31 * h + ");
+                    writer.write(property.getHashCodeExpression());
+                    writer.write(";\n");
+                }
+            }
+        }
+        writer.write("cachedHashCode = h;\n}\nreturn h;\n}\n");
+
+        // toString and appendTo, required properties first
+        writer.write(APPEND_TO_METHOD);
+        writeAppends(superClassQName, properties, "sb", writer);
+        writer.write(APPENDABLE_METHOD);
+        writeAppends(superClassQName, properties, "out", writer);
+        writer.write("out.append('}');\n}\n\n");
+        if (metaData.isInterned()) {
+            writer.write(INTERN_POOL_METHOD);
+            writer.write(internPool);
+            writer.write(" internPool() {\nreturn INTERN_POOL;\n}\n\n");
+        }
+        if (reusable) {
+            writer.write(REUSABLE_BUILDER_METHOD);
+        }
+        writer.write('}');
+    }
+
+    /**
+     * Write the properties as a comma separated list of parameters or arguments.
+     */
+    private void writeList(ClassProperty[] properties, boolean declare, Writer writer) throws IOException {
+        for (int i = 0; i < properties.length; i++) {
+            if (i > 0) {
+                writer.write(", ");
+            }
+            if (declare) {
+                writer.write(properties[i].type);
+                writer.write(' ');
+            }
+            writer.write(properties[i].name);
+        }
+    }
+
+    /**
+     * Write the statements copying the properties to the Builder <code>b</code>.
+     */
+    private void writeCopies(ClassProperty[] properties, Writer writer) throws IOException {
+        for (ClassProperty property : properties) {
+            writer.write("b.");
+            writer.write(property.name);
+            writer.write('(');
+            writer.write(property.getFieldRead());
+            writer.write(");\n");
+        }
+    }
+
+    /**
+     * Write the method copying the implementation with another value of a property, and the methods adding to
+     * and removing from a @Persistent collection.
+     */
+    private void writeWither(ClassMetaData metaData, ClassProperty[] fields, ClassProperty property,
+                             boolean allPropertiesConstructor, Writer writer) throws IOException {
+        final String implClassSimpleName = metaData.getImplClassSimpleName();
+        writer.write(WITHER_JAVADOC.replace("{superClass}", metaData.getSuperClassInfo().qualifiedName)
+                .replace("{getter}", property.getter)
+                .replace("{name}", property.name));
+        writer.write(implClassSimpleName);
+        writer.write(' ');
+        writer.write(property.getWither());
+        writer.write('(');
+        writer.write(property.type);
+        writer.write(' ');
+        writer.write(property.name);
+        writer.write(") {\nif (");
+        writer.write(property.getSameValueExpression());
+        writer.write(") {\nreturn this;\n}\n");
+        writeCopy(metaData, fields, property, null, property.name, allPropertiesConstructor, writer);
+        writer.write("}\n");
+        if (!property.isPersistent()) {
+            return;
+        }
+        final boolean map = property.getCollectionType() == CollectionType.MAP;
+        final String[] elementTypes = property.getElementTypes();
+        final String javadoc = PERSISTENT_WITHER_JAVADOC.replace("{superClass}", metaData.getSuperClassInfo().qualifiedName)
+                .replace("{getter}", property.getter);
+        writer.write(javadoc.replace("{update}", map ? "an entry put in" : "an element added to")
+                .replace("{params}", map
+                        ? "* @param key The key of the entry.\n* @param value The value of the entry.\n"
+                        : "* @param element The element to add.\n"));
+        writer.write(implClassSimpleName);
+        writer.write(' ');
+        writer.write(property.getWither());
+        writer.write("Added(");
+        writer.write(elementTypes[0]);
+        if (map) {
+            writer.write(" key, ");
+            writer.write(elementTypes[1]);
+            writer.write(" value) {\n");
+        } else {
+            writer.write(" element) {\n");
+        }
+        writeUpdate(metaData, fields, property, map ? "plus(key, value)" : "plus(element)", allPropertiesConstructor,
+                writer);
+        writer.write("}\n");
+        writer.write(javadoc.replace("{update}", map ? "the entry of a key removed from" : "an element removed from")
+                .replace("{params}", map
+                        ? "* @param key The key of the entry to remove.\n"
+                        : "* @param element The element to remove, the first occurrence in a list.\n"));
+        writer.write(implClassSimpleName);
+        writer.write(' ');
+        writer.write(property.getWither());
+        writer.write(map ? "Removed(java.lang.Object key) {\n" : "Removed(java.lang.Object element) {\n");
+        writeUpdate(metaData, fields, property, map ? "minus(key)" : "minus(element)", allPropertiesConstructor,
+                writer);
+        writer.write("}\n");
+    }
+
+    /**
+     * Write the statements updating a @Persistent collection, returning <code>this</code> when unchanged.
+     */
+    private void writeUpdate(ClassMetaData metaData, ClassProperty[] fields, ClassProperty property, String call,
+                             boolean allPropertiesConstructor, Writer writer) throws IOException {
+        writer.write("final ");
+        writer.write(property.getFieldType());
+        writer.write(" updated = this.");
+        writer.write(property.name);
+        writer.write('.');
+        writer.write(call);
+        writer.write(";\nif (updated == this.");
+        writer.write(property.name);
+        writer.write(") {\nreturn this;\n}\n");
+        writeCopy(metaData, fields, property, "updated", "updated", allPropertiesConstructor, writer);
+    }
+
+    /**
+     * Write the statement returning a copy of the implementation with another value of a property, through the
+     * constructor taking every property when there is one, otherwise through the Builder.
+     *
+     * @param value The value for the constructor, <code>null</code> to freeze the parameter of the property.
+     */
+    private void writeCopy(ClassMetaData metaData, ClassProperty[] fields, ClassProperty property, String value,
+                           String builderValue, boolean allPropertiesConstructor, Writer writer) throws IOException {
+        final String implClassSimpleName = metaData.getImplClassSimpleName();
+        if (!allPropertiesConstructor) {
+            writer.write("return (");
+            writer.write(implClassSimpleName);
+            writer.write(") builder().");
+            writer.write(property.name);
+            writer.write('(');
+            writer.write(builderValue);
+            writer.write(").build();\n");
+            return;
+        }
+        writer.write(metaData.isInterned() ? "return INTERN_POOL.intern(new " : "return new ");
+        writer.write(implClassSimpleName);
+        writer.write("(\n");
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == property && value == null) {
+                writeFrozenValue(property, property.name, metaData.isRuntime(), writer);
+            } else if (fields[i] == property) {
+                writer.write(value);
+            } else {
+                writer.write("this.");
+                writer.write(fields[i].name);
+            }
+            writer.write(i < fields.length - 1 || metaData.getPackedFlagsType() != null ? ",\n" : "\n");
+        }
+        if (metaData.getPackedFlagsType() != null) {
+            writer.write(property.getWitherFlags());
+            writer.write('\n');
+        }
+        writer.write(metaData.isInterned() ? "));\n" : ");\n");
+    }
+
+    private void writeDeclaration(ClassProperty property, Writer writer) throws IOException {
+        writer.write(property.type);
+        writer.write(' ');
+        writer.write(property.name);
+        writer.write(";\n");
+    }
+
+    private void writeAssignment(ClassProperty property, String source, Writer writer) throws IOException {
+        writer.write("this.");
+        writer.write(property.name);
+        writer.write(" = ");
+        writer.write(source);
+        writer.write(property.name);
+        writer.write(";\n");
+    }
+
+    /**
+     * Write a setter of the Builder.
+     *
+     * @param requiredIndex The position of a required property of a reusable Builder, to mark it set, or
+     *                      <code>-1</code>.
+     */
+    private void writeSetter(String superClassQName, ClassProperty property, int requiredIndex, Writer writer)
+            throws IOException {
+        writer.write(SETTER_JAVADOC);
+        writer.write(superClassQName);
+        writer.write('#');
+        writer.write(property.getter);
+        writer.write("()  ");
+        writer.write(property.getter);
+        writer.write("} documentation of the field.\n*  @param ");
+        writer.write(property.name);
+        writer.write(" Value to set\n**/\npublic Builder ");
+        writer.write(property.name);
+        writer.write('(');
+        writeParameter(property, writer);
+        writer.write(") {\n");
+        writeAssignment(property, "", writer);
+        if (property.getPresenceMask() != null) {
+            writer.write("presentFlags |= ");
+            writer.write(property.getPresenceMask());
+            writer.write(";\n");
+        }
+        if (requiredIndex >= 0) {
+            writer.write("requiredSet[");
+            writer.write(String.valueOf(requiredIndex));
+            writer.write("] = true;\n");
+        }
+        writer.write("return this;\n}\n");
+    }
+
+    /**
+     * Write <code>reset()</code> of a reusable Builder, with its helper methods.
+     */
+    private void writeReset(ClassProperty[][] requiredChunks, ClassProperty[][] optionalChunks, boolean checkRequired,
+                            boolean presence, Writer writer) throws IOException {
+        writer.write(RESET_METHOD);
+        writeResetCalls("resetRequired", requiredChunks, writer);
+        writeResetCalls("resetOptional", optionalChunks, writer);
+        if (presence) {
+            writer.write("this.presentFlags = 0;\n");
+        }
+        if (checkRequired) {
+            writer.write("java.util.Arrays.fill(requiredSet, false);\n");
+        }
+        writer.write("return this;\n}\n");
+        writeResetHelpers("resetRequired", requiredChunks, writer);
+        writeResetHelpers("resetOptional", optionalChunks, writer);
+        if (checkRequired) {
+            writer.write(CHECK_REQUIRED_METHOD);
+        }
+        writer.write('\n');
+    }
+
+    private void writeResetCalls(String helper, ClassProperty[][] chunks, Writer writer) throws IOException {
+        if (chunks.length > 1) {
+            for (int i = 0; i < chunks.length; i++) {
+                writer.write(helper);
+                writer.write(String.valueOf(i));
+                writer.write("();\n");
+            }
+        } else {
+            writeResets(chunks[0], writer);
+        }
+    }
+
+    private void writeResetHelpers(String helper, ClassProperty[][] chunks, Writer writer) throws IOException {
+        if (chunks.length > 1) {
+            for (int i = 0; i < chunks.length; i++) {
+                writer.write("\nprivate void ");
+                writer.write(helper);
+                writer.write(String.valueOf(i));
+                writer.write("() {\n");
+                writeResets(chunks[i], writer);
+                writer.write("}\n");
+            }
+        }
+    }
+
+    private void writeResets(ClassProperty[] properties, Writer writer) throws IOException {
+        for (ClassProperty property : properties) {
+            writer.write("this.");
+            writer.write(property.name);
+            writer.write(" = ");
+            writer.write(property.getDefaultValue());
+            writer.write(";\n");
+        }
+    }
+
+    private void writeParameter(ClassProperty property, Writer writer) throws IOException {
+        writer.write(property.type);
+        writer.write(' ');
+        writer.write(property.name);
+    }
+
+    private void writeGetter(String javadoc, ClassProperty property, Writer writer) throws IOException {
+        writer.write(javadoc);
+        writer.write(property.type);
+        writer.write(' ');
+        writer.write(property.getter);
+        writer.write("() {\n");
+        writer.write(INDENT);
+        writer.write("return ");
+        writer.write(property.getFieldRead());
+        writer.write(";\n}\n");
+    }
+
+    /**
+     * Write the statements of an <code>appendTo</code> method appending the simple name of the type and its
+     * properties, required properties first, to the <code>sb</code> buffer or the <code>out</code> output.
+     */
+    private void writeAppends(String superClassQName, ClassProperty[] properties, String target, Writer writer)
+            throws IOException {
+        writer.write(superClassQName.substring(superClassQName.lastIndexOf('.') + 1));
+        writer.write("{\");\n");
+        boolean first = true;
+        for (int pass = 0; pass < 2; pass++) {
+            for (ClassProperty property : properties) {
+                if (property.isRequired() == (pass == 0)) {
+                    writeAppend(property, first, target, writer);
+                    first = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the statements appending a property in <code>appendTo</code>, recursing into nested immutable objects
+     * and appending arrays element by element.
+     */
+    private void writeAppend(ClassProperty property, boolean first, String target, Writer writer)
+            throws IOException {
+        writer.write(target);
+        writer.write(".append(\"");
+        if (!first) {
+            writer.write(", ");
+        }
+        writer.write(property.name);
+        final String value = property.getAppendExpression();
+        final String immutableImpl = property.getImmutableImpl();
+        if (property.isAppendedByElement()) {
+            writer.write("=\");\nif (");
+            writer.write(value);
+            writer.write(" == null) {\n");
+            writer.write(target);
+            writer.write(".append(\"null\");\n} else {\n");
+            writer.write(target);
+            writer.write(".append('[');\nfor (int i = 0; i < ");
+            writer.write(value);
+            writer.write(".length; i++) {\nif (i > 0) {\n");
+            writer.write(target);
+            writer.write(".append(\", \");\n}\n");
+            writer.write(target);
+            writer.write(".append(");
+            writeAppendValue(value + "[i]", target, writer);
+            writer.write(");\n}\n");
+            writer.write(target);
+            writer.write(".append(']');\n}\n");
+            return;
+        }
+        if (immutableImpl == null) {
+            writer.write("=\").append(");
+            writeAppendValue(value, target, writer);
+            writer.write(");\n");
+            return;
+        }
+        writer.write("=\");\nif (");
+        writer.write(value);
+        writer.write(" instanceof ");
+        writer.write(immutableImpl);
+        writer.write(") {\n((");
+        writer.write(immutableImpl);
+        writer.write(") ");
+        writer.write(value);
+        writer.write(").appendTo(");
+        writer.write(target);
+        writer.write(");\n} else {\n");
+        writer.write(target);
+        writer.write(".append(");
+        writeAppendValue(value, target, writer);
+        writer.write(");\n}\n");
+    }
+
+    /**
+     * Equivalent of the <code>appendvalue</code> macro of the template: a <code>StringBuilder</code> formats the
+     * value itself, an <code>Appendable</code> takes its string.
+     */
+    private void writeAppendValue(String value, String target, Writer writer) throws IOException {
+        if ("sb".equals(target)) {
+            writer.write(value);
+        } else {
+            writer.write("java.lang.String.valueOf(");
+            writer.write(value);
+            writer.write(')');
+        }
+    }
+
+    /**
+     * Write the statements of the constructor taking the Builder setting the presence words of a sparse
+     * implementation and filling the slots of the properties set.
+     */
+    private void writeSparseAssignments(ClassMetaData metaData, String[] words, ClassProperty[] values,
+                                        ClassProperty[] primitives, Writer writer) throws IOException {
+        final String[] assignments = metaData.getSparseWordAssignments();
+        for (int i = 0; i < words.length; i++) {
+            writer.write("this.");
+            writer.write(words[i]);
+            writer.write(" = ");
+            writer.write(assignments[i]);
+            writer.write(";\n");
+        }
+        if (values.length > 0) {
+            writer.write("final int valueCount = ");
+            writer.write(metaData.getSparseValueCount());
+            writer.write(";\nthis.values = valueCount == 0 ? NO_VALUES : new java.lang.Object[valueCount];\n"
+                    + "int valueSlot = 0;\n");
+            for (ClassProperty property : values) {
+                writeSparseSlot(property, "values[valueSlot++] = builder." + property.name, writer);
+            }
+        }
+        if (primitives.length > 0) {
+            writer.write("final int primitiveCount = ");
+            writer.write(metaData.getSparsePrimitiveCount());
+            writer.write(";\nthis.primitives = primitiveCount == 0 ? NO_PRIMITIVES : new long[primitiveCount];\n"
+                    + "int primitiveSlot = 0;\n");
+            for (ClassProperty property : primitives) {
+                writeSparseSlot(property, "primitives[primitiveSlot++] = " + property.getSparseValue(), writer);
+            }
+        }
+    }
+
+    private void writeSparseSlot(ClassProperty property, String assignment, Writer writer) throws IOException {
+        writer.write("if ((");
+        writer.write(property.getSparseWord());
+        writer.write(" & ");
+        writer.write(property.getSparseMask());
+        writer.write(") != 0) {\n");
+        writer.write(assignment);
+        writer.write(";\n}\n");
+    }
+
+    /**
+     * Equivalent of the <code>assignment</code> macro of the template: collection properties are copied
+     * into an unmodifiable collection, an empty one when not set.
+     */
+    private void writeFrozenAssignment(ClassProperty property, boolean runtime, Writer writer) throws IOException {
+        writer.write("this.");
+        writer.write(property.name);
+        writer.write(" = ");
+        writeFrozenValue(property, "builder." + property.name, runtime, writer);
+        writer.write(";\n");
+    }
+
+    /**
+     * Write the expression freezing a value of a property: a read-only copy of a collection, other values as they
+     * are.
+     */
+    private void writeFrozenValue(ClassProperty property, String source, boolean runtime, Writer writer)
+            throws IOException {
+        final String arguments = property.getCopyTypeArguments();
+        switch (property.getCollectionType()) {
+            case SET:
+                writeFrozenCopy(property, "Set", "java.util.Collections." + arguments + "emptySet()",
+                        "java.util.LinkedHashSet" + arguments, source, runtime, writer);
+                break;
+            case LIST:
+                writeFrozenCopy(property, "List", "java.util.Collections." + arguments + "emptyList()",
+                        "java.util.ArrayList" + arguments, source, runtime, writer);
+                break;
+            case MAP:
+                writeFrozenCopy(property, "Map", "java.util.Collections." + arguments + "emptyMap()",
+                        "java.util.LinkedHashMap" + arguments, source, runtime, writer);
+                break;
+            case SORTED_MAP:
+                writeFrozenCopy(property, "SortedMap",
+                        "java.util.Collections.unmodifiableSortedMap(new java.util.TreeMap" + arguments + "())",
+                        "java.util.TreeMap" + arguments, source, runtime, writer);
+                break;
+            case SORTED_SET:
+                writeFrozenCopy(property, "SortedSet",
+                        "java.util.Collections.unmodifiableSortedSet(new java.util.TreeSet" + arguments + "())",
+                        "java.util.TreeSet" + arguments, source, runtime, writer);
+                break;
+            default:
+                writer.write(source);
+                break;
+        }
+    }
+
+    private void writeFrozenCopy(ClassProperty property, String kind, String empty, String copy, String source,
+                                 boolean runtime, Writer writer) throws IOException {
+        if (property.isPersistent()) {
+            writer.write(ClassMetaData.RUNTIME_PERSISTENT_COLLECTIONS);
+            writer.write(".copyOf");
+            writer.write(kind);
+            writer.write('(');
+            writer.write(source);
+            writer.write(')');
+            return;
+        }
+        if (runtime) {
+            final String primitiveCollection = property.getPrimitiveCollection();
+            writer.write(primitiveCollection != null
+                    ? ClassMetaData.RUNTIME_PRIMITIVE_COLLECTIONS : ClassMetaData.RUNTIME_COLLECTIONS);
+            writer.write(".copyOf");
+            writer.write(primitiveCollection != null ? primitiveCollection : kind);
+            writer.write('(');
+            writer.write(source);
+            writer.write(')');
+            return;
+        }
+        writer.write(source);
+        writer.write(" == null ? ");
+        writer.write(empty);
+        writer.write(" : java.util.Collections.unmodifiable");
+        writer.write(kind);
+        writer.write("(new ");
+        writer.write(copy);
+        writer.write('(');
+        writer.write(source);
+        writer.write("))");
+    }
+}
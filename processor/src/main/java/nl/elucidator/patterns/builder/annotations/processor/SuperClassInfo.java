@@ -17,9 +17,17 @@
 
 package nl.elucidator.patterns.builder.annotations.processor;
 
+import javax.lang.model.element.TypeElement;
+
 /**
  * Holder for information about the superclass.
  */
 final class SuperClassInfo {
     String qualifiedName;
+
+    /**
+     * The annotated type itself. Passed to the Filer as the originating element of the
+     * generated source, so incremental builds can map the output back to its input.
+     */
+    TypeElement element;
 }
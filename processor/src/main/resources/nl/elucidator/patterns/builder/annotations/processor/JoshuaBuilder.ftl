@@ -14,47 +14,92 @@
   ~ See the License for the specific language governing permissions and
   ~ limitations under the License.
   -->
-<#macro returnmethod element>
+<#macro assignment element>
+this.${element.name} = <@frozen element "builder." + element.name/>;
+</#macro>
+<#macro frozen element source>
     <#switch element.collectionType>
         <#case CollectionType.SET>
-        if (${element.name} == null) {
-        return java.util.Collections.unmodifiableSet(java.util.Collections.EMPTY_SET);
-        }
-        return java.util.Collections.unmodifiableSet(${element.name});
+        <@frozencopy element "Set" "java.util.Collections.${element.copyTypeArguments}emptySet()" "java.util.LinkedHashSet" source/>
             <#break>
         <#case CollectionType.LIST>
-        if (${element.name} == null) {
-        return java.util.Collections.unmodifiableList(java.util.Collections.EMPTY_LIST);
-        }
-        return java.util.Collections.unmodifiableList(${element.name});
+        <@frozencopy element "List" "java.util.Collections.${element.copyTypeArguments}emptyList()" "java.util.ArrayList" source/>
             <#break>
         <#case CollectionType.MAP>
-        if (${element.name} == null) {
-        return java.util.Collections.unmodifiableMap(java.util.Collections.EMPTY_MAP);
-        }
-        return java.util.Collections.unmodifiableMap(${element.name});
+        <@frozencopy element "Map" "java.util.Collections.${element.copyTypeArguments}emptyMap()" "java.util.LinkedHashMap" source/>
             <#break>
         <#case CollectionType.SORTED_MAP>
-        if (${element.name} == null) {
-        @SuppressWarnings("unchecked")
-        ${element.type} temp = java.util.Collections.unmodifiableSortedMap((${element.type})java.util.Collections.EMPTY_MAP);
-        return temp;
-        }
-        return java.util.Collections.unmodifiableSortedMap(${element.name});
+        <@frozencopy element "SortedMap" "java.util.Collections.unmodifiableSortedMap(new java.util.TreeMap${element.copyTypeArguments}())" "java.util.TreeMap" source/>
             <#break>
         <#case CollectionType.SORTED_SET>
-        if (${element.name} == null) {
-        @SuppressWarnings("unchecked")
-        ${element.type} temp = java.util.Collections.unmodifiableSortedSet((${element.type})java.util.Collections.EMPTY_SET);
-        return temp;
-        }
-        return java.util.Collections.unmodifiableSortedSet(${element.name});
+        <@frozencopy element "SortedSet" "java.util.Collections.unmodifiableSortedSet(new java.util.TreeSet${element.copyTypeArguments}())" "java.util.TreeSet" source/>
             <#break>
         <#case CollectionType.NONE>
-        return ${element.name};
+${source}<#t>
             <#break>
     </#switch>
 </#macro>
+<#macro copy element value builderValue>
+<#if allPropertiesConstructor>
+return <#if interned>INTERN_POOL.intern(</#if>new ${implClassSimpleName}(
+<#list fields as property>
+<#if property.name == element.name>${value}<#else>this.${property.name}</#if><#if property_has_next || packedFlagsType??>,</#if>
+</#list>
+<#if packedFlagsType??>
+${element.witherFlags}
+</#if>
+)<#if interned>)</#if>;
+<#else>
+return (${implClassSimpleName}) builder().${element.name}(${builderValue}).build();
+</#if>
+</#macro>
+<#macro update element call>
+final ${element.fieldType} updated = this.${element.name}.${call};
+if (updated == this.${element.name}) {
+return this;
+}
+<@copy element "updated" "updated"/>
+</#macro>
+<#macro appendvalue target value>
+<#if target == "sb">${value}<#else>java.lang.String.valueOf(${value})</#if><#t>
+</#macro>
+<#macro append element first target>
+<#if element.appendedByElement>
+${target}.append("<#if !first>, </#if>${element.name}=");
+if (${element.appendExpression} == null) {
+${target}.append("null");
+} else {
+${target}.append('[');
+for (int i = 0; i < ${element.appendExpression}.length; i++) {
+if (i > 0) {
+${target}.append(", ");
+}
+${target}.append(<@appendvalue target element.appendExpression + "[i]"/>);
+}
+${target}.append(']');
+}
+<#elseif element.immutableImpl??>
+${target}.append("<#if !first>, </#if>${element.name}=");
+if (${element.appendExpression} instanceof ${element.immutableImpl}) {
+((${element.immutableImpl}) ${element.appendExpression}).appendTo(${target});
+} else {
+${target}.append(<@appendvalue target element.appendExpression/>);
+}
+<#else>
+${target}.append("<#if !first>, </#if>${element.name}=").append(<@appendvalue target element.appendExpression/>);
+</#if>
+</#macro>
+<#macro frozencopy element kind empty copy source>
+<#if element.persistent>
+${persistentCollections}.copyOf${kind}(${source})<#t>
+<#elseif runtime && element.primitiveCollection??>
+${primitiveCollections}.copyOf${element.primitiveCollection}(${source})<#t>
+<#elseif runtime>
+${runtimeCollections}.copyOf${kind}(${source})<#t>
+<#else>
+${source} == null ? ${empty} : java.util.Collections.unmodifiable${kind}(new ${copy}${element.copyTypeArguments}(${source}))<#t>
+</#if>
+</#macro>
 /*
 * Copyright (C) 2010 Jan-Kees van Andel.
 * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
@@ -75,21 +120,60 @@ package ${targetPackage};
 
 import net.jcip.annotations.Immutable;
 
-@javax.annotation.Generated("${generatorClass}")
+<#if generated??>
+@${generated}("${generatorClass}")
+</#if>
 /**
 * {@inheritDoc}
 **/
 @Immutable
 public final class ${implClassSimpleName} implements ${superClassQName} {
 
-<#list required as property>
+<#list fields as property>
 /* Property ${property.name} */
-private final ${property.type} ${property.name};
+private final ${property.fieldType} ${property.name};
 </#list>
-<#list optional as property>
-/* Property ${property.name} */
-private final ${property.type} ${property.name};
+<#if packedFlagsType??>
+/* The boolean properties and whether the optional primitive properties are set, a bit each */
+private final ${packedFlagsType} packedFlags;
+</#if>
+<#if sparseWords?size gt 0>
+/* The optional properties set, a bit each */
+<#list sparseWords as word>
+private final long ${word};
 </#list>
+</#if>
+<#if sparseValues?size gt 0>
+/* The optional references set, in the order of their bits */
+private final java.lang.Object[] values;
+</#if>
+<#if sparsePrimitives?size gt 0>
+/* The optional primitives set but the booleans, in the order of their bits */
+private final long[] primitives;
+</#if>
+/* Hash code cached by hashCode(), 0 until computed */
+private int cachedHashCode;
+<#if sparseValues?size gt 0>
+/* The values of the instances without optional references set */
+private static final java.lang.Object[] NO_VALUES = {};
+</#if>
+<#if sparsePrimitives?size gt 0>
+/* The primitives of the instances without optional primitives set */
+private static final long[] NO_PRIMITIVES = {};
+</#if>
+<#if interned>
+/* Canonical instances returned by Builder.build() */
+private static final ${internPool}<${implClassSimpleName}> INTERN_POOL = new ${internPool}<${implClassSimpleName}>();
+</#if>
+<#if reusable>
+/* The Builders handed out by reusableBuilder(), one per thread */
+private static final java.lang.ThreadLocal<Builder> BUILDERS = new java.lang.ThreadLocal<Builder>() {
+@Override
+protected Builder initialValue() {
+return new Builder();
+}
+};
+</#if>
 
 /**
 * Classic implementation of the Joshua Bloch
@@ -102,6 +186,16 @@ private ${property.type} ${property.name};
 <#list optional as property>
 private ${property.type} ${property.name};
 </#list>
+<#if presenceMask??>
+/* The optional primitive properties set, at their bits in packedFlags */
+private ${packedFlagsType} presentFlags;
+</#if>
+<#if reusable && required?size gt 0>
+/* The names of the required properties */
+private static final java.lang.String[] REQUIRED = {<#list required as property>"${property.name}"<#if property_has_next>, </#if></#list>};
+/* Whether the required property at the same position in REQUIRED is set */
+private final boolean[] requiredSet = new boolean[${required?size?c}];
+</#if>
 
 
 public Builder(
@@ -109,18 +203,117 @@ public Builder(
 ${property.type} ${property.name}<#if property_has_next>,</#if>
 </#list>
 ) {
+<#if requiredChunks?size gt 1>
+<#list requiredChunks as chunk>
+initRequired${chunk_index?c}(<#list chunk as property>${property.name}<#if property_has_next>, </#if></#list>);
+</#list>
+<#else>
 <#list required as property>
 this.${property.name} = ${property.name};
 </#list>
+</#if>
+<#if reusable && required?size gt 0>
+java.util.Arrays.fill(requiredSet, true);
+</#if>
 }
+<#if requiredChunks?size gt 1>
+<#list requiredChunks as chunk>
+
+private void initRequired${chunk_index?c}(<#list chunk as property>${property.type} ${property.name}<#if property_has_next>, </#if></#list>) {
+<#list chunk as property>
+this.${property.name} = ${property.name};
+</#list>
+}
+</#list>
+</#if>
+<#if reusable && required?size gt 0>
+
+/**
+* Create a Builder without values, set the required properties before building.
+**/
+public Builder() {
+}
+</#if>
 
 /**
 * The Builder, build the immutable instance
 **/
 public ${superClassQName} build() {
+<#if reusable && required?size gt 0>
+checkRequired();
+</#if>
+<#if interned>
+return INTERN_POOL.intern(new ${implClassSimpleName}(this));
+<#else>
 return new ${implClassSimpleName}(this);
+</#if>
+}
+
+<#if reusable>
+/**
+* Clear all properties, so this Builder can build another instance.
+*
+* @return This Builder.
+**/
+public Builder reset() {
+<#if requiredChunks?size gt 1>
+<#list requiredChunks as chunk>
+resetRequired${chunk_index?c}();
+</#list>
+<#else>
+<#list required as property>
+this.${property.name} = ${property.defaultValue};
+</#list>
+</#if>
+<#if optionalChunks?size gt 1>
+<#list optionalChunks as chunk>
+resetOptional${chunk_index?c}();
+</#list>
+<#else>
+<#list optional as property>
+this.${property.name} = ${property.defaultValue};
+</#list>
+</#if>
+<#if presenceMask??>
+this.presentFlags = 0;
+</#if>
+<#if required?size gt 0>
+java.util.Arrays.fill(requiredSet, false);
+</#if>
+return this;
+}
+<#if requiredChunks?size gt 1>
+<#list requiredChunks as chunk>
+
+private void resetRequired${chunk_index?c}() {
+<#list chunk as property>
+this.${property.name} = ${property.defaultValue};
+</#list>
+}
+</#list>
+</#if>
+<#if optionalChunks?size gt 1>
+<#list optionalChunks as chunk>
+
+private void resetOptional${chunk_index?c}() {
+<#list chunk as property>
+this.${property.name} = ${property.defaultValue};
+</#list>
 }
+</#list>
+</#if>
+<#if required?size gt 0>
 
+private void checkRequired() {
+for (int i = 0; i < requiredSet.length; i++) {
+if (!requiredSet[i]) {
+throw new java.lang.IllegalStateException("Required property " + REQUIRED[i] + " is not set");
+}
+}
+}
+</#if>
+
+</#if>
 <#list optional as property>
 /**
 * See {@link  ${superClassQName}#${property.getter}()  ${property.getter}} documentation of the field.
@@ -128,6 +321,9 @@ return new ${implClassSimpleName}(this);
 **/
 public Builder ${property.name}(${property.type} ${property.name}) {
 this.${property.name} = ${property.name};
+<#if property.presenceMask??>
+presentFlags |= ${property.presenceMask};
+</#if>
 return this;
 }
 </#list>
@@ -139,20 +335,64 @@ return this;
 **/
 public Builder ${property.name}(${property.type} ${property.name}) {
 this.${property.name} = ${property.name};
+<#if reusable>
+requiredSet[${property_index?c}] = true;
+</#if>
 return this;
 }
 </#list>
 }
 
 private ${implClassSimpleName}(Builder builder){
-<#list required as property>
-this.${property.name} = builder.${property.name};
+<#list fields as property>
+<@assignment property/>
 </#list>
-<#list optional as property>
-this.${property.name} = builder.${property.name};
+<#if packedFlagsType??>
+this.packedFlags = ${packedFlagsAssignment};
+</#if>
+<#list sparseWords as word>
+this.${word} = ${sparseWordAssignments[word_index]};
+</#list>
+<#if sparseValues?size gt 0>
+final int valueCount = ${sparseValueCount};
+this.values = valueCount == 0 ? NO_VALUES : new java.lang.Object[valueCount];
+int valueSlot = 0;
+<#list sparseValues as property>
+if ((${property.sparseWord} & ${property.sparseMask}) != 0) {
+values[valueSlot++] = builder.${property.name};
+}
+</#list>
+</#if>
+<#if sparsePrimitives?size gt 0>
+final int primitiveCount = ${sparsePrimitiveCount};
+this.primitives = primitiveCount == 0 ? NO_PRIMITIVES : new long[primitiveCount];
+int primitiveSlot = 0;
+<#list sparsePrimitives as property>
+if ((${property.sparseWord} & ${property.sparseMask}) != 0) {
+primitives[primitiveSlot++] = ${property.sparseValue};
+}
 </#list>
+</#if>
+
+}
+<#if allPropertiesConstructor>
 
+private ${implClassSimpleName}(
+<#list fields as property>
+${property.fieldType} ${property.name}<#if property_has_next || packedFlagsType??>,</#if>
+</#list>
+<#if packedFlagsType??>
+${packedFlagsType} packedFlags
+</#if>
+) {
+<#list fields as property>
+this.${property.name} = ${property.name};
+</#list>
+<#if packedFlagsType??>
+this.packedFlags = packedFlags;
+</#if>
 }
+</#if>
 
 
 <#list required as property>
@@ -160,7 +400,7 @@ this.${property.name} = builder.${property.name};
 * {@inheritDoc}
 **/
 public ${property.type} ${property.getter}() {
-    <@returnmethod property/>
+        return ${property.fieldRead};
 }
 </#list>
 
@@ -170,9 +410,20 @@ public ${property.type} ${property.getter}() {
 *
 **/
 public ${property.type} ${property.getter}() {
-    <@returnmethod property/>
+        return ${property.fieldRead};
 }
 
+</#list>
+<#list optional as property>
+<#if property.presenceMask??>
+/**
+* @return <code>true</code> when {@link  ${superClassQName}#${property.getter}()  ${property.getter}} is set.
+**/
+public boolean ${property.presenceMethod}() {
+        return (packedFlags & ${property.presenceMask}) != 0;
+}
+
+</#if>
 </#list>
 
 /**
@@ -181,16 +432,198 @@ public ${property.type} ${property.getter}() {
 public Builder builder() {
 Builder b = new Builder(
 <#list required as property>
-${property.name}<#if property_has_next>,</#if>
+${property.fieldRead}<#if property_has_next>,</#if>
 </#list>
 );
 
 
+<#if optionalChunks?size gt 1>
+<#list optionalChunks as chunk>
+copyOptional${chunk_index?c}(b);
+</#list>
+<#else>
 <#list optional as property>
-b.${property.name}(${property.name});
+b.${property.name}(${property.fieldRead});
 </#list>
+</#if>
+<#if presenceMask??>
+b.presentFlags = packedFlags & ${presenceMask};
+</#if>
 
 return b;
 }
+<#if optionalChunks?size gt 1>
+<#list optionalChunks as chunk>
+
+private void copyOptional${chunk_index?c}(Builder b) {
+<#list chunk as property>
+b.${property.name}(${property.fieldRead});
+</#list>
+}
+</#list>
+</#if>
+<#list required + optional as element>
+
+/**
+* Copy this object with another value of {@link  ${superClassQName}#${element.getter}()  ${element.getter}}.
+*
+* @param ${element.name} The value of the copy.
+* @return This object when the value is the same, otherwise a copy with the value.
+**/
+public ${implClassSimpleName} ${element.wither}(${element.type} ${element.name}) {
+if (${element.sameValueExpression}) {
+return this;
+}
+<#assign value><@frozen element element.name/></#assign>
+<@copy element value element.name/>
+}
+<#if element.persistent>
+<#assign map = element.collectionType == CollectionType.MAP>
+
+/**
+* Copy this object with <#if map>an entry put in<#else>an element added to</#if> {@link  ${superClassQName}#${element.getter}()  ${element.getter}}, sharing the rest of the collection.
+*
+<#if map>
+* @param key The key of the entry.
+* @param value The value of the entry.
+<#else>
+* @param element The element to add.
+</#if>
+* @return This object when the collection is unchanged, otherwise a copy with the updated collection.
+**/
+public ${implClassSimpleName} ${element.wither}Added(<#if map>${element.elementTypes[0]} key, ${element.elementTypes[1]} value<#else>${element.elementTypes[0]} element</#if>) {
+<@update element "plus(" + map?string("key, value", "element") + ")"/>
+}
+
+/**
+* Copy this object with <#if map>the entry of a key removed from<#else>an element removed from</#if> {@link  ${superClassQName}#${element.getter}()  ${element.getter}}, sharing the rest of the collection.
+*
+<#if map>
+* @param key The key of the entry to remove.
+<#else>
+* @param element The element to remove, the first occurrence in a list.
+</#if>
+* @return This object when the collection is unchanged, otherwise a copy with the updated collection.
+**/
+public ${implClassSimpleName} ${element.wither}Removed(java.lang.Object <#if map>key<#else>element</#if>) {
+<@update element "minus(" + map?string("key", "element") + ")"/>
+}
+</#if>
+</#list>
+
+/**
+* {@inheritDoc}
+**/
+@Override
+public boolean equals(java.lang.Object o) {
+if (this == o) {
+return true;
+}
+if (!(o instanceof ${implClassSimpleName})) {
+return false;
+}
+${implClassSimpleName} that = (${implClassSimpleName}) o;
+if (this.cachedHashCode != 0 && that.cachedHashCode != 0 && this.cachedHashCode != that.cachedHashCode) {
+return false;
+}
+<#if equalsComparisons?size == 0>
+return true;
+<#else>
+return <#list equalsComparisons as comparison>${comparison}<#if comparison_has_next>
+        && <#else>;</#if></#list>
+</#if>
+}
+
+/**
+* {@inheritDoc}
+* <p/>
+* Computed once and cached like {@link String#hashCode()}.
+**/
+@Override
+public int hashCode() {
+int h = cachedHashCode;
+if (h == 0) {
+h = 1;
+<#list required as property>
+h = 31 * h + ${property.hashCodeExpression};
+</#list>
+<#list optional as property>
+h = 31 * h + ${property.hashCodeExpression};
+</#list>
+cachedHashCode = h;
+}
+return h;
+}
+
+/**
+* {@inheritDoc}
+**/
+@Override
+public java.lang.String toString() {
+return appendTo(new java.lang.StringBuilder()).toString();
+}
+
+/**
+* Append the properties to the given buffer, nested immutable objects included, without creating
+* intermediate strings.
+*
+* @param sb The buffer to append to.
+* @return The buffer.
+**/
+public java.lang.StringBuilder appendTo(java.lang.StringBuilder sb) {
+sb.append("${superClassSimpleName}{");
+<#list required as property>
+<@append property property_index == 0 "sb"/>
+</#list>
+<#list optional as property>
+<@append property property_index == 0 && required?size == 0 "sb"/>
+</#list>
+return sb.append('}');
+}
+
+/**
+* Append the properties to the given output, value by value, nested immutable objects included. A
+* <code>StringBuilder</code> is appended to as by <code>appendTo(StringBuilder)</code>.
+*
+* @param out The output to append to.
+* @throws java.io.IOException When the output cannot be written.
+**/
+public void appendTo(java.lang.Appendable out) throws java.io.IOException {
+if (out instanceof java.lang.StringBuilder) {
+appendTo((java.lang.StringBuilder) out);
+return;
+}
+out.append("${superClassSimpleName}{");
+<#list required as property>
+<@append property property_index == 0 "out"/>
+</#list>
+<#list optional as property>
+<@append property property_index == 0 && required?size == 0 "out"/>
+</#list>
+out.append('}');
+}
+
+<#if interned>
+/**
+* The pool of canonical instances returned by the Builder, for its statistics.
+*
+* @return The pool.
+**/
+public static ${internPool}<${implClassSimpleName}> internPool() {
+return INTERN_POOL;
+}
+
+</#if>
+<#if reusable>
+/**
+* Get the Builder of the current thread, reset. Every call on a thread returns the same Builder, build the
+* instance before calling this method again on that thread.
+*
+* @return The Builder.
+**/
+public static Builder reusableBuilder() {
+return BUILDERS.get().reset();
+}
 
+</#if>
 }
\ No newline at end of file
@@ -29,9 +29,14 @@ import javax.tools.Diagnostic.Kind;
 import javax.tools.JavaCompiler.CompilationTask;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertFalse;
@@ -49,9 +54,11 @@ public abstract class AbstractAnnotationProcessorTest {
     private static final JavaCompiler COMPILER = ToolProvider.getSystemJavaCompiler();
 
     /**
-     * @return the processor instances that should be tested
+     * @return the processor instances that should be tested, the {@link MakeBuilderProcessor} by default
      */
-    protected abstract Collection<Processor> getProcessors();
+    protected Collection<Processor> getProcessors() {
+        return Collections.<Processor>singletonList(new MakeBuilderProcessor());
+    }
 
     /**
      * Attempts to compile the given compilation units using the Java Compiler
@@ -149,6 +156,148 @@ public abstract class AbstractAnnotationProcessorTest {
         return classpathFiles;
     }
 
+    /**
+     * Creates an empty temporary directory for the output of {@link #compileToDirectory}.
+     *
+     * @param prefix the prefix of the directory name
+     * @return the new directory
+     * @throws IOException when the directory cannot be created
+     */
+    protected static File createOutputDirectory(String prefix) throws IOException {
+        File outputDirectory = File.createTempFile(prefix, "");
+        outputDirectory.delete();
+        outputDirectory.mkdirs();
+        return outputDirectory;
+    }
+
+    /**
+     * Compiles the given test sources with the {@link MakeBuilderProcessor}, asserts that the compilation produced
+     * no errors and returns a class loader for the compiled classes.
+     *
+     * @param outputDirectory the directory for the generated sources and the class files
+     * @param options         additional compiler options, such as {@code -A} processor options
+     * @param sources         the paths of the sources, relative to this package
+     * @return a class loader for the output directory, to be closed by the caller
+     * @throws IOException        when the sources cannot be read
+     * @throws URISyntaxException when a source cannot be located
+     */
+    protected static URLClassLoader compileToDirectory(File outputDirectory, List<String> options, String... sources)
+            throws IOException, URISyntaxException {
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = compileToDirectory(outputDirectory, options,
+                Collections.<Processor>singletonList(new MakeBuilderProcessor()), sources);
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+            assertFalse(diagnostic.toString(), diagnostic.getKind() == Kind.ERROR);
+        }
+        return new URLClassLoader(new URL[]{outputDirectory.toURI().toURL()},
+                AbstractAnnotationProcessorTest.class.getClassLoader());
+    }
+
+    /**
+     * Compiles the given test sources with the given processors into the output directory.
+     *
+     * @param outputDirectory the directory for the generated sources and the class files
+     * @param options         additional compiler options, such as {@code -A} processor options
+     * @param processors      the processors to run
+     * @param sources         the paths of the sources, relative to this package
+     * @return the {@link Diagnostic diagnostics} returned by the compilation
+     * @throws IOException        when the sources cannot be read
+     * @throws URISyntaxException when a source cannot be located
+     */
+    protected static List<Diagnostic<? extends JavaFileObject>> compileToDirectory(File outputDirectory,
+            List<String> options, List<? extends Processor> processors, String... sources)
+            throws IOException, URISyntaxException {
+        List<File> files = new ArrayList<File>(sources.length);
+        for (String source : sources) {
+            files.add(new File(AbstractAnnotationProcessorTest.class.getResource(source).toURI()));
+        }
+        List<String> arguments = new ArrayList<String>(options);
+        arguments.addAll(Arrays.asList("-d", outputDirectory.getPath(), "-s", outputDirectory.getPath()));
+
+        DiagnosticCollector<JavaFileObject> diagnosticCollector = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager fileManager = COMPILER.getStandardFileManager(diagnosticCollector, null, null);
+        try {
+            CompilationTask task = COMPILER.getTask(null, fileManager, diagnosticCollector, arguments, null,
+                    fileManager.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(processors);
+            task.call();
+        } finally {
+            fileManager.close();
+        }
+        return diagnosticCollector.getDiagnostics();
+    }
+
+    /**
+     * Deletes a file, or a directory with everything in it.
+     *
+     * @param file the file or directory to delete
+     */
+    protected static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Creates the Builder of a compiled type through its public constructor taking the given required properties.
+     *
+     * @param classLoader the class loader of the compiled classes
+     * @param type        the qualified name of the type, the Builder is the nested class of its implementation
+     * @param required    the values of the required properties
+     * @return the new Builder
+     * @throws Exception when the Builder cannot be created
+     */
+    protected static Object newBuilder(ClassLoader classLoader, String type, Object... required) throws Exception {
+        Class<?> builderClass = classLoader.loadClass(type + "Impl$Builder");
+        for (Constructor<?> constructor : builderClass.getConstructors()) {
+            if (constructor.getParameterTypes().length == required.length) {
+                return constructor.newInstance(required);
+            }
+        }
+        throw new AssertionError(builderClass.getName() + " has no constructor taking " + required.length
+                + " properties");
+    }
+
+    /**
+     * Calls a public method taking a single argument, like a setter of a Builder or a wither.
+     *
+     * @param target the object to call the method on
+     * @param method the name of the method
+     * @param type   the type of the parameter
+     * @param value  the argument
+     * @return the result of the method
+     * @throws Exception when the method cannot be called, or throws an exception itself
+     */
+    protected static Object invoke(Object target, String method, Class<?> type, Object value) throws Exception {
+        return target.getClass().getMethod(method, type).invoke(target, value);
+    }
+
+    /**
+     * Builds the instance of a Builder.
+     *
+     * @param builder the Builder
+     * @return the instance
+     * @throws Exception when <code>build</code> cannot be called, or throws an exception itself
+     */
+    protected static Object build(Object builder) throws Exception {
+        return builder.getClass().getMethod("build").invoke(builder);
+    }
+
+    /**
+     * Reads a property of a compiled instance.
+     *
+     * @param instance the instance
+     * @param getter   the name of the getter
+     * @return the value of the property
+     * @throws Exception when the getter cannot be called
+     */
+    protected static Object get(Object instance, String getter) throws Exception {
+        return instance.getClass().getMethod(getter).invoke(instance);
+    }
+
     /**
      * Asserts that the compilation produced no errors, i.e. no diagnostics of
      * type {@link Kind#ERROR}.
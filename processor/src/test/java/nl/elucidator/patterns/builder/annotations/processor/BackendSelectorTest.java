@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the selection of backends by name and package.
+ */
+public class BackendSelectorTest {
+
+    private final ClassWriter streaming = new StreamingClassWriterImpl();
+
+    private final ClassWriter freeMarker = new FreeMarkerClassWriterImpl();
+
+    private final List<ClassWriter> writers = Arrays.asList(streaming, freeMarker);
+
+    @Test
+    public void defaultIsUsedWithoutSelection() {
+        BackendSelector<ClassWriter> selector = new BackendSelector<ClassWriter>("w", null, writers, "streaming");
+
+        assertSame(streaming, selector.select("com.acme"));
+        assertTrue(selector.getWarnings().isEmpty());
+    }
+
+    @Test
+    public void mostSpecificPackageWins() {
+        BackendSelector<ClassWriter> selector = new BackendSelector<ClassWriter>("w",
+                "com.acme=freemarker, freemarker, com.acme.fast=streaming", writers, "streaming");
+
+        assertSame(freeMarker, selector.select("org.example"));
+        assertSame(freeMarker, selector.select("com.acme"));
+        assertSame(streaming, selector.select("com.acme.fast"));
+        assertSame(streaming, selector.select("com.acme.fast.deep"));
+        assertSame(freeMarker, selector.select("com.acme.faster"));
+    }
+
+    @Test
+    public void unknownBackendIsReported() {
+        BackendSelector<ClassWriter> selector = new BackendSelector<ClassWriter>("w",
+                "velocity,com.acme=velocity", writers, "streaming");
+
+        assertSame(streaming, selector.select("com.acme"));
+        assertEquals(2, selector.getWarnings().size());
+    }
+
+    @Test
+    public void builtInBackendsAreDiscovered() {
+        assertEquals(StreamingClassWriterImpl.class, BackendSelector.load(ClassWriter.class, "w", "", "streaming")
+                .get(StreamingClassWriterImpl.NAME).getClass());
+        assertEquals(FreeMarkerClassWriterImpl.class, BackendSelector.load(ClassWriter.class, "w", "", "streaming")
+                .get(FreeMarkerClassWriterImpl.NAME).getClass());
+        assertEquals(DefaultClassParserImpl.class, BackendSelector.load(ClassParser.class, "p", null, "default")
+                .get(DefaultClassParserImpl.NAME).getClass());
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import nl.elucidator.patterns.builder.annotations.runtime.ImmutableCollections;
+import nl.elucidator.patterns.builder.annotations.runtime.InternPool;
+import nl.elucidator.patterns.builder.annotations.runtime.PersistentCollections;
+import nl.elucidator.patterns.builder.annotations.runtime.PersistentHashMap;
+import nl.elucidator.patterns.builder.annotations.runtime.PersistentVector;
+import nl.elucidator.patterns.builder.annotations.runtime.PrimitiveCollections;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that all class writers render exactly the source in the golden file.
+ */
+public class ClassWriterGoldenFileTest {
+
+    private static final String GOLDEN_FILE = "GoldenSampleImpl.golden";
+
+    @Test
+    public void freeMarkerMatchesGoldenFile() throws IOException {
+        assertEquals(readGoldenFile(), render(new FreeMarkerClassWriterImpl(), createMetaData()));
+    }
+
+    @Test
+    public void streamingMatchesGoldenFile() throws IOException {
+        assertEquals(readGoldenFile(), render(new StreamingClassWriterImpl(), createMetaData()));
+    }
+
+    @Test
+    public void streamingMatchesFreeMarkerWithoutRequiredProperties() throws IOException {
+        ClassMetaData metaData = new ClassMetaData(superClass("a.b.OptionalOnly"), new ClassProperty[]{
+                property("name", "java.lang.String", false),
+                property("items", "java.util.List<java.lang.Integer>", false)}, true);
+
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), render(new StreamingClassWriterImpl(), metaData));
+    }
+
+    @Test
+    public void streamingMatchesFreeMarkerWhenSplittingMethods() throws IOException {
+        // A budget of 12 bytes leaves room for a single statement per helper method
+        ClassMetaData metaData = createMetaData().withMaxMethodBytes(12);
+
+        String source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        assertTrue(source.contains("initRequired2(code);"));
+        assertTrue(source.contains("private void copyOptional5(Builder b) {\nb.sortedSet(sortedSet);\n}"));
+    }
+
+    @Test
+    public void streamingMatchesFreeMarkerWithRuntime() throws IOException {
+        ClassMetaData metaData = createMetaData().withRuntime(true);
+
+        String source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        assertTrue(source.contains("this.sortedSet = " + ImmutableCollections.class.getName()
+                + ".copyOfSortedSet(builder.sortedSet);"));
+        assertFalse(source.contains("java.util.Collections"));
+    }
+
+    @Test
+    public void streamingMatchesFreeMarkerWithTheGeneratedAnnotationOfTheSourceVersion() throws IOException {
+        ClassMetaData metaData = createMetaData().withGenerated(MakeBuilderProcessor.PROCESSING_GENERATED);
+
+        String source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        assertTrue(source.contains("\n@javax.annotation.processing.Generated(\""));
+
+        metaData = createMetaData().withGenerated(null);
+        source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        assertFalse(source.contains("Generated"));
+    }
+
+    @Test
+    public void streamingMatchesFreeMarkerWithPrimitiveCollections() throws IOException {
+        ClassMetaData metaData = new ClassMetaData(superClass("a.b.Numbers"), new ClassProperty[]{
+                property("ids", "java.util.List<java.lang.Long>", true),
+                property("codes", "java.util.Set<? extends java.lang.Integer>", false),
+                property("ratios", "java.util.Set<java.lang.Double>", false),
+                property("weights", "java.util.Map<java.lang.String,java.lang.Double>", false)}, true).withRuntime(true);
+
+        String source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        String primitiveCollections = PrimitiveCollections.class.getName();
+        assertTrue(source.contains("this.ids = " + primitiveCollections + ".copyOfLongList(builder.ids);"));
+        assertTrue(source.contains("this.codes = " + primitiveCollections + ".copyOfIntSet(builder.codes);"));
+        assertTrue(source.contains("this.ratios = " + ImmutableCollections.class.getName() + ".copyOfSet(builder.ratios);"));
+        assertTrue(source.contains("this.weights = " + primitiveCollections + ".copyOfDoubleMap(builder.weights);"));
+    }
+
+    @Test
+    public void streamingMatchesFreeMarkerWithReusableBuilder() throws IOException {
+        ClassMetaData metaData = createMetaData().withReusable(true);
+
+        String source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        assertTrue(source.contains("private static final java.lang.String[] REQUIRED = {\"id\", \"set\", \"code\"};"));
+        assertTrue(source.contains("this.code = code;\nrequiredSet[2] = true;\nreturn this;"));
+        assertTrue(source.contains("this.id = 0;\nthis.set = null;\nthis.code = null;\nthis.name = null;\nthis.active = false;"));
+
+        metaData = metaData.withMaxMethodBytes(12);
+        source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        assertTrue(source.contains("private void resetOptional5() {\nthis.sortedSet = null;\n}"));
+    }
+
+    @Test
+    public void streamingMatchesFreeMarkerWithReusableBuilderWithoutRequiredProperties() throws IOException {
+        ClassMetaData metaData = new ClassMetaData(superClass("a.b.OptionalOnly"), new ClassProperty[]{
+                property("name", "java.lang.String", false),
+                property("count", "int", false)}, true).withReusable(true);
+
+        String source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        assertFalse(source.contains("requiredSet"));
+    }
+
+    @Test
+    public void streamingMatchesFreeMarkerWhenInterned() throws IOException {
+        ClassMetaData metaData = createMetaData().withInterned(true);
+
+        String source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        assertTrue(source.contains("return INTERN_POOL.intern(new GoldenSampleImpl(this));"));
+        assertTrue(source.contains("public static " + InternPool.class.getName() + "<GoldenSampleImpl> internPool() {"));
+        assertTrue(source.contains("return INTERN_POOL.intern(new GoldenSampleImpl(\nthis.id,\nthis.set,\ncode,"));
+    }
+
+    @Test
+    public void streamingMatchesFreeMarkerWithoutAllPropertiesConstructor() throws IOException {
+        // 128 longs take 256 parameter slots, one more than a constructor has next to this
+        ClassProperty[] properties = new ClassProperty[128];
+        for (int i = 0; i < properties.length; i++) {
+            properties[i] = property("value" + i, "long", i == 0);
+        }
+        ClassMetaData metaData = new ClassMetaData(superClass("a.b.Wide"), properties, true);
+
+        String source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        assertFalse(metaData.hasAllPropertiesConstructor());
+        assertTrue(source.contains("return (WideImpl) builder().value127(value127).build();"));
+    }
+
+    @Test
+    public void streamingMatchesFreeMarkerWithPersistentCollections() throws IOException {
+        ClassMetaData metaData = new ClassMetaData(superClass("a.b.Portfolio"), new ClassProperty[]{
+                property("owner", "java.lang.String", true),
+                persistent("trades", "java.util.List<java.lang.Long>"),
+                persistent("symbols", "java.util.Set<java.lang.String>"),
+                persistent("weights", "java.util.Map<java.lang.String,? extends java.lang.Number>")}, true)
+                .withRuntime(true);
+
+        String source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        String persistentCollections = PersistentCollections.class.getName();
+        assertTrue(source.contains("private final " + PersistentVector.class.getName() + "<java.lang.Long> trades;"));
+        assertTrue(source.contains("this.trades = " + persistentCollections + ".copyOfList(builder.trades);"));
+        assertTrue(source.contains("public PortfolioImpl withWeightsAdded(java.lang.String key, java.lang.Number value) {\n"
+                + "final " + PersistentHashMap.class.getName() + "<java.lang.String,java.lang.Number> updated"
+                + " = this.weights.plus(key, value);"));
+        assertTrue(source.contains("public PortfolioImpl withSymbolsRemoved(java.lang.Object element) {"));
+
+        metaData = metaData.withInterned(true);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), render(new StreamingClassWriterImpl(), metaData));
+    }
+
+    @Test
+    public void streamingMatchesFreeMarkerWithCompactLayout() throws IOException {
+        ClassProperty hot = property("ratio", "double", false);
+        hot.hot = true;
+        ClassMetaData metaData = new ClassMetaData(superClass("a.b.Settings"), new ClassProperty[]{
+                property("label", "java.lang.String", true),
+                property("enabled", "boolean", true),
+                property("count", "int", false),
+                property("visible", "boolean", false),
+                property("size", "short", false),
+                hot}, true).withCompact(true);
+
+        String source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        assertTrue(source.contains("private final int packedFlags;"));
+        assertTrue(source.indexOf("java.lang.String label;") > source.indexOf("short size;"));
+        assertTrue(source.indexOf("double ratio;") < source.indexOf("int count;"));
+        assertTrue(source.contains("return (packedFlags & 0x1) != 0;"));
+        assertTrue(source.contains("public boolean hasCount() {"));
+
+        metaData = metaData.withInterned(true).withReusable(true).withMaxMethodBytes(12).withRuntime(true);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), render(new StreamingClassWriterImpl(), metaData));
+    }
+
+    @Test
+    public void streamingMatchesFreeMarkerWithWideCompactLayout() throws IOException {
+        ClassProperty[] properties = new ClassProperty[40];
+        for (int i = 0; i < properties.length; i++) {
+            properties[i] = property("flag" + i, i % 2 == 0 ? "boolean" : "long", i == 0);
+        }
+        ClassMetaData metaData = new ClassMetaData(superClass("a.b.Flags"), properties, true).withCompact(true);
+
+        String source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        assertTrue(source.contains("private final long packedFlags;"));
+        assertTrue(source.contains("0x8000000000L"));
+    }
+
+    @Test
+    public void streamingMatchesFreeMarkerWithSparseStorage() throws IOException {
+        ClassMetaData metaData = createMetaData().withSparse(true);
+
+        String source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        assertTrue(source.contains("private final long present0;"));
+        assertFalse(source.contains("private final java.lang.String name;"));
+        assertTrue(source.contains("private final java.util.List<java.lang.String> list;"));
+        assertTrue(source.contains("return (present0 & 0x1L) != 0 ? (java.lang.String) values[0] : null;"));
+        assertTrue(source.contains("return (present0 & 0x4L) != 0 ? (a.b.Parent) values["
+                + "java.lang.Long.bitCount(present0 & 0x3L)] : null;"));
+        assertTrue(source.contains("return (present0 & 0x8L) != 0;"));
+        assertTrue(source.contains("return (GoldenSampleImpl) builder().name(name).build();"));
+
+        metaData = metaData.withInterned(true).withReusable(true).withMaxMethodBytes(12).withRuntime(true)
+                .withCompact(true);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), render(new StreamingClassWriterImpl(), metaData));
+    }
+
+    @Test
+    public void streamingMatchesFreeMarkerWithWideSparseStorage() throws IOException {
+        final String[] types = {"java.lang.String", "int", "double", "boolean", "float", "char"};
+        ClassProperty[] properties = new ClassProperty[200];
+        for (int i = 0; i < properties.length; i++) {
+            properties[i] = property("value" + i, types[i % types.length], i == 0);
+        }
+        ClassMetaData metaData = new ClassMetaData(superClass("a.b.Wide"), properties, true).withSparse(true);
+
+        String source = render(new StreamingClassWriterImpl(), metaData);
+        assertEquals(render(new FreeMarkerClassWriterImpl(), metaData), source);
+        assertTrue(source.contains("private final long present3;"));
+        assertFalse(source.contains("private final long present4;"));
+        assertTrue(source.contains("java.lang.Long.bitCount(present1) + java.lang.Long.bitCount(present2 & "));
+    }
+
+    static ClassMetaData createMetaData() {
+        return new ClassMetaData(superClass("a.b.GoldenSample"), new ClassProperty[]{
+                property("id", "long", true),
+                property("name", "java.lang.String", false),
+                property("active", "boolean", false),
+                property("list", "java.util.List<java.lang.String>", false),
+                property("set", "java.util.Set<java.lang.String>", true),
+                property("map", "java.util.Map<java.lang.String,java.lang.Object>", false),
+                property("sortedMap", "java.util.SortedMap<java.lang.String,java.lang.Object>", false),
+                property("sortedSet", "java.util.SortedSet<java.lang.String>", false),
+                property("code", "java.lang.String", true),
+                property("codes", "int[]", false),
+                nested("parent", "a.b.Parent")}, true);
+    }
+
+    static SuperClassInfo superClass(String qualifiedName) {
+        SuperClassInfo info = new SuperClassInfo();
+        info.qualifiedName = qualifiedName;
+        return info;
+    }
+
+    static ClassProperty property(String name, String type, boolean required) {
+        ClassProperty property = new ClassProperty();
+        property.name = name;
+        property.type = type;
+        property.getter = ("boolean".equals(type) ? "is" : "get") + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        property.setter = BeanUtils.determineSetter(name);
+        property.required = required;
+        return property;
+    }
+
+    static ClassProperty persistent(String name, String type) {
+        ClassProperty property = property(name, type, false);
+        property.persistent = true;
+        return property;
+    }
+
+    static ClassProperty nested(String name, String type) {
+        ClassProperty property = property(name, type, false);
+        property.immutableImpl = type + "Impl";
+        return property;
+    }
+
+    static String render(ClassWriter classWriter, ClassMetaData metaData) throws IOException {
+        StringWriter writer = new StringWriter();
+        classWriter.render(metaData, writer);
+        return writer.toString();
+    }
+
+    private static String readGoldenFile() throws IOException {
+        InputStream stream = ClassWriterGoldenFileTest.class.getResourceAsStream(GOLDEN_FILE);
+        Reader reader = new InputStreamReader(stream, "UTF-8");
+        try {
+            StringWriter content = new StringWriter();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            return content.toString();
+        } finally {
+            reader.close();
+        }
+    }
+}
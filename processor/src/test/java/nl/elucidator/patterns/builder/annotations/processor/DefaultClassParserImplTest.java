@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the properties read from diamond shaped hierarchies, and that the builders generated for them compile.
+ */
+public class DefaultClassParserImplTest extends AbstractAnnotationProcessorTest {
+
+    private static final String PACKAGE = "nl.elucidator.patterns.builder.annotations.processor.diamond.";
+
+    private static final String[] SOURCES = {"Root", "Left", "Right", "Bottom", "DeepLeft", "DeepRight", "Deep"};
+
+    private static final Map<String, ClassMetaData> META_DATA = new HashMap<String, ClassMetaData>();
+
+    private static final Map<String, List<String>> HIERARCHIES = new HashMap<String, List<String>>();
+
+    private static final List<Diagnostic<? extends JavaFileObject>> DIAGNOSTICS = new ArrayList<Diagnostic<? extends JavaFileObject>>();
+
+    private static File outputDirectory;
+
+    @BeforeClass
+    public static void compile() throws IOException, URISyntaxException {
+        outputDirectory = createOutputDirectory("diamond");
+
+        String[] sources = new String[SOURCES.length];
+        for (int i = 0; i < SOURCES.length; i++) {
+            sources[i] = "diamond/" + SOURCES[i] + ".java";
+        }
+        // The capturing processor does not claim the annotation, so the builders are generated as well.
+        DIAGNOSTICS.addAll(compileToDirectory(outputDirectory,
+                // Split the generated methods, to compile the helper methods as well
+                Collections.singletonList("-A" + MakeBuilderProcessor.MAX_METHOD_BYTES_OPTION + "=12"),
+                Arrays.<Processor>asList(new CapturingProcessor(), new MakeBuilderProcessor()), sources));
+    }
+
+    @AfterClass
+    public static void delete() {
+        deleteRecursively(outputDirectory);
+    }
+
+    @Test
+    public void generatedBuildersCompile() {
+        for (Diagnostic<? extends JavaFileObject> diagnostic : DIAGNOSTICS) {
+            assertFalse(diagnostic.toString(), diagnostic.getKind() == Diagnostic.Kind.ERROR);
+        }
+        assertTrue(new File(outputDirectory, PACKAGE.replace('.', File.separatorChar) + "DeepImpl.class").isFile());
+    }
+
+    @Test
+    public void ancestorsAreVisitedOnce() {
+        assertEquals(Arrays.asList(PACKAGE + "Root", PACKAGE + "Left", PACKAGE + "Right", PACKAGE + "Bottom"),
+                HIERARCHIES.get("Bottom"));
+        assertEquals(Arrays.asList(PACKAGE + "Root", PACKAGE + "Left", PACKAGE + "Right", PACKAGE + "Bottom",
+                PACKAGE + "DeepLeft", PACKAGE + "DeepRight", PACKAGE + "Deep"), HIERARCHIES.get("Deep"));
+    }
+
+    @Test
+    public void inheritedGettersAreMerged() {
+        assertEquals(Arrays.asList("id", "value", "name", "left", "shared", "right", "bottom"), names("Bottom"));
+        assertEquals(Arrays.asList("id", "value", "name", "left", "shared", "right", "bottom",
+                "deepLeft", "deepRight", "deep"), names("Deep"));
+    }
+
+    @Test
+    public void mostSpecificReturnTypeWins() {
+        assertEquals("java.lang.Number", property("Root", "value").getType());
+        assertEquals("java.lang.Integer", property("Bottom", "value").getType());
+        assertEquals("java.lang.Integer", property("Deep", "value").getType());
+    }
+
+    @Test
+    public void requiredIsMergedWithoutChangingTheDeclaringType() {
+        assertTrue(property("Bottom", "shared").isRequired());
+        assertTrue(property("Deep", "shared").isRequired());
+        assertFalse(property("Left", "shared").isRequired());
+        assertTrue(property("Deep", "id").isRequired());
+    }
+
+    private static List<String> names(String type) {
+        List<String> names = new ArrayList<String>();
+        for (ClassProperty property : META_DATA.get(type).getProperties()) {
+            names.add(property.getName());
+        }
+        return names;
+    }
+
+    private static ClassProperty property(String type, String name) {
+        for (ClassProperty property : META_DATA.get(type).getProperties()) {
+            if (property.getName().equals(name)) {
+                return property;
+            }
+        }
+        throw new AssertionError("No property " + name + " in " + type);
+    }
+
+    /**
+     * Reads the metadata of every @Immutable type with the default parser.
+     */
+    @SupportedAnnotationTypes(MakeBuilderProcessor.JCIP_IMMUTABLE)
+    @SupportedSourceVersion(SourceVersion.RELEASE_6)
+    private static final class CapturingProcessor extends AbstractProcessor {
+        private final ClassParser parser = new DefaultClassParserImpl();
+
+        @Override
+        public synchronized void init(ProcessingEnvironment processingEnv) {
+            super.init(processingEnv);
+            parser.init(processingEnv);
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
+            parser.startRound();
+            for (TypeElement annotation : annotations) {
+                for (Element element : env.getElementsAnnotatedWith(annotation)) {
+                    TypeElement type = (TypeElement) element;
+                    List<TypeElement> hierarchy = parser.readTypeHierarchy(type);
+                    List<String> names = new ArrayList<String>();
+                    for (TypeElement superType : hierarchy) {
+                        names.add(superType.getQualifiedName().toString());
+                    }
+                    HIERARCHIES.put(type.getSimpleName().toString(), names);
+                    META_DATA.put(type.getSimpleName().toString(), parser.readMetaData(type, hierarchy));
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Verifies the generated <code>equals</code> and <code>hashCode</code> of the implementations.
+ */
+public class EqualsHashCodeTest extends AbstractAnnotationProcessorTest {
+
+    private static final String TYPE = "nl.elucidator.patterns.builder.annotations.processor.equality.Values";
+
+    private static File outputDirectory;
+
+    private static URLClassLoader classLoader;
+
+    @BeforeClass
+    public static void compile() throws Exception {
+        outputDirectory = createOutputDirectory("equality");
+        classLoader = compileToDirectory(outputDirectory, Collections.<String>emptyList(), "equality/Values.java");
+    }
+
+    @AfterClass
+    public static void delete() throws Exception {
+        classLoader.close();
+        deleteRecursively(outputDirectory);
+    }
+
+    @Test
+    public void equalValuesAreEqual() throws Exception {
+        Object first = build();
+        Object second = build();
+
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertEquals(first.hashCode(), first.hashCode());
+    }
+
+    @Test
+    public void arraysAreComparedByContent() throws Exception {
+        Object first = build("codes", int[].class, new int[]{1, 2});
+        Object second = build("codes", int[].class, new int[]{1, 2});
+
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertFalse(first.equals(build("codes", int[].class, new int[]{2, 1})));
+        assertEquals(build("table", String[][].class, new String[][]{{"a"}}),
+                build("table", String[][].class, new String[][]{{"a"}}));
+    }
+
+    @Test
+    public void floatingPointIsComparedByBits() throws Exception {
+        assertEquals(build("amount", double.class, Double.NaN), build("amount", double.class, Double.NaN));
+        assertFalse(build("ratio", float.class, 0.0f).equals(build("ratio", float.class, -0.0f)));
+    }
+
+    @Test
+    public void everyPropertyTakesPart() throws Exception {
+        Set<Object> instances = new HashSet<Object>();
+        instances.add(build());
+        instances.add(build("name", String.class, "other"));
+        instances.add(build("count", int.class, 2));
+        instances.add(build("total", long.class, 2L));
+        instances.add(build("active", boolean.class, false));
+        instances.add(build("initial", char.class, 'b'));
+        instances.add(build("ratio", float.class, 2.0f));
+        instances.add(build("amount", double.class, 2.0d));
+        instances.add(build("codes", int[].class, new int[]{2}));
+        instances.add(build("table", String[][].class, new String[][]{{"b"}}));
+        instances.add(build("tags", List.class, Arrays.asList("b")));
+        instances.add(build());
+
+        assertEquals(11, instances.size());
+    }
+
+    @Test
+    public void otherTypesAreNotEqual() throws Exception {
+        Object instance = build();
+
+        assertFalse(instance.equals(null));
+        assertFalse(instance.equals("name"));
+    }
+
+    private static Object build() throws Exception {
+        return build("name", String.class, "name");
+    }
+
+    private static Object build(String property, Class<?> type, Object value) throws Exception {
+        Object builder = newBuilder(classLoader, TYPE);
+        invoke(builder, "name", String.class, "name");
+        invoke(builder, "count", int.class, 1);
+        invoke(builder, "total", long.class, 1L);
+        invoke(builder, "active", boolean.class, true);
+        invoke(builder, "initial", char.class, 'a');
+        invoke(builder, "ratio", float.class, 1.0f);
+        invoke(builder, "amount", double.class, 1.0d);
+        invoke(builder, "codes", int[].class, new int[]{1});
+        invoke(builder, "table", String[][].class, new String[][]{{"a"}});
+        invoke(builder, "tags", List.class, Arrays.asList("a"));
+        invoke(builder, property, type, value);
+        return build(builder);
+    }
+}
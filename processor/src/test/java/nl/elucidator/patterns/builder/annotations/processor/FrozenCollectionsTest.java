@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that the generated implementations freeze their collection properties when they are built.
+ */
+public class FrozenCollectionsTest extends AbstractAnnotationProcessorTest {
+
+    private static final String TYPE = "nl.elucidator.patterns.builder.annotations.processor.collections.Wildcards";
+
+    private static File outputDirectory;
+
+    private static URLClassLoader classLoader;
+
+    @BeforeClass
+    public static void compile() throws Exception {
+        outputDirectory = createOutputDirectory("collections");
+        classLoader = compileToDirectory(outputDirectory, Collections.<String>emptyList(),
+                "collections/Wildcards.java");
+    }
+
+    @AfterClass
+    public static void delete() throws Exception {
+        classLoader.close();
+        deleteRecursively(outputDirectory);
+    }
+
+    @Test
+    public void gettersReturnTheSameFrozenCopy() throws Exception {
+        List<String> names = new ArrayList<String>(Arrays.asList("a"));
+        Object instance = build("names", List.class, names);
+
+        names.add("b");
+        assertEquals(Arrays.asList("a"), get(instance, "getNames"));
+        assertSame(get(instance, "getNames"), get(instance, "getNames"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void copyIsReadOnly() throws Exception {
+        Object instance = build("names", List.class, new ArrayList<String>());
+
+        ((List<?>) get(instance, "getNames")).clear();
+    }
+
+    @Test
+    public void unsetCollectionsAreEmpty() throws Exception {
+        Object instance = build("names", List.class, null);
+
+        for (String getter : new String[]{"getNames", "getNumbers", "getCounts", "getSorted", "getRanked",
+                "getNested", "getRaw"}) {
+            Object value = get(instance, getter);
+            assertTrue(getter, value instanceof Map ? ((Map<?, ?>) value).isEmpty() : ((Collection<?>) value).isEmpty());
+        }
+        assertNull(get(instance, "getValues"));
+    }
+
+    @Test
+    public void sortedCopyKeepsComparator() throws Exception {
+        SortedSet<String> sorted = new TreeSet<String>(Collections.<String>reverseOrder());
+        sorted.addAll(Arrays.asList("a", "b"));
+
+        assertEquals("b", ((SortedSet<?>) get(build("sorted", SortedSet.class, sorted), "getSorted")).first());
+    }
+
+    @Test
+    public void sortedWildcardCopyKeepsComparator() throws Exception {
+        SortedMap<String, Integer> ranked = new TreeMap<String, Integer>(Collections.<String>reverseOrder());
+        ranked.put("a", 1);
+        ranked.put("b", 2);
+
+        assertEquals("b", ((SortedMap<?, ?>) get(build("ranked", SortedMap.class, ranked), "getRanked")).firstKey());
+    }
+
+    private static Object build(String property, Class<?> type, Object value) throws Exception {
+        Object builder = newBuilder(classLoader, TYPE);
+        invoke(builder, property, type, value);
+        return build(builder);
+    }
+}
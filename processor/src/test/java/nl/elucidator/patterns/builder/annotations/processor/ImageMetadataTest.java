@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.annotation.processing.Processor;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the native-image and class list metadata written for the diamond types, and the classes of the runtime
+ * module the class list adds for the types using them.
+ */
+public class ImageMetadataTest extends AbstractAnnotationProcessorTest {
+
+    private static final String PACKAGE = "nl.elucidator.patterns.builder.annotations.processor.diamond.";
+
+    private static final String[] SOURCES = {"Root", "Left", "Bottom"};
+
+    private static final String NATIVE_IMAGE = "META-INF/native-image/nl.elucidator/diamond/";
+
+    private static final String RUNTIME = "nl/elucidator/patterns/builder/annotations/runtime/";
+
+    private static File outputDirectory;
+
+    @BeforeClass
+    public static void compile() throws IOException, URISyntaxException {
+        outputDirectory = createOutputDirectory("image");
+
+        String[] sources = new String[SOURCES.length];
+        for (int i = 0; i < SOURCES.length; i++) {
+            sources[i] = "diamond/" + SOURCES[i] + ".java";
+        }
+        assertCompilationSuccessful(compileToDirectory(outputDirectory,
+                Arrays.asList("-proc:only",
+                        "-A" + MakeBuilderProcessor.NATIVE_IMAGE_OPTION + "=nl.elucidator/diamond",
+                        "-A" + MakeBuilderProcessor.CDS_CLASS_LIST_OPTION + "=META-INF/classlist"),
+                Collections.<Processor>singletonList(new MakeBuilderProcessor()), sources));
+    }
+
+    @AfterClass
+    public static void delete() {
+        deleteRecursively(outputDirectory);
+    }
+
+    @Test
+    public void classListContainsSortedTypes() throws IOException {
+        String prefix = PACKAGE.replace('.', '/');
+        assertEquals(Arrays.asList(prefix + "Bottom", prefix + "BottomImpl", prefix + "BottomImpl$Builder",
+                prefix + "Left", prefix + "LeftImpl", prefix + "LeftImpl$Builder",
+                prefix + "Root", prefix + "RootImpl", prefix + "RootImpl$Builder"), read("META-INF/classlist"));
+    }
+
+    @Test
+    public void reflectConfigRegistersImplementationsAndBuilders() throws IOException {
+        List<String> config = read(NATIVE_IMAGE + "reflect-config.json");
+
+        assertEquals("[", config.get(0));
+        assertEquals("    \"name\": \"" + PACKAGE + "BottomImpl\",", config.get(2));
+        assertEquals("    \"name\": \"" + PACKAGE + "BottomImpl$Builder\",", config.get(8));
+        assertEquals(6, count(config, "\"allDeclaredConstructors\": true"));
+        assertEquals("]", config.get(config.size() - 1));
+    }
+
+    @Test
+    public void reachabilityMetadataRegistersImplementationsAndBuilders() throws IOException {
+        List<String> metadata = read(NATIVE_IMAGE + "reachability-metadata.json");
+
+        assertEquals("  \"reflection\": [", metadata.get(1));
+        assertEquals("      \"type\": \"" + PACKAGE + "RootImpl$Builder\",", metadata.get(metadata.size() - 7));
+        assertEquals(6, count(metadata, "\"allPublicMethods\": true"));
+    }
+
+    @Test
+    public void classListContainsTheInternPool() throws Exception {
+        assertEquals(Arrays.asList(RUNTIME + "InternPool", RUNTIME + "InternPool$Segment"),
+                runtimeClassList("interned/Street.java"));
+    }
+
+    @Test
+    public void classListContainsThePrimitiveCollections() throws Exception {
+        assertEquals(Arrays.asList(RUNTIME + "ImmutableCollections", RUNTIME + "IntList", RUNTIME + "LongSet",
+                RUNTIME + "ObjectDoubleMap", RUNTIME + "OpenAddressing", RUNTIME + "PrimitiveCollections",
+                RUNTIME + "PrimitiveValueMap"),
+                runtimeClassList("image/Counters.java", "-A" + MakeBuilderProcessor.RUNTIME_OPTION + "=true"));
+        assertEquals(Collections.<String>emptyList(), runtimeClassList("image/Counters.java"));
+    }
+
+    @Test
+    public void classListContainsThePersistentCollections() throws Exception {
+        assertEquals(Arrays.asList(RUNTIME + "PersistentCollections", RUNTIME + "PersistentHashMap",
+                RUNTIME + "PersistentHashMap$BitmapNode", RUNTIME + "PersistentHashMap$CollisionNode",
+                RUNTIME + "PersistentHashMap$EntryIterator", RUNTIME + "PersistentHashMap$Node",
+                RUNTIME + "PersistentHashSet", RUNTIME + "PersistentVector"),
+                runtimeClassList("persistent/Portfolio.java"));
+    }
+
+    @Test
+    public void processorIsIsolatingWithoutMetadata() {
+        assertTrue(new MakeBuilderProcessor().getSupportedOptions().contains(MakeBuilderProcessor.GRADLE_ISOLATING));
+    }
+
+    private static List<String> read(String resource) throws IOException {
+        return Files.readAllLines(new File(outputDirectory, resource).toPath(), Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Compile a source on its own and read the classes of the runtime module in its class list.
+     */
+    private static List<String> runtimeClassList(String source, String... options) throws Exception {
+        File directory = createOutputDirectory("runtime");
+        try {
+            List<String> arguments = new ArrayList<String>(Arrays.asList(options));
+            arguments.add("-proc:only");
+            arguments.add("-A" + MakeBuilderProcessor.CDS_CLASS_LIST_OPTION + "=META-INF/classlist");
+            assertCompilationSuccessful(compileToDirectory(directory, arguments,
+                    Collections.<Processor>singletonList(new MakeBuilderProcessor()), source));
+
+            List<String> runtimeClasses = new ArrayList<String>();
+            for (String name : Files.readAllLines(new File(directory, "META-INF/classlist").toPath(),
+                    Charset.forName("UTF-8"))) {
+                if (name.startsWith(RUNTIME)) {
+                    runtimeClasses.add(name);
+                }
+            }
+            return runtimeClasses;
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    private static int count(List<String> lines, String content) {
+        int count = 0;
+        for (String line : lines) {
+            if (line.trim().equals(content) || line.trim().equals(content + ",")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import net.jcip.annotations.Immutable;
+import nl.elucidator.patterns.builder.annotations.Interned;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that the Builders of @Interned types return canonical instances.
+ */
+public class InternedTest extends AbstractAnnotationProcessorTest {
+
+    private static final String TYPE = "nl.elucidator.patterns.builder.annotations.processor.interned.Street";
+
+    private static File outputDirectory;
+
+    private static URLClassLoader classLoader;
+
+    @BeforeClass
+    public static void compile() throws Exception {
+        outputDirectory = createOutputDirectory("interned");
+        classLoader = compileToDirectory(outputDirectory, Collections.<String>emptyList(), "interned/Street.java");
+    }
+
+    @AfterClass
+    public static void delete() throws Exception {
+        classLoader.close();
+        deleteRecursively(outputDirectory);
+    }
+
+    @Test
+    public void equalInstancesAreTheSame() throws Exception {
+        Object first = build("Damrak", "Amsterdam");
+
+        assertSame(first, build("Damrak", "Amsterdam"));
+        assertNotSame(first, build("Damrak", "Haarlem"));
+
+        assertSame(first, build(get(first, "builder")));
+    }
+
+    @Test
+    public void poolCountsHitsAndMisses() throws Exception {
+        Object pool = classLoader.loadClass(TYPE + "Impl").getMethod("internPool").invoke(null);
+        long hits = (Long) pool.getClass().getMethod("getHits").invoke(pool);
+        long misses = (Long) pool.getClass().getMethod("getMisses").invoke(pool);
+
+        Object street = build("Coolsingel", "Rotterdam");
+        build("Coolsingel", "Rotterdam");
+
+        assertEquals(hits + 1, pool.getClass().getMethod("getHits").invoke(pool));
+        assertEquals(misses + 1, pool.getClass().getMethod("getMisses").invoke(pool));
+        assertTrue((Integer) pool.getClass().getMethod("size").invoke(pool) > 0);
+        assertTrue(street.hashCode() != 0);
+    }
+
+    @Test
+    public void runtimeModuleIsRequired() throws Exception {
+        // Only the annotations on the classpath, not the runtime module
+        String classPath = location(Immutable.class) + File.pathSeparator + location(Interned.class);
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = compileToDirectory(outputDirectory,
+                Arrays.asList("-proc:only", "-classpath", classPath),
+                Collections.<Processor>singletonList(new MakeBuilderProcessor()), "interned/Street.java");
+
+        boolean reported = false;
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+            reported |= diagnostic.getKind() == Diagnostic.Kind.ERROR
+                    && diagnostic.getMessage(null).startsWith("@Interned needs");
+        }
+        assertTrue(diagnostics.toString(), reported);
+    }
+
+    private static String location(Class<?> type) throws Exception {
+        return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+
+    private static Object build(String name, String city) throws Exception {
+        Object builder = newBuilder(classLoader, TYPE);
+        invoke(builder, "name", String.class, name);
+        invoke(builder, "city", String.class, city);
+        return build(builder);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import nl.elucidator.patterns.builder.annotations.runtime.PersistentHashMap;
+import nl.elucidator.patterns.builder.annotations.runtime.PersistentHashSet;
+import nl.elucidator.patterns.builder.annotations.runtime.PersistentVector;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the @Persistent collection properties and their withXxxAdded and withXxxRemoved methods.
+ */
+public class PersistentTest extends AbstractAnnotationProcessorTest {
+
+    private static final String TYPE = "nl.elucidator.patterns.builder.annotations.processor.persistent.Portfolio";
+
+    private static File outputDirectory;
+
+    private static URLClassLoader classLoader;
+
+    @BeforeClass
+    public static void compile() throws Exception {
+        outputDirectory = createOutputDirectory("persistent");
+        classLoader = compileToDirectory(outputDirectory, Collections.<String>emptyList(),
+                "persistent/Portfolio.java");
+    }
+
+    @AfterClass
+    public static void delete() throws Exception {
+        classLoader.close();
+        deleteRecursively(outputDirectory);
+    }
+
+    @Test
+    public void collectionsArePersistent() throws Exception {
+        List<Long> trades = new ArrayList<Long>(Arrays.asList(1L, 2L));
+        Object portfolio = build(trades);
+        trades.add(3L);
+
+        assertEquals(Arrays.asList(1L, 2L), get(portfolio, "getTrades"));
+        assertTrue(get(portfolio, "getTrades") instanceof PersistentVector);
+        assertTrue(get(portfolio, "getSymbols") instanceof PersistentHashSet);
+        assertTrue(get(portfolio, "getWeights") instanceof PersistentHashMap);
+
+        Object copy = build(get(portfolio, "builder"));
+        assertSame(get(portfolio, "getTrades"), get(copy, "getTrades"));
+    }
+
+    @Test
+    public void addedCopiesWithTheElement() throws Exception {
+        Object portfolio = build(Arrays.asList(1L));
+        Object copy = invoke(portfolio, "withTradesAdded", Long.class, 2L);
+
+        assertNotSame(portfolio, copy);
+        assertEquals(Arrays.asList(1L), get(portfolio, "getTrades"));
+        assertEquals(Arrays.asList(1L, 2L), get(copy, "getTrades"));
+        assertEquals("me", get(copy, "getOwner"));
+        assertSame(get(portfolio, "getSymbols"), get(copy, "getSymbols"));
+
+        copy = invoke(copy, "withSymbolsAdded", String.class, "ABC");
+        assertEquals(new HashSet<String>(Arrays.asList("ABC")), get(copy, "getSymbols"));
+        assertSame(copy, invoke(copy, "withSymbolsAdded", String.class, "ABC"));
+
+        copy = update(copy, "withWeightsAdded", "ABC", 0.5d);
+        assertEquals(Collections.singletonMap("ABC", 0.5d), get(copy, "getWeights"));
+    }
+
+    @Test
+    public void removedCopiesWithoutTheElement() throws Exception {
+        Object portfolio = build(Arrays.asList(1L, 2L, 1L));
+        Object copy = invoke(portfolio, "withTradesRemoved", Object.class, 1L);
+
+        assertEquals(Arrays.asList(2L, 1L), get(copy, "getTrades"));
+        assertSame(copy, invoke(copy, "withTradesRemoved", Object.class, 3L));
+        assertSame(copy, invoke(copy, "withSymbolsRemoved", Object.class, "ABC"));
+        assertSame(copy, invoke(copy, "withWeightsRemoved", Object.class, "ABC"));
+        assertEquals(Collections.emptyMap(),
+                get(invoke(update(copy, "withWeightsAdded", "ABC", 1d), "withWeightsRemoved", Object.class, "ABC"),
+                        "getWeights"));
+    }
+
+    @Test
+    public void onlyCollectionsArePersistent() throws Exception {
+        boolean reported = false;
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = compileToDirectory(outputDirectory,
+                Collections.<String>emptyList(), Collections.<Processor>singletonList(new MakeBuilderProcessor()),
+                "persistent/Scalar.java");
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+            reported |= diagnostic.getKind() == Diagnostic.Kind.ERROR
+                    && diagnostic.getMessage(null).startsWith("@Persistent needs a List, Set or Map property");
+        }
+        assertTrue(reported);
+    }
+
+    private static Object build(List<Long> trades) throws Exception {
+        Object builder = newBuilder(classLoader, TYPE, "me");
+        invoke(builder, "trades", List.class, trades);
+        invoke(builder, "symbols", Set.class, null);
+        invoke(builder, "weights", Map.class, null);
+        return build(builder);
+    }
+
+    private static Object update(Object instance, String method, String key, Double value) throws Exception {
+        return instance.getClass().getMethod(method, String.class, Double.class).invoke(instance, key, value);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the reusable Builders of types annotated with @ReusableBuilder.
+ */
+public class ReusableBuilderTest extends AbstractAnnotationProcessorTest {
+
+    private static final String TYPE = "nl.elucidator.patterns.builder.annotations.processor.reusable.Reading";
+
+    private static File outputDirectory;
+
+    private static URLClassLoader classLoader;
+
+    @BeforeClass
+    public static void compile() throws Exception {
+        outputDirectory = createOutputDirectory("reusable");
+        classLoader = compileToDirectory(outputDirectory, Collections.<String>emptyList(), "reusable/Reading.java");
+    }
+
+    @AfterClass
+    public static void delete() throws Exception {
+        classLoader.close();
+        deleteRecursively(outputDirectory);
+    }
+
+    @Test
+    public void builderBuildsOneInstanceAfterAnother() throws Exception {
+        Object builder = newBuilder(classLoader, TYPE);
+        List<String> tags = new ArrayList<String>(Arrays.asList("a"));
+        invoke(builder, "sensor", long.class, 1L);
+        invoke(builder, "unit", String.class, "C");
+        invoke(builder, "tags", List.class, tags);
+        Object first = build(builder);
+
+        tags.add("b");
+        invoke(builder, "sensor", long.class, 2L);
+        Object second = build(builder);
+
+        assertNotSame(first, second);
+        assertEquals(1L, get(first, "getSensor"));
+        assertEquals(Arrays.asList("a"), get(first, "getTags"));
+        assertEquals(2L, get(second, "getSensor"));
+        assertEquals(Arrays.asList("a", "b"), get(second, "getTags"));
+    }
+
+    @Test
+    public void resetClearsAllProperties() throws Exception {
+        Object builder = newBuilder(classLoader, TYPE, 1L, "C");
+        invoke(builder, "value", double.class, 2.5d);
+
+        assertSame(builder, builder.getClass().getMethod("reset").invoke(builder));
+        invoke(builder, "sensor", long.class, 3L);
+        invoke(builder, "unit", String.class, "K");
+        Object reading = build(builder);
+
+        assertEquals(0.0d, get(reading, "getValue"));
+        assertEquals(Collections.emptyList(), get(reading, "getTags"));
+    }
+
+    @Test
+    public void unsetRequiredPropertiesAreReported() throws Exception {
+        Object builder = newBuilder(classLoader, TYPE);
+        invoke(builder, "sensor", long.class, 1L);
+
+        assertEquals("Required property unit is not set", buildFailure(builder));
+
+        invoke(builder, "unit", String.class, "C");
+        build(builder);
+        builder.getClass().getMethod("reset").invoke(builder);
+        assertEquals("Required property sensor is not set", buildFailure(builder));
+    }
+
+    @Test
+    public void everyThreadHasItsOwnBuilder() throws Exception {
+        final Class<?> implClass = classLoader.loadClass(TYPE + "Impl");
+        Object builder = implClass.getMethod("reusableBuilder").invoke(null);
+        invoke(builder, "sensor", long.class, 1L);
+
+        assertSame(builder, implClass.getMethod("reusableBuilder").invoke(null));
+        assertEquals("Required property sensor is not set", buildFailure(builder));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Object other = executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    return implClass.getMethod("reusableBuilder").invoke(null);
+                }
+            }).get();
+            assertNotSame(builder, other);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String buildFailure(Object builder) throws Exception {
+        try {
+            build(builder);
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            return e.getCause().getMessage();
+        }
+        throw new AssertionError("Built without the required properties");
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the keys, the integrity check and the eviction of the {@link SourceCache}.
+ */
+public class SourceCacheTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private static final ClassWriter WRITER = new StreamingClassWriterImpl();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SourceCache createCache(String fingerprint, long maxBytes) {
+        return new SourceCache(folder.getRoot(), fingerprint, maxBytes, 30 * DAY);
+    }
+
+    @Test
+    public void storedSourceIsFound() {
+        SourceCache cache = createCache("v1", Long.MAX_VALUE);
+        String key = cache.key(ClassWriterGoldenFileTest.createMetaData(), WRITER);
+
+        assertNull(cache.get(key));
+        cache.put(key, "source é");
+
+        assertEquals("source é", createCache("v1", Long.MAX_VALUE).get(key));
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void keyDependsOnFingerprintAndMetaData() {
+        SourceCache cache = createCache("v1", Long.MAX_VALUE);
+        String key = cache.key(ClassWriterGoldenFileTest.createMetaData(), WRITER);
+
+        assertEquals(key, cache.key(ClassWriterGoldenFileTest.createMetaData(), WRITER));
+        assertFalse(key.equals(createCache("v2", Long.MAX_VALUE).key(ClassWriterGoldenFileTest.createMetaData(), WRITER)));
+
+        ClassProperty[] properties = ClassWriterGoldenFileTest.createMetaData().getProperties();
+        properties[0] = ClassWriterGoldenFileTest.property("id", "long", false);
+        ClassMetaData changed = new ClassMetaData(ClassWriterGoldenFileTest.superClass("a.b.GoldenSample"), properties, true);
+        assertFalse(key.equals(cache.key(changed, WRITER)));
+        assertFalse(key.equals(cache.key(ClassWriterGoldenFileTest.createMetaData(), new FreeMarkerClassWriterImpl())));
+    }
+
+    @Test
+    public void corruptEntryIsAMiss() throws IOException {
+        SourceCache cache = createCache("v1", Long.MAX_VALUE);
+        String key = cache.key(ClassWriterGoldenFileTest.createMetaData(), WRITER);
+        cache.put(key, "source");
+
+        File entry = folder.getRoot().listFiles()[0].listFiles()[0];
+        FileOutputStream out = new FileOutputStream(entry, true);
+        try {
+            out.write('x');
+        } finally {
+            out.close();
+        }
+
+        assertNull(cache.get(key));
+        assertFalse(entry.exists());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() {
+        SourceCache cache = createCache("v1", 200);
+        String[] keys = {key(cache, "a.A"), key(cache, "a.B"), key(cache, "a.C")};
+        for (int i = 0; i < keys.length; i++) {
+            cache.put(keys[i], new String(new char[90]));
+            entry(keys[i]).setLastModified(System.currentTimeMillis() - (keys.length - i) * DAY);
+        }
+        entry(keys[2]).setLastModified(System.currentTimeMillis() - 40 * DAY);
+
+        cache.evict();
+
+        assertFalse(entry(keys[0]).exists());
+        assertEquals(true, entry(keys[1]).exists());
+        assertFalse(entry(keys[2]).exists());
+    }
+
+    @Test
+    public void evictionKeepsFilesTheCacheDidNotWrite() throws IOException {
+        SourceCache cache = createCache("v1", 0);
+        String key = key(cache, "a.A");
+        cache.put(key, "source");
+        File bucket = entry(key).getParentFile();
+        File[] foreign = {folder.newFile("notes.txt"), new File(bucket, "notes.txt"), new File(bucket, key + ".java"),
+                new File(folder.newFolder("docs"), key + ".java.cached")};
+        for (File file : foreign) {
+            file.createNewFile();
+            file.setLastModified(System.currentTimeMillis() - 40 * DAY);
+        }
+
+        cache.evict();
+
+        assertFalse(entry(key).exists());
+        for (File file : foreign) {
+            assertTrue(file.getPath(), file.exists());
+        }
+    }
+
+    private static String key(SourceCache cache, String qualifiedName) {
+        ClassMetaData metaData = new ClassMetaData(ClassWriterGoldenFileTest.superClass(qualifiedName), new ClassProperty[0], true);
+        return cache.key(metaData, WRITER);
+    }
+
+    private File entry(String key) {
+        return new File(new File(folder.getRoot(), key.substring(0, 2)), key + ".java.cached");
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the generated <code>toString</code> and <code>appendTo</code> of the implementations.
+ */
+public class ToStringTest extends AbstractAnnotationProcessorTest {
+
+    private static final String PACKAGE = "nl.elucidator.patterns.builder.annotations.processor.text.";
+
+    private static File outputDirectory;
+
+    private static URLClassLoader classLoader;
+
+    @BeforeClass
+    public static void compile() throws Exception {
+        outputDirectory = createOutputDirectory("text");
+        classLoader = compileToDirectory(outputDirectory, Collections.<String>emptyList(), "text/Account.java",
+                "text/Owner.java");
+    }
+
+    @AfterClass
+    public static void delete() throws Exception {
+        classLoader.close();
+        deleteRecursively(outputDirectory);
+    }
+
+    @Test
+    public void nestedImmutablesAreAppended() throws Exception {
+        Object account = account(owner("Jan"), new int[]{1, 2}, "note");
+
+        assertEquals("Account{id=7, owner=Owner{name=Jan}, codes=[1, 2], note=note}", account.toString());
+    }
+
+    @Test
+    public void unsetPropertiesAreNull() throws Exception {
+        assertEquals("Account{id=7, owner=null, codes=null, note=null}", account(null, null, null).toString());
+    }
+
+    @Test
+    public void appendsToTheGivenBuffer() throws Exception {
+        Object account = account(owner("Jan"), null, null);
+        StringBuilder sb = new StringBuilder("account: ");
+
+        Object result = invoke(account, "appendTo", StringBuilder.class, sb);
+
+        assertSame(sb, result);
+        assertEquals("account: " + account, sb.toString());
+    }
+
+    @Test
+    public void appendsToAnyAppendable() throws Exception {
+        Object account = account(owner("Jan"), null, "note");
+        StringWriter writer = new StringWriter();
+
+        invoke(account, "appendTo", Appendable.class, writer);
+
+        assertEquals(account.toString(), writer.toString());
+    }
+
+    @Test
+    public void appendsValuesToTheAppendableDirectly() throws Exception {
+        Object account = account(owner("Jan"), new int[]{1, 2}, "note");
+        final List<String> appended = new ArrayList<String>();
+        Appendable out = new Appendable() {
+            public Appendable append(CharSequence csq) {
+                appended.add(String.valueOf(csq));
+                return this;
+            }
+
+            public Appendable append(CharSequence csq, int start, int end) {
+                return append(String.valueOf(csq).subSequence(start, end));
+            }
+
+            public Appendable append(char c) {
+                return append(String.valueOf(c));
+            }
+        };
+
+        invoke(account, "appendTo", Appendable.class, out);
+
+        StringBuilder written = new StringBuilder();
+        for (String value : appended) {
+            written.append(value);
+        }
+        assertEquals(account.toString(), written.toString());
+        assertTrue(appended.contains("Jan"));
+        assertTrue(appended.contains("2"));
+    }
+
+    private static Object owner(String name) throws Exception {
+        Object builder = newBuilder(classLoader, PACKAGE + "Owner");
+        invoke(builder, "name", String.class, name);
+        return build(builder);
+    }
+
+    private static Object account(Object owner, int[] codes, String note) throws Exception {
+        Object builder = newBuilder(classLoader, PACKAGE + "Account", 7L);
+        invoke(builder, "owner", classLoader.loadClass(PACKAGE + "Owner"), owner);
+        invoke(builder, "codes", int[].class, codes);
+        invoke(builder, "note", String.class, note);
+        return build(builder);
+    }
+}
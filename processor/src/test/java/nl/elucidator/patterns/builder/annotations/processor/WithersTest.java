@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.processor;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Verifies the withers of the generated implementations.
+ */
+public class WithersTest extends AbstractAnnotationProcessorTest {
+
+    private static final String TYPE = "nl.elucidator.patterns.builder.annotations.processor.withers.Position";
+
+    private static File outputDirectory;
+
+    private static URLClassLoader classLoader;
+
+    @BeforeClass
+    public static void compile() throws Exception {
+        outputDirectory = createOutputDirectory("withers");
+        classLoader = compileToDirectory(outputDirectory, Collections.<String>emptyList(), "withers/Position.java");
+    }
+
+    @AfterClass
+    public static void delete() throws Exception {
+        classLoader.close();
+        deleteRecursively(outputDirectory);
+    }
+
+    @Test
+    public void sameValueReturnsThis() throws Exception {
+        Object position = position();
+
+        assertSame(position, invoke(position, "withSymbol", String.class, get(position, "getSymbol")));
+        assertSame(position, invoke(position, "withQuantity", long.class, 10L));
+        assertSame(position, invoke(position, "withPrice", double.class, 2.5d));
+        assertSame(position, invoke(position, "withTags", List.class, get(position, "getTags")));
+    }
+
+    @Test
+    public void otherValueCopiesTheOtherProperties() throws Exception {
+        Object position = position();
+        Object copy = invoke(position, "withQuantity", long.class, 20L);
+
+        assertNotSame(position, copy);
+        assertEquals(20L, get(copy, "getQuantity"));
+        assertEquals("ABC", get(copy, "getSymbol"));
+        assertEquals(2.5d, get(copy, "getPrice"));
+        assertSame(get(position, "getTags"), get(copy, "getTags"));
+        assertEquals(10L, get(position, "getQuantity"));
+        assertEquals(invoke(copy, "withQuantity", long.class, 10L), position);
+    }
+
+    @Test
+    public void collectionsAreCopied() throws Exception {
+        List<String> tags = new ArrayList<String>(Arrays.asList("x"));
+        Object copy = invoke(position(), "withTags", List.class, tags);
+        tags.add("y");
+
+        assertEquals(Arrays.asList("x"), get(copy, "getTags"));
+        assertEquals(Collections.emptyList(), get(invoke(copy, "withTags", List.class, null), "getTags"));
+    }
+
+    @Test
+    public void floatingPointValuesAreComparedByTheirBits() throws Exception {
+        Object nan = invoke(position(), "withPrice", double.class, Double.NaN);
+
+        assertSame(nan, invoke(nan, "withPrice", double.class, Double.NaN));
+
+        Object zero = invoke(nan, "withPrice", double.class, 0.0d);
+        Object negativeZero = invoke(zero, "withPrice", double.class, -0.0d);
+        assertNotSame(zero, negativeZero);
+        assertEquals(Double.doubleToLongBits(-0.0d), Double.doubleToLongBits((Double) get(negativeZero, "getPrice")));
+    }
+
+    private static Object position() throws Exception {
+        Object builder = newBuilder(classLoader, TYPE, "ABC");
+        invoke(builder, "quantity", long.class, 10L);
+        invoke(builder, "price", double.class, 2.5d);
+        invoke(builder, "tags", List.class, Arrays.asList("a"));
+        return build(builder);
+    }
+}
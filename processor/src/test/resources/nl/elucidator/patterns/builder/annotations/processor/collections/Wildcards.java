@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.processor.collections;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Collection properties with wildcards, nested and raw type arguments.
+ */
+@Immutable
+public interface Wildcards {
+
+    List<String> getNames();
+
+    Set<? extends Number> getNumbers();
+
+    Map<String, ? super Integer> getCounts();
+
+    SortedSet<String> getSorted();
+
+    SortedMap<String, ? extends Number> getRanked();
+
+    List<Map<String, List<?>>> getNested();
+
+    @SuppressWarnings("rawtypes")
+    List getRaw();
+
+    Collection<String> getValues();
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * An unmodifiable <code>List&lt;Double&gt;</code> backed by a <code>double[]</code>, the frozen copy of a list
+ * property of Double elements.
+ * <p/>
+ * The elements take 8 bytes each instead of a reference to a boxed value, {@link #getDoubleAt(int)} reads
+ * them without boxing.
+ */
+public final class DoubleList extends AbstractList<Double> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final DoubleList EMPTY = new DoubleList(new double[0]);
+
+    private final double[] values;
+
+    DoubleList(double[] values) {
+        this.values = values;
+    }
+
+    /**
+     * @param index The index of the element.
+     * @return The element, without boxing it.
+     */
+    public double getDoubleAt(int index) {
+        if (index < 0 || index >= values.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + values.length);
+        }
+        return values[index];
+    }
+
+    /**
+     * @return A copy of the elements.
+     */
+    public double[] toDoubleArray() {
+        return values.clone();
+    }
+
+    @Override
+    public Double get(int index) {
+        return getDoubleAt(index);
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (o instanceof Double) {
+            // Double.equals compares the bits, NaN equals NaN and 0.0 differs from -0.0
+            final long bits = Double.doubleToLongBits((Double) o);
+            for (int i = 0; i < values.length; i++) {
+                if (Double.doubleToLongBits(values[i]) == bits) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (double value : values) {
+            final long bits = Double.doubleToLongBits(value);
+            hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Frozen copies of the collection properties of the generated implementations.
+ * <p/>
+ * The implementation copies every collection property once, when it is constructed, into an unmodifiable
+ * collection, and an unset property into an empty one, so the getters return the field as it is.
+ * Generated with <code>-Abuilder.runtime=true</code>, the constructors call these methods instead of each
+ * carrying its own copy of that code, and the empty collections are shared singletons.
+ */
+public final class ImmutableCollections {
+
+    private static final SortedSet<Object> EMPTY_SORTED_SET =
+            Collections.unmodifiableSortedSet(new TreeSet<Object>());
+
+    private static final SortedMap<Object, Object> EMPTY_SORTED_MAP =
+            Collections.unmodifiableSortedMap(new TreeMap<Object, Object>());
+
+    private ImmutableCollections() {
+    }
+
+    /**
+     * @param list The list, may be <code>null</code>.
+     * @return An unmodifiable copy of the list, the empty list for <code>null</code>.
+     */
+    public static <T> List<T> copyOfList(List<? extends T> list) {
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<T>(list));
+    }
+
+    /**
+     * @param set The set, may be <code>null</code>.
+     * @return An unmodifiable copy of the set in the same iteration order, the empty set for <code>null</code>.
+     */
+    public static <T> Set<T> copyOfSet(Set<? extends T> set) {
+        if (set == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(new LinkedHashSet<T>(set));
+    }
+
+    /**
+     * @param map The map, may be <code>null</code>.
+     * @return An unmodifiable copy of the map in the same iteration order, the empty map for <code>null</code>.
+     */
+    public static <K, V> Map<K, V> copyOfMap(Map<? extends K, ? extends V> map) {
+        if (map == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(new LinkedHashMap<K, V>(map));
+    }
+
+    /**
+     * @param set The set, may be <code>null</code>.
+     * @return An unmodifiable copy of the set with the same comparator, an empty set with natural ordering
+     *         for <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> SortedSet<T> copyOfSortedSet(SortedSet<T> set) {
+        if (set == null) {
+            return (SortedSet<T>) EMPTY_SORTED_SET;
+        }
+        return Collections.unmodifiableSortedSet(new TreeSet<T>(set));
+    }
+
+    /**
+     * @param map The map, may be <code>null</code>.
+     * @return An unmodifiable copy of the map with the same comparator, an empty map with natural ordering
+     *         for <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> SortedMap<K, V> copyOfSortedMap(SortedMap<K, ? extends V> map) {
+        if (map == null) {
+            return (SortedMap<K, V>) EMPTY_SORTED_MAP;
+        }
+        return Collections.unmodifiableSortedMap(new TreeMap<K, V>(map));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An unmodifiable <code>Set&lt;Integer&gt;</code> backed by a <code>int[]</code>, the frozen copy of a set
+ * property of Integer elements.
+ * <p/>
+ * The elements keep the iteration order of the copied set. They are found through an open addressing table of
+ * positions, {@link #containsInt(int)} looks them up without boxing.
+ */
+public final class IntSet extends AbstractSet<Integer> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final IntSet EMPTY = new IntSet(new int[0]);
+
+    private final int[] values;
+
+    /* The position in values plus one of the element hashed to each slot, 0 for free slots */
+    private final int[] table;
+
+    /**
+     * @param values Distinct elements, in iteration order.
+     */
+    IntSet(int[] values) {
+        this.values = values;
+        this.table = new int[OpenAddressing.tableSize(values.length)];
+        final int mask = table.length - 1;
+        for (int i = 0; i < values.length; i++) {
+            int slot = slot(values[i]);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * @param value The element to look for.
+     * @return <code>true</code> if the set contains the element.
+     */
+    public boolean containsInt(int value) {
+        final int mask = table.length - 1;
+        for (int slot = slot(value); table[slot] != 0; slot = (slot + 1) & mask) {
+            if (values[table[slot] - 1] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param index The position of the element in the iteration order.
+     * @return The element, without boxing it.
+     */
+    public int getIntAt(int index) {
+        if (index < 0 || index >= values.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + values.length);
+        }
+        return values[index];
+    }
+
+    /**
+     * @return A copy of the elements, in iteration order.
+     */
+    public int[] toIntArray() {
+        return values.clone();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Integer && containsInt((Integer) o);
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        return new Iterator<Integer>() {
+            private int next;
+
+            public boolean hasNext() {
+                return next < values.length;
+            }
+
+            public Integer next() {
+                if (next >= values.length) {
+                    throw new NoSuchElementException();
+                }
+                return values[next++];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int value : values) {
+            hash += value;
+        }
+        return hash;
+    }
+
+    private int slot(int value) {
+        return OpenAddressing.mix(value) & (table.length - 1);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Canonical instances of an @Interned type, returned by the <code>build()</code> method of its Builder.
+ * <p/>
+ * The pool refers to its instances weakly, an instance no longer used elsewhere is collected and dropped from the
+ * pool. The instances are spread over segments by their hash code, each guarded by its own lock, so concurrent
+ * builders rarely wait for each other. The hash codes of the generated implementations are cached, interning
+ * costs a single hash lookup and the <code>equals</code> calls of that lookup.
+ *
+ * @param <T> The type of the instances.
+ */
+public final class InternPool<T> {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<T>[] segments;
+
+    @SuppressWarnings("unchecked")
+    public InternPool() {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<T>();
+        }
+    }
+
+    /**
+     * Get the canonical instance equal to the given one.
+     *
+     * @param instance The instance.
+     * @return The instance added to the pool earlier when there is one, otherwise the given instance, which
+     *         becomes the canonical instance.
+     */
+    public T intern(T instance) {
+        final Segment<T> segment = segment(instance.hashCode());
+        synchronized (segment) {
+            final WeakReference<T> reference = segment.instances.get(instance);
+            final T canonical = reference == null ? null : reference.get();
+            if (canonical != null) {
+                segment.hits++;
+                return canonical;
+            }
+            segment.instances.put(instance, new WeakReference<T>(instance));
+            segment.misses++;
+            return instance;
+        }
+    }
+
+    /**
+     * @return The number of calls to {@link #intern(Object)} that returned an instance added earlier.
+     */
+    public long getHits() {
+        long hits = 0;
+        for (Segment<T> segment : segments) {
+            synchronized (segment) {
+                hits += segment.hits;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * @return The number of calls to {@link #intern(Object)} that added the given instance.
+     */
+    public long getMisses() {
+        long misses = 0;
+        for (Segment<T> segment : segments) {
+            synchronized (segment) {
+                misses += segment.misses;
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * @return The number of canonical instances that have not been collected.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<T> segment : segments) {
+            synchronized (segment) {
+                size += segment.instances.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "InternPool{hits=" + getHits() + ", misses=" + getMisses() + ", size=" + size() + '}';
+    }
+
+    private Segment<T> segment(int hash) {
+        // Use the high bits as well, the low bits of a hash code vary least.
+        return segments[(hash ^ (hash >>> 16) ^ (hash >>> 8)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * A part of the pool with its own lock.
+     */
+    private static final class Segment<T> {
+        /* The instances refer to themselves weakly, the map keeps its keys weakly */
+        final Map<T, WeakReference<T>> instances = new WeakHashMap<T, WeakReference<T>>();
+        long hits;
+        long misses;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * An unmodifiable <code>List&lt;Long&gt;</code> backed by a <code>long[]</code>, the frozen copy of a list
+ * property of Long elements.
+ * <p/>
+ * The elements take 8 bytes each instead of a reference to a boxed value, {@link #getLongAt(int)} reads
+ * them without boxing.
+ */
+public final class LongList extends AbstractList<Long> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final LongList EMPTY = new LongList(new long[0]);
+
+    private final long[] values;
+
+    LongList(long[] values) {
+        this.values = values;
+    }
+
+    /**
+     * @param index The index of the element.
+     * @return The element, without boxing it.
+     */
+    public long getLongAt(int index) {
+        if (index < 0 || index >= values.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + values.length);
+        }
+        return values[index];
+    }
+
+    /**
+     * @return A copy of the elements.
+     */
+    public long[] toLongArray() {
+        return values.clone();
+    }
+
+    @Override
+    public Long get(int index) {
+        return getLongAt(index);
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (o instanceof Long) {
+            final long value = (Long) o;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == value) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (long value : values) {
+            hash = 31 * hash + (int) (value ^ (value >>> 32));
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An unmodifiable <code>Set&lt;Long&gt;</code> backed by a <code>long[]</code>, the frozen copy of a set
+ * property of Long elements.
+ * <p/>
+ * The elements keep the iteration order of the copied set. They are found through an open addressing table of
+ * positions, {@link #containsLong(long)} looks them up without boxing.
+ */
+public final class LongSet extends AbstractSet<Long> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final LongSet EMPTY = new LongSet(new long[0]);
+
+    private final long[] values;
+
+    /* The position in values plus one of the element hashed to each slot, 0 for free slots */
+    private final int[] table;
+
+    /**
+     * @param values Distinct elements, in iteration order.
+     */
+    LongSet(long[] values) {
+        this.values = values;
+        this.table = new int[OpenAddressing.tableSize(values.length)];
+        final int mask = table.length - 1;
+        for (int i = 0; i < values.length; i++) {
+            int slot = slot(values[i]);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * @param value The element to look for.
+     * @return <code>true</code> if the set contains the element.
+     */
+    public boolean containsLong(long value) {
+        final int mask = table.length - 1;
+        for (int slot = slot(value); table[slot] != 0; slot = (slot + 1) & mask) {
+            if (values[table[slot] - 1] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param index The position of the element in the iteration order.
+     * @return The element, without boxing it.
+     */
+    public long getLongAt(int index) {
+        if (index < 0 || index >= values.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + values.length);
+        }
+        return values[index];
+    }
+
+    /**
+     * @return A copy of the elements, in iteration order.
+     */
+    public long[] toLongArray() {
+        return values.clone();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && containsLong((Long) o);
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        return new Iterator<Long>() {
+            private int next;
+
+            public boolean hasNext() {
+                return next < values.length;
+            }
+
+            public Long next() {
+                if (next >= values.length) {
+                    throw new NoSuchElementException();
+                }
+                return values[next++];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (long value : values) {
+            hash += (int) (value ^ (value >>> 32));
+        }
+        return hash;
+    }
+
+    private int slot(long value) {
+        return OpenAddressing.mix((int) (value ^ (value >>> 32))) & (table.length - 1);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+/**
+ * An unmodifiable <code>Map&lt;K, Double&gt;</code> with its values in a <code>double[]</code>, the frozen copy of
+ * a map property with Double values. {@link #getDouble(Object, double)} and {@link #getDoubleAt(int)} read the
+ * values without boxing.
+ *
+ * @param <K> The type of the keys.
+ */
+public final class ObjectDoubleMap<K> extends PrimitiveValueMap<K, Double> {
+
+    private static final long serialVersionUID = 1L;
+
+    static final ObjectDoubleMap<Object> EMPTY = new ObjectDoubleMap<Object>(new Object[0], new double[0]);
+
+    private final double[] values;
+
+    /**
+     * @param keys   Distinct keys, in iteration order.
+     * @param values The values of the keys at the same positions.
+     */
+    ObjectDoubleMap(Object[] keys, double[] values) {
+        super(keys);
+        this.values = values;
+    }
+
+    /**
+     * @param key          The key to look for.
+     * @param defaultValue The value to return when the map does not contain the key.
+     * @return The value of the key, without boxing it.
+     */
+    public double getDouble(Object key, double defaultValue) {
+        final int index = indexOfKey(key);
+        return index < 0 ? defaultValue : values[index];
+    }
+
+    /**
+     * @param index The position of the entry in the iteration order.
+     * @return The value of the entry, without boxing it.
+     */
+    public double getDoubleAt(int index) {
+        if (index < 0 || index >= values.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + values.length);
+        }
+        return values[index];
+    }
+
+    @Override
+    Double valueAt(int index) {
+        return values[index];
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+/**
+ * An unmodifiable <code>Map&lt;K, Integer&gt;</code> with its values in a <code>int[]</code>, the frozen copy of
+ * a map property with Integer values. {@link #getInt(Object, int)} and {@link #getIntAt(int)} read the
+ * values without boxing.
+ *
+ * @param <K> The type of the keys.
+ */
+public final class ObjectIntMap<K> extends PrimitiveValueMap<K, Integer> {
+
+    private static final long serialVersionUID = 1L;
+
+    static final ObjectIntMap<Object> EMPTY = new ObjectIntMap<Object>(new Object[0], new int[0]);
+
+    private final int[] values;
+
+    /**
+     * @param keys   Distinct keys, in iteration order.
+     * @param values The values of the keys at the same positions.
+     */
+    ObjectIntMap(Object[] keys, int[] values) {
+        super(keys);
+        this.values = values;
+    }
+
+    /**
+     * @param key          The key to look for.
+     * @param defaultValue The value to return when the map does not contain the key.
+     * @return The value of the key, without boxing it.
+     */
+    public int getInt(Object key, int defaultValue) {
+        final int index = indexOfKey(key);
+        return index < 0 ? defaultValue : values[index];
+    }
+
+    /**
+     * @param index The position of the entry in the iteration order.
+     * @return The value of the entry, without boxing it.
+     */
+    public int getIntAt(int index) {
+        if (index < 0 || index >= values.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + values.length);
+        }
+        return values[index];
+    }
+
+    @Override
+    Integer valueAt(int index) {
+        return values[index];
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+/**
+ * An unmodifiable <code>Map&lt;K, Long&gt;</code> with its values in a <code>long[]</code>, the frozen copy of
+ * a map property with Long values. {@link #getLong(Object, long)} and {@link #getLongAt(int)} read the
+ * values without boxing.
+ *
+ * @param <K> The type of the keys.
+ */
+public final class ObjectLongMap<K> extends PrimitiveValueMap<K, Long> {
+
+    private static final long serialVersionUID = 1L;
+
+    static final ObjectLongMap<Object> EMPTY = new ObjectLongMap<Object>(new Object[0], new long[0]);
+
+    private final long[] values;
+
+    /**
+     * @param keys   Distinct keys, in iteration order.
+     * @param values The values of the keys at the same positions.
+     */
+    ObjectLongMap(Object[] keys, long[] values) {
+        super(keys);
+        this.values = values;
+    }
+
+    /**
+     * @param key          The key to look for.
+     * @param defaultValue The value to return when the map does not contain the key.
+     * @return The value of the key, without boxing it.
+     */
+    public long getLong(Object key, long defaultValue) {
+        final int index = indexOfKey(key);
+        return index < 0 ? defaultValue : values[index];
+    }
+
+    /**
+     * @param index The position of the entry in the iteration order.
+     * @return The value of the entry, without boxing it.
+     */
+    public long getLongAt(int index) {
+        if (index < 0 || index >= values.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + values.length);
+        }
+        return values[index];
+    }
+
+    @Override
+    Long valueAt(int index) {
+        return values[index];
+    }
+}
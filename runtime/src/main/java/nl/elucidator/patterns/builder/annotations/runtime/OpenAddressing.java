@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+/**
+ * Shared arithmetic of the open addressing tables of the primitive collections.
+ */
+final class OpenAddressing {
+
+    private OpenAddressing() {
+    }
+
+    /**
+     * @param size The number of entries.
+     * @return The number of slots for the entries, a power of two with at least half of the slots free.
+     */
+    static int tableSize(int size) {
+        int slots = 2;
+        while (slots < 2L * size) {
+            slots <<= 1;
+        }
+        return slots;
+    }
+
+    /**
+     * Spread the bits of a hash code, the low bits used as slot vary little for small numbers and for many
+     * <code>hashCode</code> implementations.
+     *
+     * @param hash The hash code.
+     * @return The mixed hash code.
+     */
+    static int mix(int hash) {
+        final int h = (hash ^ (hash >>> 16)) * 0x85ebca6b;
+        return h ^ (h >>> 13);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent copies of the collection properties annotated with <code>@Persistent</code>.
+ * <p/>
+ * The constructors of the implementations call these methods for such properties. A collection that is
+ * persistent already is kept as it is, so an instance built from a Builder of another instance shares its
+ * collections, and the generated <code>withXxxAdded</code> and <code>withXxxRemoved</code> methods update them in
+ * O(log n).
+ */
+public final class PersistentCollections {
+
+    private PersistentCollections() {
+    }
+
+    /**
+     * @param list The list, may be <code>null</code>.
+     * @return The list itself when it is a {@link PersistentVector}, otherwise a copy, the empty list for
+     *         <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> PersistentVector<T> copyOfList(List<? extends T> list) {
+        if (list == null) {
+            return PersistentVector.empty();
+        }
+        if (list instanceof PersistentVector) {
+            // Immutable, so a vector of a subtype is a vector of the type as well
+            return (PersistentVector<T>) list;
+        }
+        return PersistentVector.of(list.toArray());
+    }
+
+    /**
+     * @param set The set, may be <code>null</code>.
+     * @return The set itself when it is a {@link PersistentHashSet}, otherwise a copy, the empty set for
+     *         <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> PersistentHashSet<T> copyOfSet(Set<? extends T> set) {
+        if (set instanceof PersistentHashSet) {
+            return (PersistentHashSet<T>) set;
+        }
+        PersistentHashSet<T> copy = PersistentHashSet.empty();
+        if (set != null) {
+            for (T element : set) {
+                copy = copy.plus(element);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @param map The map, may be <code>null</code>.
+     * @return The map itself when it is a {@link PersistentHashMap}, otherwise a copy, the empty map for
+     *         <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> copyOfMap(Map<? extends K, ? extends V> map) {
+        if (map instanceof PersistentHashMap) {
+            return (PersistentHashMap<K, V>) map;
+        }
+        PersistentHashMap<K, V> copy = PersistentHashMap.empty();
+        if (map != null) {
+            for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+                copy = copy.plus(entry.getKey(), entry.getValue());
+            }
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable map updated by copying: {@link #plus(Object, Object)} and {@link #minus(Object)} return a new map
+ * sharing all but one path of the tree with this one, in O(log n) time and memory.
+ * <p/>
+ * A hash array mapped trie: every level of the tree uses 5 bits of the hash code of a key, a node keeps a
+ * bitmap of the children present and an array of just those, keys and values inline. Keys with the same hash
+ * code share a collision node at the bottom. The entries are iterated in the order of their hash codes.
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    /* Seven levels use all 32 bits of the hash code, a collision node is below those */
+    private static final int MAX_DEPTH = 8;
+
+    /* Stands in for the null key, so a null in the key position of a node always refers to a child node */
+    private static final Object NULL_KEY = new Object();
+
+    /* Returned by the lookups for absent keys, to tell them from keys mapped to null */
+    private static final Object ABSENT = new Object();
+
+    static final PersistentHashMap<Object, Object> EMPTY = new PersistentHashMap<Object, Object>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private transient Set<Map.Entry<K, V>> entrySet;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @return The empty map.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * @param key   The key.
+     * @param value The value.
+     * @return This map when it maps the key to the same value already, otherwise a map with the key mapped to
+     *         the value.
+     */
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        final Object masked = key == null ? NULL_KEY : key;
+        final boolean[] added = new boolean[1];
+        final Node newRoot = root == null
+                ? new BitmapNode(0, new Object[0]).put(0, hash(masked), masked, value, added)
+                : root.put(0, hash(masked), masked, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<K, V>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * @param key The key.
+     * @return This map when it does not contain the key, otherwise a map without it.
+     */
+    public PersistentHashMap<K, V> minus(Object key) {
+        if (root == null) {
+            return this;
+        }
+        final Object masked = key == null ? NULL_KEY : key;
+        final Node newRoot = root.remove(0, hash(masked), masked);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<K, V>(newRoot, size - 1);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        final Object value = find(key);
+        return value == ABSENT ? null : (V) value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != ABSENT;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> entries = entrySet;
+        if (entries == null) {
+            entries = new AbstractSet<Map.Entry<K, V>>() {
+                @Override
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    return new EntryIterator<K, V>(root);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+            entrySet = entries;
+        }
+        return entries;
+    }
+
+    private Object find(Object key) {
+        if (root == null) {
+            return ABSENT;
+        }
+        final Object masked = key == null ? NULL_KEY : key;
+        return root.find(0, hash(masked), masked);
+    }
+
+    private static int hash(Object key) {
+        final int h = key == NULL_KEY ? 0 : key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private Object writeReplace() {
+        return new SerializedForm(this);
+    }
+
+    private void readObject(ObjectInputStream stream) throws InvalidObjectException {
+        throw new InvalidObjectException("Serialized through its SerializedForm");
+    }
+
+    /**
+     * A node of the trie, its array holds key and value pairs. A <code>null</code> key marks a child node in the
+     * value position.
+     */
+    private abstract static class Node {
+        final Object[] array;
+
+        Node(Object[] array) {
+            this.array = array;
+        }
+
+        abstract Object find(int shift, int hash, Object key);
+
+        /**
+         * @return This node when unchanged, otherwise the updated copy.
+         */
+        abstract Node put(int shift, int hash, Object key, Object value, boolean[] added);
+
+        /**
+         * @return This node when unchanged, otherwise the updated copy, <code>null</code> when it is empty.
+         */
+        abstract Node remove(int shift, int hash, Object key);
+    }
+
+    private static final class BitmapNode extends Node {
+        private final int bitmap;
+
+        BitmapNode(int bitmap, Object[] array) {
+            super(array);
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            final int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return ABSENT;
+            }
+            final int index = 2 * Integer.bitCount(bitmap & (bit - 1));
+            final Object existing = array[index];
+            if (existing == null) {
+                return ((Node) array[index + 1]).find(shift + BITS, hash, key);
+            }
+            return key.equals(existing) ? array[index + 1] : ABSENT;
+        }
+
+        @Override
+        Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+            final int bit = 1 << ((hash >>> shift) & MASK);
+            final int index = 2 * Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                final Object[] copy = new Object[array.length + 2];
+                System.arraycopy(array, 0, copy, 0, index);
+                copy[index] = key;
+                copy[index + 1] = value;
+                System.arraycopy(array, index, copy, index + 2, array.length - index);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, copy);
+            }
+            final Object existing = array[index];
+            final Object existingValue = array[index + 1];
+            final Object replacement;
+            if (existing == null) {
+                replacement = ((Node) existingValue).put(shift + BITS, hash, key, value, added);
+                if (replacement == existingValue) {
+                    return this;
+                }
+            } else if (key.equals(existing)) {
+                if (value == existingValue) {
+                    return this;
+                }
+                return new BitmapNode(bitmap, replace(array, index + 1, value));
+            } else {
+                added[0] = true;
+                replacement = pair(shift + BITS, existing, existingValue, hash, key, value);
+            }
+            final Object[] copy = replace(array, index + 1, replacement);
+            copy[index] = null;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        @Override
+        Node remove(int shift, int hash, Object key) {
+            final int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            final int index = 2 * Integer.bitCount(bitmap & (bit - 1));
+            final Object existing = array[index];
+            if (existing == null) {
+                final Node child = (Node) array[index + 1];
+                final Node replacement = child.remove(shift + BITS, hash, key);
+                if (replacement == child) {
+                    return this;
+                }
+                if (replacement != null) {
+                    return new BitmapNode(bitmap, replace(array, index + 1, replacement));
+                }
+            } else if (!key.equals(existing)) {
+                return this;
+            }
+            if (bitmap == bit) {
+                return null;
+            }
+            final Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, index);
+            System.arraycopy(array, index + 2, copy, index, array.length - index - 2);
+            return new BitmapNode(bitmap & ~bit, copy);
+        }
+
+        /**
+         * Create the node holding two keys which collide at the level above.
+         */
+        private static Node pair(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+            final int hash1 = hash(key1);
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+            }
+            final boolean[] added = new boolean[1];
+            return new BitmapNode(0, new Object[0]).put(shift, hash1, key1, value1, added)
+                    .put(shift, hash2, key2, value2, added);
+        }
+    }
+
+    private static final class CollisionNode extends Node {
+        private final int hash;
+
+        CollisionNode(int hash, Object[] array) {
+            super(array);
+            this.hash = hash;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            final int index = indexOf(key);
+            return index < 0 ? ABSENT : array[index + 1];
+        }
+
+        @Override
+        Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // Only reached below the last level the hash codes tell apart, never for a single key
+                final int bit = 1 << ((this.hash >>> shift) & MASK);
+                return new BitmapNode(bit, new Object[]{null, this}).put(shift, hash, key, value, added);
+            }
+            final int index = indexOf(key);
+            if (index >= 0) {
+                return array[index + 1] == value ? this : new CollisionNode(hash, replace(array, index + 1, value));
+            }
+            final Object[] copy = new Object[array.length + 2];
+            System.arraycopy(array, 0, copy, 0, array.length);
+            copy[array.length] = key;
+            copy[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        Node remove(int shift, int hash, Object key) {
+            final int index = indexOf(key);
+            if (index < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            final Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, index);
+            System.arraycopy(array, index + 2, copy, index, array.length - index - 2);
+            return new CollisionNode(hash, copy);
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static Object[] replace(Object[] array, int index, Object value) {
+        final Object[] copy = array.clone();
+        copy[index] = value;
+        return copy;
+    }
+
+    /**
+     * Walks the trie depth first, keeping the path to the current entry.
+     */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final Object[][] arrays = new Object[MAX_DEPTH][];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth;
+        private Map.Entry<K, V> next;
+
+        EntryIterator(Node root) {
+            if (root != null) {
+                arrays[0] = root.array;
+                depth = 1;
+            }
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (depth > 0) {
+                final Object[] array = arrays[depth - 1];
+                final int position = positions[depth - 1];
+                if (position == array.length) {
+                    depth--;
+                    continue;
+                }
+                positions[depth - 1] = position + 2;
+                final Object key = array[position];
+                if (key == null) {
+                    arrays[depth] = ((Node) array[position + 1]).array;
+                    positions[depth] = 0;
+                    depth++;
+                } else {
+                    next = new AbstractMap.SimpleImmutableEntry<K, V>(key == NULL_KEY ? null : (K) key,
+                            (V) array[position + 1]);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            final Map.Entry<K, V> entry = next;
+            advance();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * The entries of a map, the trie is rebuilt when deserializing as the hash codes may differ between JVMs.
+     */
+    private static final class SerializedForm implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] keys;
+        private final Object[] values;
+
+        SerializedForm(Map<?, ?> map) {
+            keys = new Object[map.size()];
+            values = new Object[map.size()];
+            int i = 0;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                keys[i] = entry.getKey();
+                values[i++] = entry.getValue();
+            }
+        }
+
+        private Object readResolve() {
+            PersistentHashMap<Object, Object> map = empty();
+            for (int i = 0; i < keys.length; i++) {
+                map = map.plus(keys[i], values[i]);
+            }
+            return map;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Iterator;
+
+/**
+ * An immutable set updated by copying: {@link #plus(Object)} and {@link #minus(Object)} return a new set sharing
+ * all but one path of the tree with this one, in O(log n) time and memory. The keys of a
+ * {@link PersistentHashMap}, iterated in the order of their hash codes.
+ */
+public final class PersistentHashSet<E> extends AbstractSet<E> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final PersistentHashSet<Object> EMPTY = new PersistentHashSet<Object>(PersistentHashMap.<Object, Object>empty());
+
+    private final PersistentHashMap<E, Object> map;
+
+    private PersistentHashSet(PersistentHashMap<E, Object> map) {
+        this.map = map;
+    }
+
+    /**
+     * @return The empty set.
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentHashSet<E> empty() {
+        return (PersistentHashSet<E>) EMPTY;
+    }
+
+    /**
+     * @param element The element to add.
+     * @return This set when it contains the element already, otherwise a set with the element added.
+     */
+    public PersistentHashSet<E> plus(E element) {
+        final PersistentHashMap<E, Object> updated = map.plus(element, Boolean.TRUE);
+        return updated == map ? this : new PersistentHashSet<E>(updated);
+    }
+
+    /**
+     * @param element The element to remove.
+     * @return This set when it does not contain the element, otherwise a set without it.
+     */
+    public PersistentHashSet<E> minus(Object element) {
+        final PersistentHashMap<E, Object> updated = map.minus(element);
+        return updated == map ? this : new PersistentHashSet<E>(updated);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return map.containsKey(o);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return map.keySet().iterator();
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list updated by copying: {@link #plus(Object)} and {@link #with(int, Object)} return a new list
+ * sharing all but one path of the tree with this one, in O(log n) time and memory.
+ * <p/>
+ * A bitmapped vector trie: the elements are kept in leaves of 32, referenced from a tree of nodes with 32
+ * children each, the last, partial leaf separately as the tail. A list of a million elements is a tree of
+ * four levels, appending to it usually copies the tail only.
+ */
+public final class PersistentVector<E> extends AbstractList<E> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    static final PersistentVector<Object> EMPTY = new PersistentVector<Object>(0, BITS, new Object[WIDTH], new Object[0]);
+
+    private final int size;
+    /* The number of bits of the index used below the root */
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail;
+
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * @return The empty list.
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> empty() {
+        return (PersistentVector<E>) EMPTY;
+    }
+
+    /**
+     * Create a list of the given elements, building the tree directly in O(n).
+     *
+     * @param elements The elements, the array is not kept.
+     * @return The list.
+     */
+    static <E> PersistentVector<E> of(Object[] elements) {
+        final int size = elements.length;
+        if (size == 0) {
+            return empty();
+        }
+        final int tailOffset = tailOffset(size);
+        Object[] nodes = new Object[tailOffset >>> BITS];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = Arrays.copyOfRange(elements, i << BITS, (i + 1) << BITS);
+        }
+        int shift = BITS;
+        while (nodes.length > WIDTH) {
+            final Object[] parents = new Object[(nodes.length + MASK) >>> BITS];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = Arrays.copyOf(Arrays.copyOfRange(nodes, i << BITS, Math.min(nodes.length, (i + 1) << BITS)), WIDTH);
+            }
+            nodes = parents;
+            shift += BITS;
+        }
+        return new PersistentVector<E>(size, shift, Arrays.copyOf(nodes, WIDTH),
+                Arrays.copyOfRange(elements, tailOffset, size));
+    }
+
+    /**
+     * @param element The element to append.
+     * @return A list with the element appended.
+     */
+    public PersistentVector<E> plus(E element) {
+        if (size - tailOffset(size) < WIDTH) {
+            final Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = element;
+            return new PersistentVector<E>(size + 1, shift, root, newTail);
+        }
+        // The tail is full, move it into the tree
+        final Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root);
+        }
+        return new PersistentVector<E>(size + 1, newShift, newRoot, new Object[]{element});
+    }
+
+    /**
+     * @param index   The index of the element to replace.
+     * @param element The new element.
+     * @return This list when the element at the index is the same, otherwise a list with the element replaced.
+     */
+    public PersistentVector<E> with(int index, E element) {
+        checkIndex(index);
+        if (get(index) == element) {
+            return this;
+        }
+        if (index >= tailOffset(size)) {
+            final Object[] newTail = tail.clone();
+            newTail[index & MASK] = element;
+            return new PersistentVector<E>(size, shift, root, newTail);
+        }
+        return new PersistentVector<E>(size, shift, replace(shift, root, index, element), tail);
+    }
+
+    /**
+     * Remove the first occurrence of an element. Removing from the middle moves all elements after it, so
+     * unlike the other updates this copies the list in O(n).
+     *
+     * @param element The element to remove.
+     * @return This list when it does not contain the element, otherwise a list without it.
+     */
+    public PersistentVector<E> minus(Object element) {
+        final int index = indexOf(element);
+        if (index < 0) {
+            return this;
+        }
+        if (index == size - 1 && size - tailOffset(size) > 1) {
+            return new PersistentVector<E>(size - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+        }
+        final Object[] elements = toArray();
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        return of(Arrays.copyOf(elements, size - 1));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        checkIndex(index);
+        return (E) leaf(index)[index & MASK];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Object[] toArray() {
+        final Object[] elements = new Object[size];
+        final int tailOffset = tailOffset(size);
+        for (int i = 0; i < tailOffset; i += WIDTH) {
+            System.arraycopy(leaf(i), 0, elements, i, WIDTH);
+        }
+        System.arraycopy(tail, 0, elements, tailOffset, tail.length);
+        return elements;
+    }
+
+    private static int tailOffset(int size) {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private Object[] leaf(int index) {
+        if (index >= tailOffset(size)) {
+            return tail;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private Object[] pushTail(int level, Object[] parent) {
+        final int child = ((size - 1) >>> level) & MASK;
+        final Object[] copy = parent.clone();
+        if (level == BITS) {
+            copy[child] = tail;
+        } else {
+            final Object[] node = (Object[]) parent[child];
+            copy[child] = node != null ? pushTail(level - BITS, node) : newPath(level - BITS, tail);
+        }
+        return copy;
+    }
+
+    private static Object[] newPath(int level, Object[] node) {
+        if (level == 0) {
+            return node;
+        }
+        final Object[] path = new Object[WIDTH];
+        path[0] = newPath(level - BITS, node);
+        return path;
+    }
+
+    private static Object[] replace(int level, Object[] node, int index, Object element) {
+        final Object[] copy = node.clone();
+        if (level == 0) {
+            copy[index & MASK] = element;
+        } else {
+            final int child = (index >>> level) & MASK;
+            copy[child] = replace(level - BITS, (Object[]) node[child], index, element);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Frozen copies of the collection properties with boxed primitive elements or values, like
+ * <code>List&lt;Integer&gt;</code>, <code>Set&lt;Long&gt;</code> or <code>Map&lt;String, Double&gt;</code>.
+ * <p/>
+ * Generated with <code>-Abuilder.runtime=true</code>, the constructors call these methods instead of the ones of
+ * {@link ImmutableCollections} for such properties. The copies keep the primitives in arrays, a few bytes per
+ * element instead of a reference to a boxed value, and offer accessors that read them without boxing. Cast the
+ * value of the getter to the collection class named by the method to use those.
+ */
+public final class PrimitiveCollections {
+
+    private PrimitiveCollections() {
+    }
+
+    /**
+     * @param list The list, may be <code>null</code>.
+     * @return An {@link IntList} copy of the list, the empty list for <code>null</code>. A list holding
+     *         <code>null</code> elements is copied as by {@link ImmutableCollections#copyOfList(List)}.
+     */
+    public static List<Integer> copyOfIntList(List<? extends Integer> list) {
+        if (list == null) {
+            return IntList.EMPTY;
+        }
+        final Object[] elements = list.toArray();
+        final int[] values = new int[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            if (elements[i] == null) {
+                return ImmutableCollections.copyOfList(list);
+            }
+            values[i] = (Integer) elements[i];
+        }
+        return new IntList(values);
+    }
+
+    /**
+     * @param list The list, may be <code>null</code>.
+     * @return An {@link LongList} copy of the list, the empty list for <code>null</code>. A list holding
+     *         <code>null</code> elements is copied as by {@link ImmutableCollections#copyOfList(List)}.
+     */
+    public static List<Long> copyOfLongList(List<? extends Long> list) {
+        if (list == null) {
+            return LongList.EMPTY;
+        }
+        final Object[] elements = list.toArray();
+        final long[] values = new long[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            if (elements[i] == null) {
+                return ImmutableCollections.copyOfList(list);
+            }
+            values[i] = (Long) elements[i];
+        }
+        return new LongList(values);
+    }
+
+    /**
+     * @param list The list, may be <code>null</code>.
+     * @return An {@link DoubleList} copy of the list, the empty list for <code>null</code>. A list holding
+     *         <code>null</code> elements is copied as by {@link ImmutableCollections#copyOfList(List)}.
+     */
+    public static List<Double> copyOfDoubleList(List<? extends Double> list) {
+        if (list == null) {
+            return DoubleList.EMPTY;
+        }
+        final Object[] elements = list.toArray();
+        final double[] values = new double[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            if (elements[i] == null) {
+                return ImmutableCollections.copyOfList(list);
+            }
+            values[i] = (Double) elements[i];
+        }
+        return new DoubleList(values);
+    }
+
+    /**
+     * @param set The set, may be <code>null</code>.
+     * @return An {@link IntSet} copy of the set, the empty set for <code>null</code>. A set holding
+     *         <code>null</code> is copied as by {@link ImmutableCollections#copyOfSet(Set)}.
+     */
+    public static Set<Integer> copyOfIntSet(Set<? extends Integer> set) {
+        if (set == null) {
+            return IntSet.EMPTY;
+        }
+        final Object[] elements = set.toArray();
+        final int[] values = new int[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            if (elements[i] == null) {
+                return ImmutableCollections.copyOfSet(set);
+            }
+            values[i] = (Integer) elements[i];
+        }
+        return new IntSet(values);
+    }
+
+    /**
+     * @param set The set, may be <code>null</code>.
+     * @return An {@link LongSet} copy of the set, the empty set for <code>null</code>. A set holding
+     *         <code>null</code> is copied as by {@link ImmutableCollections#copyOfSet(Set)}.
+     */
+    public static Set<Long> copyOfLongSet(Set<? extends Long> set) {
+        if (set == null) {
+            return LongSet.EMPTY;
+        }
+        final Object[] elements = set.toArray();
+        final long[] values = new long[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            if (elements[i] == null) {
+                return ImmutableCollections.copyOfSet(set);
+            }
+            values[i] = (Long) elements[i];
+        }
+        return new LongSet(values);
+    }
+
+    /**
+     * @param map The map, may be <code>null</code>.
+     * @return An {@link ObjectIntMap} copy of the map, the empty map for <code>null</code>. A map holding
+     *         <code>null</code> values is copied as by {@link ImmutableCollections#copyOfMap(Map)}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K> Map<K, Integer> copyOfIntMap(Map<? extends K, ? extends Integer> map) {
+        if (map == null) {
+            return (Map<K, Integer>) (Map<?, ?>) ObjectIntMap.EMPTY;
+        }
+        final Object[] entries = map.entrySet().toArray();
+        final Object[] keys = new Object[entries.length];
+        final int[] values = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            final Map.Entry<?, ? extends Integer> entry = (Map.Entry<?, ? extends Integer>) entries[i];
+            final Integer value = entry.getValue();
+            if (value == null) {
+                return ImmutableCollections.copyOfMap(map);
+            }
+            keys[i] = entry.getKey();
+            values[i] = value;
+        }
+        return new ObjectIntMap<K>(keys, values);
+    }
+
+    /**
+     * @param map The map, may be <code>null</code>.
+     * @return An {@link ObjectLongMap} copy of the map, the empty map for <code>null</code>. A map holding
+     *         <code>null</code> values is copied as by {@link ImmutableCollections#copyOfMap(Map)}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K> Map<K, Long> copyOfLongMap(Map<? extends K, ? extends Long> map) {
+        if (map == null) {
+            return (Map<K, Long>) (Map<?, ?>) ObjectLongMap.EMPTY;
+        }
+        final Object[] entries = map.entrySet().toArray();
+        final Object[] keys = new Object[entries.length];
+        final long[] values = new long[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            final Map.Entry<?, ? extends Long> entry = (Map.Entry<?, ? extends Long>) entries[i];
+            final Long value = entry.getValue();
+            if (value == null) {
+                return ImmutableCollections.copyOfMap(map);
+            }
+            keys[i] = entry.getKey();
+            values[i] = value;
+        }
+        return new ObjectLongMap<K>(keys, values);
+    }
+
+    /**
+     * @param map The map, may be <code>null</code>.
+     * @return An {@link ObjectDoubleMap} copy of the map, the empty map for <code>null</code>. A map holding
+     *         <code>null</code> values is copied as by {@link ImmutableCollections#copyOfMap(Map)}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K> Map<K, Double> copyOfDoubleMap(Map<? extends K, ? extends Double> map) {
+        if (map == null) {
+            return (Map<K, Double>) (Map<?, ?>) ObjectDoubleMap.EMPTY;
+        }
+        final Object[] entries = map.entrySet().toArray();
+        final Object[] keys = new Object[entries.length];
+        final double[] values = new double[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            final Map.Entry<?, ? extends Double> entry = (Map.Entry<?, ? extends Double>) entries[i];
+            final Double value = entry.getValue();
+            if (value == null) {
+                return ImmutableCollections.copyOfMap(map);
+            }
+            keys[i] = entry.getKey();
+            values[i] = value;
+        }
+        return new ObjectDoubleMap<K>(keys, values);
+    }
+}
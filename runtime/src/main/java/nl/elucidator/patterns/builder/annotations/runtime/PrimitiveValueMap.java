@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An unmodifiable map with primitive values, the frozen copy of a map property with boxed values.
+ * <p/>
+ * The keys are kept in an array, in the iteration order of the copied map, and found through an open addressing
+ * table of positions. The subclasses keep the values in a primitive array at the same positions, so a map costs
+ * three arrays instead of an entry object and a boxed value per key.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The boxed type of the values.
+ */
+public abstract class PrimitiveValueMap<K, V> extends AbstractMap<K, V> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object[] keys;
+
+    /* The position in keys plus one of the key hashed to each slot, 0 for free slots */
+    private final int[] table;
+
+    /**
+     * @param keys Distinct keys, in iteration order.
+     */
+    PrimitiveValueMap(Object[] keys) {
+        this.keys = keys;
+        this.table = new int[OpenAddressing.tableSize(keys.length)];
+        final int mask = table.length - 1;
+        for (int i = 0; i < keys.length; i++) {
+            int slot = slot(keys[i]);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * @param index The position of the entry in the iteration order.
+     * @return The key of the entry.
+     */
+    @SuppressWarnings("unchecked")
+    public final K getKeyAt(int index) {
+        if (index < 0 || index >= keys.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + keys.length);
+        }
+        return (K) keys[index];
+    }
+
+    /**
+     * @param key The key to look for.
+     * @return The position of the key in the iteration order, <code>-1</code> if the map does not contain it.
+     */
+    public final int indexOfKey(Object key) {
+        final int mask = table.length - 1;
+        for (int slot = slot(key); table[slot] != 0; slot = (slot + 1) & mask) {
+            final Object candidate = keys[table[slot] - 1];
+            if (key == null ? candidate == null : key.equals(candidate)) {
+                return table[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index The position of the entry, a valid index of the keys.
+     * @return The value of the entry, boxed.
+     */
+    abstract V valueAt(int index);
+
+    @Override
+    public final int size() {
+        return keys.length;
+    }
+
+    @Override
+    public final boolean containsKey(Object key) {
+        return indexOfKey(key) >= 0;
+    }
+
+    @Override
+    public final V get(Object key) {
+        final int index = indexOfKey(key);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    @Override
+    public final Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new Iterator<Map.Entry<K, V>>() {
+                    private int next;
+
+                    public boolean hasNext() {
+                        return next < keys.length;
+                    }
+
+                    public Map.Entry<K, V> next() {
+                        if (next >= keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        final int index = next++;
+                        return new SimpleImmutableEntry<K, V>(getKeyAt(index), valueAt(index));
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    private int slot(Object key) {
+        return OpenAddressing.mix(key == null ? 0 : key.hashCode()) & (table.length - 1);
+    }
+}
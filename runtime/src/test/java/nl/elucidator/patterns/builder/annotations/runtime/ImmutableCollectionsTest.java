@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the frozen copies made by the generated constructors.
+ */
+public class ImmutableCollectionsTest {
+
+    @Test
+    public void nullIsSharedEmptyCollection() {
+        assertSame(Collections.emptyList(), ImmutableCollections.copyOfList(null));
+        assertSame(Collections.emptySet(), ImmutableCollections.copyOfSet(null));
+        assertSame(Collections.emptyMap(), ImmutableCollections.copyOfMap(null));
+        assertSame(ImmutableCollections.copyOfSortedSet(null), ImmutableCollections.copyOfSortedSet(null));
+        assertSame(ImmutableCollections.copyOfSortedMap(null), ImmutableCollections.copyOfSortedMap(null));
+    }
+
+    @Test
+    public void emptySortedCollectionsAreSorted() {
+        SortedSet<String> set = ImmutableCollections.copyOfSortedSet(null);
+        SortedMap<String, Integer> map = ImmutableCollections.copyOfSortedMap(null);
+
+        assertTrue(set.isEmpty());
+        assertTrue(set.headSet("a").isEmpty());
+        assertTrue(map.isEmpty());
+        assertTrue(map.tailMap("a").isEmpty());
+    }
+
+    @Test
+    public void copyIsIndependentOfSource() {
+        List<String> list = new ArrayList<String>(Arrays.asList("a"));
+        List<String> copy = ImmutableCollections.copyOfList(list);
+
+        list.add("b");
+        assertEquals(Arrays.asList("a"), copy);
+    }
+
+    @Test
+    public void copyKeepsIterationOrder() {
+        LinkedHashSet<String> set = new LinkedHashSet<String>(Arrays.asList("c", "a", "b"));
+
+        assertEquals(Arrays.asList("c", "a", "b"), new ArrayList<String>(ImmutableCollections.copyOfSet(set)));
+    }
+
+    @Test
+    public void sortedCopyKeepsComparator() {
+        TreeSet<String> set = new TreeSet<String>(Collections.<String>reverseOrder());
+        set.addAll(Arrays.asList("a", "c", "b"));
+        TreeMap<String, Integer> map = new TreeMap<String, Integer>(Collections.<String>reverseOrder());
+        map.put("a", 1);
+        map.put("b", 2);
+
+        assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<String>(ImmutableCollections.copyOfSortedSet(set)));
+        assertEquals("b", ImmutableCollections.copyOfSortedMap(map).firstKey());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void listIsReadOnly() {
+        ImmutableCollections.copyOfList(new ArrayList<String>()).add("a");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void mapIsReadOnly() {
+        ImmutableCollections.copyOfMap(new HashMap<String, String>()).put("a", "b");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void sortedSetIsReadOnly() {
+        ImmutableCollections.copyOfSortedSet(new TreeSet<String>()).add("a");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void emptySortedSetIsReadOnly() {
+        ImmutableCollections.<String>copyOfSortedSet(null).add("a");
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Verifies the pool of canonical instances used by the Builders of @Interned types.
+ */
+public class InternPoolTest {
+
+    @Test
+    public void equalInstancesAreReplacedByTheFirst() {
+        InternPool<String> pool = new InternPool<String>();
+        String first = new String("value");
+        String second = new String("value");
+        assertNotSame(first, second);
+
+        assertSame(first, pool.intern(first));
+        assertSame(first, pool.intern(second));
+        assertSame(first, pool.intern(first));
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        InternPool<String> pool = new InternPool<String>();
+        String a = new String("a");
+        String b = new String("b");
+
+        pool.intern(a);
+        pool.intern(b);
+        pool.intern(new String("a"));
+
+        assertEquals(1, pool.getHits());
+        assertEquals(2, pool.getMisses());
+        assertEquals(2, pool.size());
+        assertEquals("InternPool{hits=1, misses=2, size=2}", pool.toString());
+    }
+
+    @Test
+    public void unusedInstancesAreCollected() throws InterruptedException {
+        InternPool<Object> pool = new InternPool<Object>();
+        for (int i = 0; i < 1000; i++) {
+            pool.intern(new Object());
+        }
+        assertEquals(1000, pool.getMisses());
+
+        for (int i = 0; i < 50 && pool.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.size());
+    }
+}
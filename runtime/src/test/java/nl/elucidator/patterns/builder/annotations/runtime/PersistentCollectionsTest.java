@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the persistent collections against their <code>java.util</code> counterparts.
+ */
+public class PersistentCollectionsTest {
+
+    @Test
+    public void vectorsMatchArrayList() {
+        Random random = new Random(42);
+        List<Integer> expected = new ArrayList<Integer>();
+        PersistentVector<Integer> vector = PersistentVector.empty();
+        // Crosses the tail, one and two levels of the tree
+        for (int i = 0; i < 40000; i++) {
+            expected.add(i);
+            vector = vector.plus(i);
+            if (random.nextInt(16) == 0) {
+                int index = random.nextInt(expected.size());
+                expected.set(index, -i);
+                vector = vector.with(index, -i);
+            }
+        }
+        assertEquals(expected, vector);
+        assertEquals(expected, PersistentVector.of(expected.toArray()));
+        assertEquals(expected.hashCode(), vector.hashCode());
+        for (int i = 0; i < 50; i++) {
+            Integer element = expected.get(random.nextInt(expected.size()));
+            expected.remove(element);
+            vector = vector.minus(element);
+        }
+        assertEquals(expected, vector);
+        assertEquals(Arrays.asList(expected.toArray()), Arrays.asList(vector.toArray()));
+    }
+
+    @Test
+    public void vectorsShareUnchangedVersions() {
+        PersistentVector<String> first = PersistentCollections.copyOfList(Arrays.asList("a", "b"));
+        PersistentVector<String> second = first.plus("c");
+
+        assertEquals(Arrays.asList("a", "b"), first);
+        assertEquals(Arrays.asList("a", "b", "c"), second);
+        assertSame(first, first.with(0, "a"));
+        assertSame(first, first.minus("d"));
+        assertSame(first, PersistentCollections.copyOfList(first));
+        assertEquals(Arrays.asList("a", "c"), second.minus("b"));
+        assertEquals(Collections.emptyList(), PersistentCollections.copyOfList(null));
+    }
+
+    @Test
+    public void mapsMatchHashMap() {
+        Random random = new Random(42);
+        Map<Key, Integer> expected = new HashMap<Key, Integer>();
+        PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 20000; i++) {
+            Key key = random.nextInt(64) == 0 ? null : new Key(random.nextInt(5000));
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(expected.hashCode(), map.hashCode());
+        for (Key key : expected.keySet()) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        assertFalse(map.containsKey(new Key(-1)));
+        assertNull(map.get(new Key(-1)));
+    }
+
+    @Test
+    public void mapsShareUnchangedVersions() {
+        Integer one = 1;
+        PersistentHashMap<String, Integer> first = PersistentHashMap.<String, Integer>empty().plus("a", one);
+        PersistentHashMap<String, Integer> second = first.plus("b", null);
+
+        assertSame(first, first.plus("a", one));
+        assertSame(first, first.minus("b"));
+        assertSame(second, PersistentCollections.copyOfMap(second));
+        assertTrue(second.containsKey("b"));
+        assertEquals(Collections.singletonMap("a", 1), first);
+        assertEquals(first, second.minus("b"));
+        assertEquals(Collections.emptyMap(), second.minus("a").minus("b"));
+    }
+
+    @Test
+    public void setsMatchHashSet() {
+        Set<Key> expected = new HashSet<Key>();
+        PersistentHashSet<Key> set = PersistentHashSet.empty();
+        for (int i = 0; i < 3000; i++) {
+            expected.add(new Key(i));
+            set = set.plus(new Key(i));
+        }
+        for (int i = 0; i < 3000; i += 3) {
+            expected.remove(new Key(i));
+            set = set.minus(new Key(i));
+        }
+
+        assertEquals(expected, set);
+        assertEquals(expected, PersistentCollections.copyOfSet(expected));
+        assertSame(set, set.plus(new Key(1)));
+        assertSame(set, PersistentCollections.copyOfSet(set));
+        assertTrue(set.contains(new Key(1)));
+        assertFalse(set.contains(new Key(0)));
+    }
+
+    @Test
+    public void serializedCopiesAreEqual() throws Exception {
+        PersistentHashMap<Key, String> map = PersistentHashMap.empty();
+        PersistentVector<Key> vector = PersistentVector.empty();
+        for (int i = 0; i < 100; i++) {
+            map = map.plus(new Key(i), String.valueOf(i));
+            vector = vector.plus(new Key(i));
+        }
+        PersistentHashSet<Key> set = PersistentCollections.copyOfSet(map.keySet());
+
+        assertEquals(map, copy(map));
+        assertEquals(vector, copy(vector));
+        assertEquals(set, copy(set));
+    }
+
+    private static Object copy(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+
+    /**
+     * A key with few hash codes, so the maps hold collision nodes.
+     */
+    private static final class Key implements java.io.Serializable {
+        private final int value;
+
+        Key(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value % 1000;
+        }
+    }
+}
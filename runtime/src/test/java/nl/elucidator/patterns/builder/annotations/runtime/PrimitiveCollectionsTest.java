@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.elucidator.patterns.builder.annotations.runtime;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the primitive copies of collection properties with boxed elements.
+ */
+public class PrimitiveCollectionsTest {
+
+    @Test
+    public void listsEqualTheirSource() {
+        List<Integer> source = Arrays.asList(3, 1, 2);
+        List<Integer> copy = PrimitiveCollections.copyOfIntList(source);
+
+        assertTrue(copy instanceof IntList);
+        assertEquals(source, copy);
+        assertEquals(copy, source);
+        assertEquals(source.hashCode(), copy.hashCode());
+        assertEquals(1, ((IntList) copy).getIntAt(1));
+        assertArrayEquals(new int[]{3, 1, 2}, ((IntList) copy).toIntArray());
+        assertEquals(2, copy.indexOf(2));
+        assertFalse(copy.contains(2L));
+    }
+
+    @Test
+    public void doubleListsCompareLikeDouble() {
+        List<Double> source = Arrays.asList(Double.NaN, -0.0d, 1.5d);
+        List<Double> copy = PrimitiveCollections.copyOfDoubleList(source);
+
+        assertEquals(source, copy);
+        assertEquals(source.hashCode(), copy.hashCode());
+        assertEquals(0, copy.indexOf(Double.NaN));
+        assertEquals(-1, copy.indexOf(0.0d));
+    }
+
+    @Test
+    public void setsKeepTheOrderOfTheirSource() {
+        Set<Long> source = new LinkedHashSet<Long>(Arrays.asList(5L, -1L, 1L << 40, 0L));
+        Set<Long> copy = PrimitiveCollections.copyOfLongSet(source);
+
+        assertTrue(copy instanceof LongSet);
+        assertEquals(source, copy);
+        assertEquals(source.hashCode(), copy.hashCode());
+        assertEquals(new ArrayList<Long>(source), new ArrayList<Long>(copy));
+        assertTrue(((LongSet) copy).containsLong(1L << 40));
+        assertFalse(((LongSet) copy).containsLong(2L));
+        assertFalse(copy.contains(5));
+    }
+
+    @Test
+    public void largeSetsFindAllElements() {
+        Set<Integer> source = new HashSet<Integer>();
+        for (int i = 0; i < 10000; i++) {
+            source.add(i * 1024);
+        }
+        IntSet copy = (IntSet) PrimitiveCollections.copyOfIntSet(source);
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(copy.containsInt(i * 1024));
+            assertFalse(copy.containsInt(i * 1024 + 1));
+        }
+        assertEquals(source, copy);
+    }
+
+    @Test
+    public void mapsEqualTheirSource() {
+        Map<String, Double> source = new LinkedHashMap<String, Double>();
+        source.put("b", 2.0d);
+        source.put(null, 0.5d);
+        source.put("a", 1.0d);
+        Map<String, Double> copy = PrimitiveCollections.copyOfDoubleMap(source);
+
+        assertTrue(copy instanceof ObjectDoubleMap);
+        assertEquals(source, copy);
+        assertEquals(copy, source);
+        assertEquals(source.hashCode(), copy.hashCode());
+        assertEquals(new ArrayList<String>(source.keySet()), new ArrayList<String>(copy.keySet()));
+        assertEquals(Double.valueOf(0.5d), copy.get(null));
+        assertNull(copy.get("c"));
+        assertEquals(1.0d, ((ObjectDoubleMap<?>) copy).getDouble("a", -1.0d), 0.0d);
+        assertEquals(-1.0d, ((ObjectDoubleMap<?>) copy).getDouble("c", -1.0d), 0.0d);
+        assertEquals("a", ((ObjectDoubleMap<?>) copy).getKeyAt(2));
+    }
+
+    @Test
+    public void nullsAreKept() {
+        List<Integer> list = Arrays.asList(1, null);
+        Map<String, Integer> map = new LinkedHashMap<String, Integer>();
+        map.put("a", null);
+
+        assertEquals(list, PrimitiveCollections.copyOfIntList(list));
+        assertEquals(map, PrimitiveCollections.copyOfIntMap(map));
+        assertTrue(PrimitiveCollections.copyOfLongSet(null).isEmpty());
+        assertTrue(PrimitiveCollections.<String>copyOfLongMap(null).isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void copiesAreReadOnly() {
+        PrimitiveCollections.copyOfIntSet(new HashSet<Integer>(Arrays.asList(1))).clear();
+    }
+}
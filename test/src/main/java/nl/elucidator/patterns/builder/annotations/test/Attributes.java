@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.test;
+
+import net.jcip.annotations.Immutable;
+import nl.elucidator.patterns.builder.annotations.Required;
+
+import java.util.Date;
+
+/**
+ * Test object with many optional properties, few of them set on a typical instance.
+ */
+@Immutable
+public interface Attributes {
+    @Required
+    long getId();
+
+    String getLabel0();
+
+    int getCount0();
+
+    long getTotal0();
+
+    double getRatio0();
+
+    boolean isFlag0();
+
+    Date getCreated0();
+
+    String getLabel1();
+
+    int getCount1();
+
+    long getTotal1();
+
+    double getRatio1();
+
+    boolean isFlag1();
+
+    Date getCreated1();
+
+    String getLabel2();
+
+    int getCount2();
+
+    long getTotal2();
+
+    double getRatio2();
+
+    boolean isFlag2();
+
+    Date getCreated2();
+
+    String getLabel3();
+
+    int getCount3();
+
+    long getTotal3();
+
+    double getRatio3();
+
+    boolean isFlag3();
+
+    Date getCreated3();
+
+    String getLabel4();
+
+    int getCount4();
+
+    long getTotal4();
+
+    double getRatio4();
+
+    boolean isFlag4();
+
+    Date getCreated4();
+
+    String getLabel5();
+
+    int getCount5();
+
+    long getTotal5();
+
+    double getRatio5();
+
+    boolean isFlag5();
+
+    Date getCreated5();
+
+    String getLabel6();
+
+    int getCount6();
+
+    long getTotal6();
+
+    double getRatio6();
+
+    boolean isFlag6();
+
+    Date getCreated6();
+
+    String getLabel7();
+
+    int getCount7();
+
+    long getTotal7();
+
+    double getRatio7();
+
+    boolean isFlag7();
+
+    Date getCreated7();
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.test;
+
+import org.junit.Test;
+
+import static nl.elucidator.patterns.builder.annotations.test.InstanceSizes.instanceSize;
+import static org.junit.Assert.*;
+
+/**
+ * Compares the instance sizes of the default and the compact field layout, and checks the packed properties read back.
+ */
+public class CompactLayoutTest {
+
+    @Test
+    public void packedBooleansShrinkTheInstance() {
+        assertTrue(instanceSize(CompactSettingsImpl.class) < instanceSize(SettingsImpl.class));
+    }
+
+    /**
+     * The flags and the presence bit of the int share a single int, where the default layout needs a byte per flag.
+     */
+    @Test
+    public void packedFlagsShrinkTheCollectionsSample() {
+        assertTrue(instanceSize(CompactCollectionsSampleImpl.class) < instanceSize(FlaggedCollectionsSampleImpl.class));
+
+        CompactCollectionsSampleImpl sample = (CompactCollectionsSampleImpl) new CompactCollectionsSampleImpl.Builder()
+                .readOnly(true).encrypted(true).intType(0).build();
+        assertTrue(sample.isReadOnly());
+        assertTrue(sample.isEncrypted());
+        assertFalse(sample.isCompressed());
+        assertTrue(sample.hasIntType());
+        assertEquals(0, sample.getIntType());
+        assertTrue(sample.getListString().isEmpty());
+    }
+
+    /**
+     * Without booleans or optional primitives the compact layout only declares the hot fields first, the JVM lays
+     * out the fields by size either way.
+     */
+    @Test
+    public void compactLayoutWithoutBooleansKeepsTheSize() {
+        assertEquals(instanceSize(PersonImpl.class), instanceSize(CompactPersonImpl.class));
+    }
+
+    @Test
+    public void packedProperties() {
+        CompactSettingsImpl settings = (CompactSettingsImpl) new CompactSettingsImpl.Builder("name")
+                .visible(true).muted(true).retries(0).build();
+
+        assertFalse(settings.isEnabled());
+        assertTrue(settings.isVisible());
+        assertTrue(settings.isMuted());
+        assertFalse(settings.isSynced());
+        assertEquals(0, settings.getRetries());
+        assertTrue(settings.hasRetries());
+        assertTrue(settings.hasVisible());
+        assertFalse(settings.hasEnabled());
+        assertEquals(settings, settings.builder().build());
+    }
+
+    @Test
+    public void presenceBitsAreNotCompared() {
+        CompactSettingsImpl settings = (CompactSettingsImpl) new CompactSettingsImpl.Builder("name").build();
+        CompactSettingsImpl defaults = (CompactSettingsImpl) new CompactSettingsImpl.Builder("name")
+                .retries(0).enabled(false).build();
+
+        assertTrue(defaults.hasRetries());
+        assertFalse(settings.hasRetries());
+        assertEquals(settings, defaults);
+        assertEquals(settings.hashCode(), defaults.hashCode());
+        assertEquals(settings, settings.withEnabled(false));
+        assertFalse(settings.equals(settings.withEnabled(true)));
+        assertFalse(settings.equals(settings.withRetries(1)));
+    }
+
+    @Test
+    public void equalsLikeTheDefaultLayout() {
+        Settings[] settings = {
+                new SettingsImpl.Builder("name").build(),
+                new SettingsImpl.Builder("name").retries(0).enabled(false).build(),
+                new SettingsImpl.Builder("name").retries(3).build(),
+                new SettingsImpl.Builder("name").muted(true).build(),
+                new SettingsImpl.Builder("other").muted(true).build()};
+        CompactSettings[] compact = {
+                new CompactSettingsImpl.Builder("name").build(),
+                new CompactSettingsImpl.Builder("name").retries(0).enabled(false).build(),
+                new CompactSettingsImpl.Builder("name").retries(3).build(),
+                new CompactSettingsImpl.Builder("name").muted(true).build(),
+                new CompactSettingsImpl.Builder("other").muted(true).build()};
+
+        for (int i = 0; i < settings.length; i++) {
+            assertEquals(settings[i].hashCode(), compact[i].hashCode());
+            for (int j = 0; j < settings.length; j++) {
+                assertEquals(i + " equals " + j, settings[i].equals(settings[j]), compact[i].equals(compact[j]));
+            }
+        }
+    }
+
+    @Test
+    public void packedWithers() {
+        CompactSettingsImpl settings = (CompactSettingsImpl) new CompactSettingsImpl.Builder("name").build();
+
+        CompactSettingsImpl pinned = settings.withPinned(true);
+        assertTrue(pinned.isPinned());
+        assertFalse(settings.isPinned());
+        assertFalse(pinned.equals(settings));
+        assertSame(pinned, pinned.withPinned(true));
+        assertFalse(pinned.withPinned(false).isPinned());
+        assertEquals(pinned, settings.builder().pinned(true).build());
+    }
+}
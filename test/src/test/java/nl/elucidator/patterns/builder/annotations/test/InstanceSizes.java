@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.test;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * The memory taken by instances, as reported by the field and array offsets of the running JVM, rounded up to the
+ * 8 byte object alignment. <code>sun.misc.Unsafe</code> is called through reflection, to compile without warnings
+ * about proprietary API.
+ */
+final class InstanceSizes {
+    private static final Object UNSAFE;
+    private static final Method OBJECT_FIELD_OFFSET;
+    private static final Method ARRAY_BASE_OFFSET;
+    private static final Method ARRAY_INDEX_SCALE;
+
+    static {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            UNSAFE = field.get(null);
+            OBJECT_FIELD_OFFSET = unsafeClass.getMethod("objectFieldOffset", Field.class);
+            ARRAY_BASE_OFFSET = unsafeClass.getMethod("arrayBaseOffset", Class.class);
+            ARRAY_INDEX_SCALE = unsafeClass.getMethod("arrayIndexScale", Class.class);
+        } catch (Exception e) {
+            throw new IllegalStateException("No access to sun.misc.Unsafe", e);
+        }
+    }
+
+    private InstanceSizes() {
+    }
+
+    /**
+     * @return The size of an instance of the given class, the end of its last field.
+     */
+    static long instanceSize(Class<?> type) {
+        long end = 0;
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Field declared : current.getDeclaredFields()) {
+                if (!Modifier.isStatic(declared.getModifiers())) {
+                    end = Math.max(end, (Long) invoke(OBJECT_FIELD_OFFSET, declared) + size(declared.getType()));
+                }
+            }
+        }
+        return align(end);
+    }
+
+    /**
+     * @return The size of the instance and of the non empty arrays its fields refer to, the arrays it owns.
+     */
+    static long retainedSize(Object instance) throws IllegalAccessException {
+        long size = instanceSize(instance.getClass());
+        for (Field declared : instance.getClass().getDeclaredFields()) {
+            if (!Modifier.isStatic(declared.getModifiers()) && declared.getType().isArray()) {
+                declared.setAccessible(true);
+                final Object array = declared.get(instance);
+                if (array != null && Array.getLength(array) > 0) {
+                    final Class<?> arrayType = declared.getType();
+                    size += align((Integer) invoke(ARRAY_BASE_OFFSET, arrayType)
+                            + (long) (Integer) invoke(ARRAY_INDEX_SCALE, arrayType) * Array.getLength(array));
+                }
+            }
+        }
+        return size;
+    }
+
+    private static int size(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return (Integer) invoke(ARRAY_INDEX_SCALE, Object[].class);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static Object invoke(Method method, Object argument) {
+        try {
+            return method.invoke(UNSAFE, argument);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to call sun.misc.Unsafe." + method.getName(), e);
+        }
+    }
+}
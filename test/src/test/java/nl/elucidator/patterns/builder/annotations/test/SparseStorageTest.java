@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2010 Jan-Kees van Andel.
+ * Copyright (C) 2012 Pieter van der Meer (pieter(at)elucidator.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.elucidator.patterns.builder.annotations.test;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Date;
+
+import static nl.elucidator.patterns.builder.annotations.test.InstanceSizes.retainedSize;
+import static org.junit.Assert.*;
+
+/**
+ * Compares sparse storage with a field per property: the memory taken by a few properties set, and the values of
+ * all properties read back.
+ */
+public class SparseStorageTest {
+    private static final Date CREATED = new Date(0);
+
+    @Test
+    public void memoryFollowsThePropertiesSet() throws Exception {
+        final Attributes fields = new AttributesImpl.Builder(1L).label0("label").count3(3).flag5(true).build();
+        final Attributes sparse = new SparseAttributesImpl.Builder(1L).label0("label").count3(3).flag5(true).build();
+
+        assertTrue(retainedSize(sparse) < retainedSize(fields) / 2);
+        assertTrue(retainedSize(new SparseAttributesImpl.Builder(1L).build()) < retainedSize(sparse));
+    }
+
+    @Test
+    public void propertiesReadBack() throws Exception {
+        final Attributes fields = new AttributesImpl.Builder(1L).label2("label").count0(-1).total7(Long.MIN_VALUE)
+                .ratio4(-0.0).ratio5(Double.NaN).flag1(true).created6(CREATED).build();
+        final Attributes sparse = new SparseAttributesImpl.Builder(1L).label2("label").count0(-1)
+                .total7(Long.MIN_VALUE).ratio4(-0.0).ratio5(Double.NaN).flag1(true).created6(CREATED).build();
+
+        for (Method getter : Attributes.class.getMethods()) {
+            assertEquals(getter.getName(), getter.invoke(fields), getter.invoke(sparse));
+        }
+        assertEquals(fields.hashCode(), sparse.hashCode());
+        assertEquals(fields.toString().substring(fields.toString().indexOf('{')),
+                sparse.toString().substring(sparse.toString().indexOf('{')));
+    }
+
+    @Test
+    public void equalsAndWithers() {
+        final SparseAttributesImpl sparse = (SparseAttributesImpl) new SparseAttributesImpl.Builder(1L)
+                .label0("label").ratio1(0.5).created2(CREATED).build();
+
+        assertEquals(sparse, sparse.builder().build());
+        assertSame(sparse, sparse.withRatio1(0.5));
+        final SparseAttributesImpl changed = sparse.withCount4(4).withLabel0(null);
+        assertEquals(4, changed.getCount4());
+        assertNull(changed.getLabel0());
+        assertEquals(0.5, changed.getRatio1(), 0.0);
+        assertEquals(CREATED, changed.getCreated2());
+        assertFalse(changed.equals(sparse));
+        assertEquals(sparse, changed.withCount4(0).withLabel0("label"));
+    }
+}